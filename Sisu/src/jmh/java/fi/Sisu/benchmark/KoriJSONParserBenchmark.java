@@ -0,0 +1,73 @@
+package fi.Sisu.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fi.Sisu.datasource.KoriJSONParser;
+import fi.Sisu.model.Course;
+import fi.Sisu.model.SisuNode;
+
+/**
+ * Parsing of Kori API responses. The fixtures in src/jmh/resources have the
+ * format of recorded responses (see KoriFixtures), so they can be replaced
+ * with real recordings.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class KoriJSONParserBenchmark {
+
+    private KoriJSONParser parser;
+    private String module;
+    private String course;
+    private String courseSearch;
+
+    @Setup
+    public void setUp() throws IOException {
+        parser = new KoriJSONParser();
+        module = readFixture("module.json");
+        course = readFixture("course.json");
+        courseSearch = readFixture("course-search.json");
+    }
+
+    @Benchmark
+    public SisuNode parseModule() {
+        return parser.parseModule(module);
+    }
+
+    @Benchmark
+    public Course parseCourse() {
+        return parser.parseCourse(course);
+    }
+
+    @Benchmark
+    public ArrayList<Course> parseCourseSearchResults() {
+        return parser.parseCourseSearchResults(courseSearch);
+    }
+
+    private static String readFixture(String name) throws IOException {
+        try (InputStream in = KoriJSONParserBenchmark.class.getResourceAsStream(name)) {
+            if (in == null) {
+                throw new IOException("Missing fixture " + name);
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package fi.Sisu.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fi.Sisu.app.AppConfig;
+import fi.Sisu.datasource.CurriculumStore;
+import fi.Sisu.datasource.FileDataSource;
+import fi.Sisu.model.SisuNode;
+import fi.Sisu.model.Student;
+
+/**
+ * Saving and loading a student with FileDataSource, with the programme
+ * embedded in the student file or saved as an overlay of a stored
+ * curriculum, in each student file format, and counting the completed credits of a student.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class PersistenceBenchmark {
+
+    private static final String STUDENT_ID = "benchmark";
+
+    @Param({"100", "1000", "10000"})
+    public int nodeCount;
+
+    @Param({"false", "true"})
+    public boolean overlay;
+
+    @Param({"JSON", "SMILE", "SMILE_GZIP"})
+    public String format;
+
+    private Path folder;
+    private FileDataSource fileDataSource;
+    private Student student;
+
+    @Setup
+    public void setUp() throws IOException {
+        System.setProperty(AppConfig.STUDENT_FILE_FORMAT, format);
+        folder = Files.createTempDirectory("sisu-benchmark");
+        fileDataSource = new FileDataSource(
+            folder.resolve("students"),
+            new CurriculumStore(folder.resolve("curriculums")),
+            Duration.ZERO);
+
+        SisuNode programme = SyntheticTrees.createProgramme(nodeCount);
+        if (overlay) {
+            fileDataSource.storeCurriculum(programme);
+        }
+        student = new Student(STUDENT_ID, "Bench", "Mark", programme);
+        fileDataSource.createStudentsFolderIfNotExists(folder.resolve("students"));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        System.clearProperty(AppConfig.STUDENT_FILE_FORMAT);
+        try (Stream<Path> files = Files.walk(folder)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public Student saveAndLoad() {
+        fileDataSource.saveStudentDataToFile(student);
+        return fileDataSource.loadStudentDataFromFile(STUDENT_ID);
+    }
+
+    @Benchmark
+    public Integer calculateTotalCompletedCredits() {
+        return student.calculateTotalCompletedCredits();
+    }
+}
@@ -0,0 +1,96 @@
+package fi.Sisu.benchmark;
+
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fi.Sisu.model.Course;
+import fi.Sisu.model.SisuNode;
+
+/**
+ * Lookups and changes on synthetic degree programme trees of 10^2 - 10^5
+ * modules and courses. The searched nodes are the last ones created, deepest
+ * in the tree.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SisuNodeBenchmark {
+
+    @Param({"100", "1000", "10000", "100000"})
+    public int nodeCount;
+
+    private SisuNode programme;
+    private String lastModuleId;
+    private String lastCourseId;
+    private String deletedCourseId;
+
+    /**
+     * Copy of the programme for deleteCourse, made again before every call.
+     */
+    @State(Scope.Thread)
+    public static class DeleteState {
+        SisuNode programme;
+
+        @Setup(Level.Invocation)
+        public void setUp(SisuNodeBenchmark benchmark) {
+            programme = new SisuNode(benchmark.programme);
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        programme = SyntheticTrees.createProgramme(nodeCount);
+        int moduleCount = SyntheticTrees.getModuleCount(nodeCount);
+        int courseCount = SyntheticTrees.getCourseCount(nodeCount);
+        lastModuleId = moduleCount > 1 ? SyntheticTrees.getModuleId(moduleCount - 1) : SyntheticTrees.PROGRAMME_ID;
+        lastCourseId = SyntheticTrees.getCourseId(courseCount - 1);
+        // Every third course is mandatory and can't be deleted.
+        deletedCourseId = SyntheticTrees.getCourseId(courseCount - 1 - (courseCount - 1) % 3 - 1);
+    }
+
+    @Benchmark
+    public SisuNode findNodeInTree() {
+        return programme.findNodeInTree(lastModuleId);
+    }
+
+    @Benchmark
+    public Course findCourseInTree() {
+        return programme.findCourseInTree(lastCourseId);
+    }
+
+    @Benchmark
+    public HashSet<String> getAllMandatoryCourses() {
+        return programme.getAllMandatoryCourses();
+    }
+
+    /**
+     * Copies the whole programme. With -prof gc, gc.alloc.rate.norm is about
+     * the heap taken by one loaded programme.
+     */
+    @Benchmark
+    public SisuNode copyProgramme() {
+        return new SisuNode(programme);
+    }
+
+    @Benchmark
+    public SisuNode deleteCourse(DeleteState state) {
+        state.programme.deleteCourse(deletedCourseId, new HashSet<>());
+        return state.programme;
+    }
+}
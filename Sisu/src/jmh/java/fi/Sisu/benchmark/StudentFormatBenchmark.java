@@ -0,0 +1,59 @@
+package fi.Sisu.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fi.Sisu.datasource.StudentFileFormat;
+import fi.Sisu.model.Student;
+
+/**
+ * Encoding and decoding a student with its whole study programme in the
+ * student file formats. The size of the encoded student is printed in the
+ * setup, to compare the disk footprint of the formats.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class StudentFormatBenchmark {
+
+    @Param({"1000", "10000"})
+    public int nodeCount;
+
+    @Param({"JSON", "SMILE", "SMILE_GZIP"})
+    public StudentFileFormat format;
+
+    private Student student;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() throws IOException {
+        student = new Student("benchmark", "Bench", "Mark", SyntheticTrees.createProgramme(nodeCount));
+        encoded = format.write(student);
+        System.out.println(format + " student with " + nodeCount + " nodes: " + encoded.length + " bytes");
+    }
+
+    @Benchmark
+    public byte[] write() throws IOException {
+        return format.write(student);
+    }
+
+    @Benchmark
+    public Student read() throws IOException {
+        return StudentFileFormat.read(encoded);
+    }
+}
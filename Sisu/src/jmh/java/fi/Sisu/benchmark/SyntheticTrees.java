@@ -0,0 +1,117 @@
+package fi.Sisu.benchmark;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+import fi.Sisu.model.Course;
+import fi.Sisu.model.SisuNode;
+
+/**
+ * Builds degree programme trees of a given size for the benchmarks. Modules
+ * have up to BRANCHING child modules and COURSES_PER_MODULE courses, every
+ * third course is mandatory and every other course has a grade.
+ */
+public class SyntheticTrees {
+
+    public static final String PROGRAMME_ID = "programme";
+
+    private static final int BRANCHING = 5;
+    private static final int COURSES_PER_MODULE = 9;
+
+    private SyntheticTrees() {
+        // Private constructor to avoid accidental instantiation of this class.
+    }
+
+
+    /**
+     * Builds a programme with about nodeCount modules and courses in total.
+     *
+     * @param nodeCount int number of modules and courses.
+     * @return SisuNode root of the tree.
+     */
+    public static SisuNode createProgramme(int nodeCount) {
+        SisuNode programme = new SisuNode(PROGRAMME_ID);
+        programme.setName("Synthetic programme");
+        programme.setTargetCredits(180);
+
+        List<SisuNode> modules = new ArrayList<>();
+        modules.add(programme);
+        Queue<SisuNode> parents = new ArrayDeque<>();
+        parents.add(programme);
+        for (int moduleIndex = 1; moduleIndex < getModuleCount(nodeCount); moduleIndex++) {
+            SisuNode parent = parents.peek();
+            SisuNode module = new SisuNode(getModuleId(moduleIndex));
+            module.setName("Module " + moduleIndex);
+            parent.addChildModule(module);
+            modules.add(module);
+            parents.add(module);
+            if (parent.getChildModules().size() == BRANCHING) {
+                parents.remove();
+            }
+        }
+
+        int courseIndex = 0;
+        for (SisuNode module : modules) {
+            for (int i = 0; i < COURSES_PER_MODULE; i++, courseIndex++) {
+                Course course = new Course(getCourseId(courseIndex));
+                course.setName("Course " + courseIndex);
+                course.setTargetCredits(5);
+                course.setGraded(true);
+                if (courseIndex % 2 == 0) {
+                    course.setGrade("3");
+                }
+                module.addChildCourse(course);
+                if (courseIndex % 3 == 0) {
+                    module.addMandatoryCourse(course.getGroupId());
+                }
+            }
+        }
+        return programme;
+    }
+
+
+    /**
+     * Returns the groupId of a module.
+     *
+     * @param index int index of the module, 1 is the first child of the root.
+     * @return String groupId.
+     */
+    public static String getModuleId(int index) {
+        return "module-" + index;
+    }
+
+
+    /**
+     * Returns the groupId of a course.
+     *
+     * @param index int index of the course.
+     * @return String groupId.
+     */
+    public static String getCourseId(int index) {
+        return "course-" + index;
+    }
+
+
+    /**
+     * Returns the number of modules created for a tree size.
+     *
+     * @param nodeCount int number of modules and courses.
+     * @return int number of modules, including the root.
+     */
+    public static int getModuleCount(int nodeCount) {
+        return Math.max(1, nodeCount / (COURSES_PER_MODULE + 1));
+    }
+
+
+    /**
+     * Returns the number of courses created for a tree size.
+     *
+     * @param nodeCount int number of modules and courses.
+     * @return int number of courses.
+     */
+    public static int getCourseCount(int nodeCount) {
+        return getModuleCount(nodeCount) * COURSES_PER_MODULE;
+    }
+}
@@ -0,0 +1,396 @@
+package fi.Sisu.app;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Optional;
+
+import fi.Sisu.datasource.DurabilityPolicy;
+import fi.Sisu.datasource.StudentFileFormat;
+
+/**
+ * Runtime configuration of the application. Every value can be overridden
+ * with a JVM system property (for example -Dsisu.api.connectTimeout=5),
+ * otherwise the default from Constants is used.
+ *
+ * Values are read every time they are asked for, so tests can change them
+ * with System.setProperty without restarting the JVM.
+ */
+public class AppConfig {
+
+    public static final String API_BASE_URL = "sisu.api.baseUrl";
+    public static final String API_RECORD_FOLDER = "sisu.api.recordFolder";
+    public static final String API_CONNECT_TIMEOUT = "sisu.api.connectTimeout";
+    public static final String API_READ_TIMEOUT = "sisu.api.readTimeout";
+    public static final String API_MAX_CONCURRENT_REQUESTS = "sisu.api.maxConcurrentRequests";
+    public static final String API_TREE_LOADER_THREADS = "sisu.api.treeLoaderThreads";
+    public static final String API_COURSE_BATCH_SIZE = "sisu.api.courseBatchSize";
+    public static final String LAZY_TREE_LOADING = "sisu.tree.lazy";
+    public static final String SUMMARY_TREES = "sisu.tree.summaryOnly";
+    public static final String COURSE_DETAILS_CACHE_SIZE = "sisu.courses.detailsCacheSize";
+    public static final String API_CACHE_ENABLED = "sisu.cache.enabled";
+    public static final String API_CACHE_FOLDER = "sisu.cache.folder";
+    public static final String API_CACHE_TTL_HOURS = "sisu.cache.ttlHours";
+    public static final String API_CACHE_MAX_MEGABYTES = "sisu.cache.maxMegabytes";
+    public static final String STUDENT_WRITE_DELAY = "sisu.students.writeDelayMillis";
+    public static final String STUDENT_LOAD_THREADS = "sisu.students.loadThreads";
+    public static final String STUDENT_JOURNAL_COMPACT_BYTES = "sisu.students.journalCompactBytes";
+    public static final String STUDENT_DURABILITY = "sisu.students.durability";
+    public static final String STUDENT_SYNC_INTERVAL = "sisu.students.syncIntervalMillis";
+    public static final String STUDENT_FILE_FORMAT = "sisu.students.format";
+    public static final String CURRICULUM_FOLDER = "sisu.curriculum.folder";
+    public static final String CURRICULUM_TTL_HOURS = "sisu.curriculum.ttlHours";
+    public static final String OFFLINE = "sisu.offline";
+    public static final String SNAPSHOT_FILE = "sisu.snapshot.file";
+
+    private AppConfig() {
+        // Private constructor to avoid accidental instantiation of this class.
+    }
+
+
+    /**
+     * Returns the base URL of the Kori API, without a trailing slash. Can be
+     * pointed to a local stand-in server (see KoriStandInServer).
+     *
+     * @return String base URL
+     */
+    public static String getApiBaseUrl() {
+        String baseUrl = getString(API_BASE_URL, Constants.KORI_API_BASE_URL);
+        while (baseUrl.endsWith("/")) {
+            baseUrl = baseUrl.substring(0, baseUrl.length() - 1);
+        }
+        return baseUrl;
+    }
+
+
+    /**
+     * Returns the folder where every Kori API response is recorded as a
+     * fixture (see KoriFixtures). Recording is off unless the folder is set.
+     *
+     * @return Optional<Path> fixture folder, empty if responses are not recorded
+     */
+    public static Optional<Path> getApiRecordFolder() {
+        return Optional.ofNullable(getString(API_RECORD_FOLDER, null)).map(Paths::get);
+    }
+
+
+    /**
+     * Returns the timeout for opening a connection to the Kori API.
+     *
+     * @return Duration connect timeout
+     */
+    public static Duration getApiConnectTimeout() {
+        return Duration.ofSeconds(
+            getInt(API_CONNECT_TIMEOUT, Constants.API_CONNECT_TIMEOUT_SECONDS));
+    }
+
+
+    /**
+     * Returns the timeout for waiting a single Kori API response.
+     *
+     * @return Duration read timeout
+     */
+    public static Duration getApiReadTimeout() {
+        return Duration.ofSeconds(
+            getInt(API_READ_TIMEOUT, Constants.API_READ_TIMEOUT_SECONDS));
+    }
+
+
+    /**
+     * Returns the maximum number of Kori API requests that may be in flight
+     * at the same time.
+     *
+     * @return int max number of concurrent requests, at least 1
+     */
+    public static int getApiMaxConcurrentRequests() {
+        return Math.max(1,
+            getInt(API_MAX_CONCURRENT_REQUESTS, Constants.API_MAX_CONCURRENT_REQUESTS));
+    }
+
+
+    /**
+     * Returns the number of threads which fetch the modules and courses of a
+     * study programme tree. Threads waiting for a response don't use CPU, so
+     * this can be larger than the number of cores.
+     *
+     * @return int number of tree loader threads, at least 1
+     */
+    public static int getApiTreeLoaderThreads() {
+        return Math.max(1,
+            getInt(API_TREE_LOADER_THREADS, Constants.API_TREE_LOADER_THREADS));
+    }
+
+
+    /**
+     * Returns how many courses are asked from the Kori API with one request.
+     * Value 1 turns batching off, and every course is requested separately.
+     *
+     * @return int number of courses in one request, at least 1
+     */
+    public static int getApiCourseBatchSize() {
+        return Math.max(1,
+            getInt(API_COURSE_BATCH_SIZE, Constants.API_COURSE_BATCH_SIZE));
+    }
+
+
+    /**
+     * Returns true if degree programme trees should be loaded lazily: only the
+     * top levels when the programme is selected, and the rest of the modules
+     * when the user opens them.
+     *
+     * @return boolean is lazy tree loading enabled
+     */
+    public static boolean isLazyTreeLoading() {
+        return getBoolean(LAZY_TREE_LOADING, Constants.LAZY_TREE_LOADING);
+    }
+
+
+    /**
+     * Returns true if the courses of degree programme trees should be kept
+     * as summaries: without descriptions, learning outcomes and
+     * prerequisites, which are loaded when a course is shown.
+     *
+     * @return boolean are summary-only trees enabled
+     */
+    public static boolean isSummaryTrees() {
+        return getBoolean(SUMMARY_TREES, Constants.SUMMARY_TREES);
+    }
+
+
+    /**
+     * Returns how many courses loaded with all of their details are kept in
+     * memory. Value 0 turns the cache off.
+     *
+     * @return int number of cached courses, not negative
+     */
+    public static int getCourseDetailsCacheSize() {
+        return Math.max(0,
+            getInt(COURSE_DETAILS_CACHE_SIZE, Constants.COURSE_DETAILS_CACHE_SIZE));
+    }
+
+
+    /**
+     * Returns true if Kori API responses should be cached to disk.
+     *
+     * @return boolean is the response cache enabled
+     */
+    public static boolean isApiCacheEnabled() {
+        return getBoolean(API_CACHE_ENABLED, Constants.API_CACHE_ENABLED);
+    }
+
+
+    /**
+     * Returns the folder where Kori API responses are cached.
+     *
+     * @return Path of the cache folder
+     */
+    public static Path getApiCacheFolder() {
+        return Paths.get(getString(API_CACHE_FOLDER, Constants.API_CACHE_FOLDER_PATH));
+    }
+
+
+    /**
+     * Returns how long a cached Kori API response is used without asking the
+     * server if it has changed.
+     *
+     * @return Duration time to live of a cached response
+     */
+    public static Duration getApiCacheTtl() {
+        return Duration.ofHours(getInt(API_CACHE_TTL_HOURS, Constants.API_CACHE_TTL_HOURS));
+    }
+
+
+    /**
+     * Returns the maximum total size of the cached Kori API responses.
+     *
+     * @return long size cap in bytes
+     */
+    public static long getApiCacheMaxBytes() {
+        return getInt(API_CACHE_MAX_MEGABYTES, Constants.API_CACHE_MAX_MEGABYTES) * 1024L * 1024L;
+    }
+
+
+    /**
+     * Returns how long a saved student waits in memory before it is written
+     * to disk. Further saves of the same student during the wait are written
+     * with the same disk write. Value 0 writes every save right away.
+     *
+     * @return Duration write delay, not negative
+     */
+    public static Duration getStudentWriteDelay() {
+        return Duration.ofMillis(Math.max(0,
+            getInt(STUDENT_WRITE_DELAY, Constants.STUDENT_WRITE_DELAY_MILLIS)));
+    }
+
+
+    /**
+     * Returns the number of threads used to load all students at once.
+     * Defaults to one thread per processor.
+     *
+     * @return int number of threads, at least 1
+     */
+    public static int getStudentLoadThreads() {
+        int threads = getInt(STUDENT_LOAD_THREADS, Constants.STUDENT_LOAD_THREADS);
+        return threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+
+    /**
+     * Returns the size at which a student's change journal is compacted by
+     * saving the whole student file.
+     *
+     * @return long journal size in bytes
+     */
+    public static long getStudentJournalCompactBytes() {
+        return Math.max(0, getInt(STUDENT_JOURNAL_COMPACT_BYTES, Constants.STUDENT_JOURNAL_COMPACT_BYTES));
+    }
+
+
+    /**
+     * Returns when saved student files are forced to the disk: PER_SAVE,
+     * GROUPED or NONE.
+     *
+     * @return DurabilityPolicy of the student files
+     */
+    public static DurabilityPolicy getStudentDurability() {
+        String value = getString(STUDENT_DURABILITY, Constants.STUDENT_DURABILITY.name());
+        try {
+            return DurabilityPolicy.valueOf(value.toUpperCase(Locale.ROOT));
+        }
+        catch (IllegalArgumentException e) {
+            System.err.println("Invalid value for " + STUDENT_DURABILITY + ": " + value);
+            return Constants.STUDENT_DURABILITY;
+        }
+    }
+
+
+    /**
+     * Returns how long student saves are collected to the same fsync with
+     * the GROUPED durability policy.
+     *
+     * @return Duration sync interval, not negative
+     */
+    public static Duration getStudentSyncInterval() {
+        return Duration.ofMillis(Math.max(0,
+            getInt(STUDENT_SYNC_INTERVAL, Constants.STUDENT_SYNC_INTERVAL_MILLIS)));
+    }
+
+
+    /**
+     * Returns the format student files are saved in: JSON, SMILE or
+     * SMILE_GZIP. Student files in any format are read.
+     *
+     * @return StudentFileFormat of saved student files
+     */
+    public static StudentFileFormat getStudentFileFormat() {
+        String value = getString(STUDENT_FILE_FORMAT, Constants.STUDENT_FILE_FORMAT.name());
+        try {
+            return StudentFileFormat.valueOf(value.toUpperCase(Locale.ROOT));
+        }
+        catch (IllegalArgumentException e) {
+            System.err.println("Invalid value for " + STUDENT_FILE_FORMAT + ": " + value);
+            return Constants.STUDENT_FILE_FORMAT;
+        }
+    }
+
+
+    /**
+     * Returns the folder where the shared curriculum trees are stored.
+     *
+     * @return Path of the curriculum folder
+     */
+    public static Path getCurriculumFolder() {
+        return Paths.get(getString(CURRICULUM_FOLDER, Constants.CURRICULUM_FOLDER_PATH));
+    }
+
+
+    /**
+     * Returns how long a stored curriculum is used before the study programme
+     * is loaded from Sisu again.
+     *
+     * @return Duration time to live of the stored curriculums
+     */
+    public static Duration getCurriculumTtl() {
+        return Duration.ofHours(getInt(CURRICULUM_TTL_HOURS, Constants.CURRICULUM_TTL_HOURS));
+    }
+
+
+    /**
+     * Returns true if the Kori API must not be contacted, and all module,
+     * course and programme data is read from the snapshot file.
+     *
+     * @return boolean is offline mode enabled
+     */
+    public static boolean isOffline() {
+        return getBoolean(OFFLINE, Constants.OFFLINE);
+    }
+
+
+    /**
+     * Returns the snapshot file of Kori API responses, used in offline mode
+     * and when the Kori API can't be reached.
+     *
+     * @return Path of the snapshot file
+     */
+    public static Path getSnapshotFile() {
+        return Paths.get(getString(SNAPSHOT_FILE, Constants.SNAPSHOT_FILE_PATH));
+    }
+
+
+    /**
+     * Reads a string system property, falls back to the default value if the
+     * property is missing.
+     *
+     * @param key String system property name
+     * @param defaultValue String default value
+     * @return String value of the property
+     */
+    private static String getString(String key, String defaultValue) {
+        String value = System.getProperty(key);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        return value.strip();
+    }
+
+
+    /**
+     * Reads a boolean system property, falls back to the default value if the
+     * property is missing.
+     *
+     * @param key String system property name
+     * @param defaultValue boolean default value
+     * @return boolean value of the property
+     */
+    private static boolean getBoolean(String key, boolean defaultValue) {
+        String value = System.getProperty(key);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        return Boolean.parseBoolean(value.strip());
+    }
+
+
+    /**
+     * Reads an integer system property, falls back to the default value if the
+     * property is missing or not a number.
+     *
+     * @param key String system property name
+     * @param defaultValue int default value
+     * @return int value of the property
+     */
+    private static int getInt(String key, int defaultValue) {
+        String value = System.getProperty(key);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.strip());
+        }
+        catch (NumberFormatException e) {
+            System.err.println("Invalid value for " + key + ": " + value);
+            return defaultValue;
+        }
+    }
+}
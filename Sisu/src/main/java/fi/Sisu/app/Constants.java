@@ -1,5 +1,8 @@
 package fi.Sisu.app;
 
+import fi.Sisu.datasource.DurabilityPolicy;
+import fi.Sisu.datasource.StudentFileFormat;
+
 /**
  * Defines proj constants so that they can be easily changed.
  * Try to put them here to avoid using magic numbers and strings.
@@ -16,5 +19,64 @@ public class Constants {
     public static final String COLOR_DEEP_PURPLE = "#370065";
     public static final String COLOR_PERIWINKLE_GRAY = "#E1E5F4";
     public static final String COLOR_NEWS = "#89D4FF";
-    
+
+    // Kori API connection defaults, see AppConfig for overriding them.
+    public static final String KORI_API_BASE_URL = "https://sis-tuni.funidata.fi/kori/api";
+    public static final int API_CONNECT_TIMEOUT_SECONDS = 10;
+    public static final int API_READ_TIMEOUT_SECONDS = 30;
+    public static final int API_MAX_CONCURRENT_REQUESTS = 16;
+    public static final int API_TREE_LOADER_THREADS = 32;
+    public static final int API_COURSE_BATCH_SIZE = 25;
+
+    // Load degree programme trees one level at a time, when the user opens them.
+    public static final boolean LAZY_TREE_LOADING = false;
+
+    // Keep only summaries of the courses in degree programme trees, and a
+    // limited number of courses with their descriptions in memory.
+    public static final boolean SUMMARY_TREES = false;
+    public static final int COURSE_DETAILS_CACHE_SIZE = 200;
+
+    // Parsed strings this long are deduplicated by a hash of their content,
+    // shorter ones are interned.
+    public static final int STRING_DEDUPE_TEXT_LENGTH = 256;
+
+    // Kori API response cache defaults.
+    public static final boolean API_CACHE_ENABLED = true;
+    public static final String API_CACHE_FOLDER_PATH = "cache";
+    public static final int API_CACHE_TTL_HOURS = 24 * 7;
+    public static final int API_CACHE_MAX_MEGABYTES = 200;
+
+    // Student saves made within this time are written to disk only once.
+    public static final int STUDENT_WRITE_DELAY_MILLIS = 500;
+
+    // Threads for loading all students at once, 0 uses one per processor.
+    public static final int STUDENT_LOAD_THREADS = 0;
+
+    // A student's change journal is compacted into the student file when it
+    // grows larger than this.
+    public static final int STUDENT_JOURNAL_COMPACT_BYTES = 64 * 1024;
+
+    // When saved student files are forced to the disk, see DurabilityPolicy.
+    public static final DurabilityPolicy STUDENT_DURABILITY = DurabilityPolicy.GROUPED;
+
+    // How long grouped student saves wait for the same fsync.
+    public static final int STUDENT_SYNC_INTERVAL_MILLIS = 1000;
+
+    // Format of saved student files, files in any format can be read.
+    public static final StudentFileFormat STUDENT_FILE_FORMAT = StudentFileFormat.JSON;
+
+    // Shared curriculum trees, students only save their changes to them.
+    public static final String CURRICULUM_FOLDER_PATH = "curriculums";
+
+    // Stored curriculums are loaded from Sisu again after this, so updates
+    // reach new students.
+    public static final int CURRICULUM_TTL_HOURS = 24 * 7;
+
+    // Curriculum period whose degree programmes are listed and crawled.
+    public static final String CURRICULUM_PERIOD_ID = "uta-lvv-2021";
+
+    // Snapshot of Kori API responses for running without a network.
+    public static final boolean OFFLINE = false;
+    public static final String SNAPSHOT_FILE_PATH = "snapshot/kori.snapshot";
+
 }
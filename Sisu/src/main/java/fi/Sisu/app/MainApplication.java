@@ -9,6 +9,8 @@ import fi.Sisu.datasource.IFileDataSource;
 import fi.Sisu.navigation.NavigationService;
 import fi.Sisu.navigation.ScreenFactory;
 import fi.Sisu.navigation.ScreenType;
+import fi.Sisu.utils.BackgroundExecutor;
+import fi.Sisu.utils.ObjectMapperFactory;
 
 import javafx.application.Application;
 
@@ -23,6 +25,7 @@ import javafx.stage.Stage;
 public class MainApplication extends Application {
 
     private NavigationService navigationService;
+    private IFileDataSource fileDataSource;
    
     /**
      * Launches the JavaFX application.
@@ -54,10 +57,13 @@ public class MainApplication extends Application {
     public void init() throws IOException {
         // Initialize components
         IApiDataSource apiDataSource = new ApiDataSource();
-        IFileDataSource fileDataSource = new FileDataSource();
+        fileDataSource = new FileDataSource();
         AppState appState = new AppState();
         ScreenFactory screenFactory = new ScreenFactory(apiDataSource, fileDataSource);        
         navigationService = new NavigationService(appState, screenFactory);        
+
+        // Prepare the json serializers while the first screen is loading.
+        BackgroundExecutor.get().execute(ObjectMapperFactory::warmUp);
     }
 
 
@@ -81,4 +87,14 @@ public class MainApplication extends Application {
 
 
     }
+
+
+    /**
+     * Writes the student saves which are still waiting in memory before the
+     * application exits.
+     */
+    @Override
+    public void stop() {
+        fileDataSource.flush();
+    }
 }
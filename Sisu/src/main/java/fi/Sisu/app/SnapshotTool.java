@@ -0,0 +1,33 @@
+package fi.Sisu.app;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import fi.Sisu.datasource.ApiDataSource;
+
+/**
+ * Command line tool which crawls the degree programmes of the curriculum
+ * period from the Kori API and writes them to a snapshot file. Run with the
+ * path of the snapshot as the only argument, by default the file used by
+ * the application (see AppConfig.getSnapshotFile).
+ */
+public class SnapshotTool {
+
+    public static void main(String[] args) {
+        Path file = args.length > 0 ? Paths.get(args[0]) : AppConfig.getSnapshotFile();
+        System.out.println("Writing snapshot of " + Constants.CURRICULUM_PERIOD_ID + " to " + file);
+
+        try {
+            int responses = ApiDataSource.createSnapshot(file, (loaded, discovered) ->
+                System.out.println("Loaded programme " + loaded + "/" + discovered));
+            System.out.println("Snapshot written with " + responses + " responses");
+        }
+        catch (IOException e) {
+            System.err.println("Could not create snapshot: " + e.getMessage());
+            e.printStackTrace();
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,57 @@
+package fi.Sisu.app;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Locale;
+
+import fi.Sisu.datasource.CurriculumStore;
+import fi.Sisu.datasource.DurabilityPolicy;
+import fi.Sisu.datasource.FileDataSource;
+import fi.Sisu.datasource.StudentFileFormat;
+
+/**
+ * Command line tool which converts the student files to another format.
+ * Run with the format (JSON, SMILE or SMILE_GZIP) as the first argument and
+ * the students folder as the second, by default the folder used by the
+ * application. Set sisu.students.format to the same format, so the students
+ * are saved in it from then on.
+ */
+public class StudentFormatTool {
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.err.println("Usage: StudentFormatTool JSON|SMILE|SMILE_GZIP [students folder]");
+            System.exit(2);
+        }
+
+        StudentFileFormat format;
+        try {
+            format = StudentFileFormat.valueOf(args[0].toUpperCase(Locale.ROOT));
+        }
+        catch (IllegalArgumentException e) {
+            System.err.println("Unknown format: " + args[0]);
+            System.exit(2);
+            return;
+        }
+        Path folder = Paths.get(args.length > 1 ? args[1] : "students");
+        System.out.println("Converting student files in " + folder + " to " + format);
+
+        FileDataSource fileDataSource = new FileDataSource(
+            folder, 
+            new CurriculumStore(AppConfig.getCurriculumFolder()), 
+            Duration.ZERO, 
+            DurabilityPolicy.PER_SAVE);
+        try {
+            int converted = fileDataSource.convertStudentFiles(format);
+            System.out.println("Converted " + converted + " student files");
+        }
+        catch (IOException e) {
+            System.err.println("Could not convert student files: " + e.getMessage());
+            e.printStackTrace();
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+}
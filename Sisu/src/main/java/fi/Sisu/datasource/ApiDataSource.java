@@ -1,38 +1,126 @@
 package fi.Sisu.datasource;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.Set;
-import java.util.stream.Collectors;
-
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import fi.Sisu.app.AppConfig;
+import fi.Sisu.app.Constants;
 import fi.Sisu.model.Course;
 import fi.Sisu.model.SisuNode;
+import fi.Sisu.utils.BackgroundExecutor;
 
 /**
  * Handles Connection and retriaval of data from SISU API. 
  * 
+ * With summary-only trees (see AppConfig.isSummaryTrees) the courses of
+ * loaded trees are summaries, and getCourse is used to get a course with all
+ * of its details when it is shown. The most recently used detailed courses
+ * are kept in memory.
+ * 
  * @author Kilian Kugge
  */
 public class ApiDataSource implements IApiDataSource {
 
+    // Dedicated pool for the tree loads, so the blocking requests don't
+    // starve the common ForkJoinPool.
+    private static final ExecutorService TREE_LOADER_EXECUTOR = Executors.newFixedThreadPool(
+        AppConfig.getApiTreeLoaderThreads(),
+        BackgroundExecutor.createDaemonThreadFactory("sisu-tree-loader"));
+
     private static KoriJSONParser parser;
 
+    private final ModuleTreeLoader treeLoader;
+
+    // Concurrent requests for the same module or course share one request
+    // and parse. Callers get their own copy of the shared result.
+    private final SingleFlight<Optional<SisuNode>> moduleRequests = new SingleFlight<>();
+    private final SingleFlight<Optional<Course>> courseRequests = new SingleFlight<>();
+
+    private final boolean summaryTrees;
+
+    // Courses with all details by groupId, least recently used first.
+    private final int courseDetailsCacheSize;
+    private final LinkedHashMap<String, Course> courseDetails;
+
+    // Gets the responses of this data source's requests, null if not
+    // recording. Other data sources' requests are never recorded.
+    private final IResponseRecorder responseRecorder;
+
     public ApiDataSource() {
+        this(null);
+    }
+
+    private ApiDataSource(IResponseRecorder responseRecorder) {
+         this.responseRecorder = responseRecorder;
          parser = new KoriJSONParser();
-        
+         summaryTrees = AppConfig.isSummaryTrees();
+         courseDetailsCacheSize = AppConfig.getCourseDetailsCacheSize();
+         courseDetails = new LinkedHashMap<>(16, 0.75f, true);
+         treeLoader = new ModuleTreeLoader(
+            this::retrieveModuleNode, 
+            this::retrieveTreeCourseNodes, 
+            AppConfig.getApiCourseBatchSize(), 
+            TREE_LOADER_EXECUTOR);
     }
 
 
     @Override
     public Optional<Course> getCourse(String groupId) {
-        return retrieveCourseNode(groupId);
+        synchronized (courseDetails) {
+            Course cached = courseDetails.get(groupId);
+            if (cached != null) {
+                return Optional.of(new Course(cached));
+            }
+        }
+
+        Optional<Course> course = retrieveCourseNode(groupId);
+        course.ifPresent(this::cacheCourseDetails);
+        return course;
     }
 
 
     @Override
     public Optional<SisuNode> getStudyProgramme(String groupId) {
-        return retrieveNodeTreeRecursive(groupId);
+        try {
+            return treeLoader.load(groupId, null).join();
+        }
+        catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+
+    @Override
+    public CompletableFuture<Optional<SisuNode>> getStudyProgrammeAsync(
+        String groupId, 
+        IProgressListener progressListener) 
+        {
+        return treeLoader.load(groupId, progressListener);
+    }
+
+
+    @Override
+    public Optional<SisuNode> getModuleOneLevel(String groupId) {
+        Optional<SisuNode> module = retrieveModuleNode(groupId);
+        module.ifPresent(this::populateModuleChildrenOneLevel);
+        return module;
     }
 
 
@@ -42,12 +130,50 @@ public class ApiDataSource implements IApiDataSource {
     }
 
 
+    /**
+     * Crawls all degree programmes of the curriculum period with their full
+     * module trees and writes every Kori API response to a snapshot file,
+     * which can be used later without a network connection.
+     *
+     * The crawl uses its own data source, so only its own responses end up
+     * in the snapshot, not those of other loads running at the same time.
+     *
+     * @param file Path of the snapshot file to write.
+     * @param progressListener IProgressListener notified after every loaded
+     *        programme, may be null.
+     * @return int number of responses in the snapshot.
+     * @throws IOException if the programmes can't be listed or the file
+     *         can't be written.
+     */
+    public static int createSnapshot(Path file, IProgressListener progressListener) throws IOException {
+        ConcurrentHashMap<String, String> responses = new ConcurrentHashMap<>();
+        ApiDataSource crawler = new ApiDataSource((type, groupId, json) ->
+            responses.put(KoriSnapshot.getKey(type, groupId), json));
+
+        ArrayList<SisuNode> programmes = crawler.retrieveAllStudyProgrammes()
+            .orElseThrow(() -> new IOException("Could not list the degree programmes"));
+
+        int loaded = 0;
+        for (SisuNode programme : programmes) {
+            crawler.getStudyProgramme(programme.getGroupId());
+            loaded++;
+            if (progressListener != null) {
+                progressListener.onProgress(loaded, programmes.size());
+            }
+        }
+
+        KoriSnapshot.write(file, responses);
+        return responses.size();
+    }
+
+
 
     public Optional<ArrayList<Course>> searchForCourses(String keyword) {        
         if (keyword == null || keyword.isEmpty() || keyword.length() < 3) {
             return null;
         }
-        String json = KoriAPIRequester.requestCoursesWithKeyword(keyword);
+        // Parsed while downloading, search results can be large.
+        InputStream json = KoriAPIRequester.requestCoursesWithKeywordAsStream(keyword);
         if (json == null) {
             return null;
         }
@@ -58,60 +184,30 @@ public class ApiDataSource implements IApiDataSource {
 
     /**
      * Populates the immediate child modules and courses of a module object.
+     * The child modules are marked as stubs, their own children are not 
+     * loaded.
      * @param module Module object to populate.
      */
     public void populateModuleChildrenOneLevel (SisuNode module) {
-        // Go through the groupId strings of the child modules.
+        // Start retrieving the child modules in parallel.
+        List<CompletableFuture<Optional<SisuNode>>> childModules = new ArrayList<>();
         for (String child : module.getChildModuleIds()) {
-
-            // Parse and add immediate child modules.
-            Optional<SisuNode> childModule = retrieveModuleNode(child);
-            childModule.ifPresent(action -> module.addChildModule(action)); 
+            childModules.add(CompletableFuture.supplyAsync(
+                () -> retrieveModuleNode(child), TREE_LOADER_EXECUTOR));
         }
 
-        // Go through the groupId strings of the child courses and update them.
-        for (String child : module.getChildCourses().keySet()) {
-
-            Optional<Course> childCourse = retrieveCourseNode(child);
+        // Retrieve the child courses in batches and update them.
+        Map<String, Course> childCourses = retrieveTreeCourseNodes(module.getChildCourses().keySet());
+        module.updateChildCourses(new ArrayList<>(childCourses.values()));
 
-            childCourse.ifPresent(action -> module.updateChildCourse(action));  
+        // Add the immediate child modules in their original order.
+        for (CompletableFuture<Optional<SisuNode>> childModule : childModules) {
+            childModule.join().ifPresent(action -> {
+                action.setStub(true);
+                module.addChildModule(action);
+            });
         }
-    }
-
-
-     /**
-     * Retrieves a full module tree recursively from the module's group id. 
-     * 
-     * @param groupId groupId of module as a string.
-     * @return Module object populated with child modules and courses.
-     */
-    private Optional<SisuNode> retrieveNodeTreeRecursive(String groupId) { 
-        
-        // Get the top module.
-        Optional<SisuNode> parentModule = retrieveModuleNode(groupId);
-
-        // Recursively parse all child modules with parallel streams.
-        // Maps each groupId to a module object and adds them to the top module.
-        parentModule.ifPresent(module -> {
-            List<String> childModuleIds = module.getChildModuleIds();
-            List<SisuNode> childModules = childModuleIds.parallelStream()
-                .map(id -> retrieveNodeTreeRecursive(id))
-                .flatMap(optionalNode -> optionalNode.stream())
-                .collect(Collectors.toList());
-            module.addChildModules((ArrayList<SisuNode>) childModules);
-        });        
-
-        // Recursively parse all child courses with parallel streams.
-        parentModule.ifPresent(module -> {
-            Set<String> courseIds = module.getChildCourses().keySet();
-            List<Course> courses = courseIds.parallelStream()
-                .map(id -> getCourse(id))
-                .flatMap(optionalCourse -> optionalCourse.stream())
-                .collect(Collectors.toList());
-            module.updateChildCourses((ArrayList<Course>) courses);
-        });
-
-        return parentModule;
+        module.setStub(false);
     }
 
 
@@ -123,9 +219,14 @@ public class ApiDataSource implements IApiDataSource {
      * @return Module object.
      */
     public Optional<SisuNode> retrieveModuleNode(String groupId) {        
-        String json = KoriAPIRequester.requestModuleInfo(groupId);
-        SisuNode sisuNode = parser.parseModule(json);
-        return Optional.ofNullable(sisuNode);
+        return moduleRequests
+            .run(groupId, () -> {
+                String json = record(KoriAPIRequester.API_MODULE_STRING, groupId, 
+                    KoriAPIRequester.requestModuleInfo(groupId));
+                SisuNode sisuNode = parser.parseModule(json);
+                return Optional.ofNullable(sisuNode);
+            })
+            .map(SisuNode::new);
     }
 
 
@@ -136,21 +237,124 @@ public class ApiDataSource implements IApiDataSource {
      * @return Module object.
      */
     public Optional<Course> retrieveCourseNode(String groupId) {        
-        String json = KoriAPIRequester.requestCourseInfo(groupId);
-        Course course = parser.parseCourse(json);
-        return Optional.ofNullable(course);
+        return courseRequests
+            .run(groupId, () -> fetchCourseNode(groupId))
+            .map(Course::new);
+    }
+
+
+
+    /**
+     * Retrieves several courses from Sisu, in batches where possible. Courses
+     * which can't be fetched in a batch are retrieved one by one. Courses
+     * already being retrieved by another caller are waited for instead of
+     * requesting them again.
+     * 
+     * @param groupIds Group IDs of the courses.
+     * @return Map<String, Course> courses found, by group ID.
+     */
+    public Map<String, Course> retrieveCourseNodes(Collection<String> groupIds) {
+        Map<String, Course> courses = new HashMap<>();
+        courseRequests.runAll(groupIds, this::fetchCourseNodes)
+            .forEach((groupId, course) -> course.ifPresent(value -> courses.put(groupId, new Course(value))));
+        return courses;
+    }
+
+
+    /**
+     * Requests a course from Sisu, see retrieveCourseNode.
+     * 
+     * @param groupId String of the group ID.
+     * @return Optional<Course> parsed course.
+     */
+    private Optional<Course> fetchCourseNode(String groupId) {
+        String json = record(KoriAPIRequester.API_COURSE_STRING, groupId, 
+            KoriAPIRequester.requestCourseInfo(groupId));
+        return Optional.ofNullable(parser.parseCourse(json));
+    }
+
+
+    /**
+     * Requests courses from Sisu in batches, see retrieveCourseNodes.
+     * 
+     * @param groupIds Group IDs of the courses.
+     * @return Map<String, Optional<Course>> parsed course of every group ID.
+     */
+    private Map<String, Optional<Course>> fetchCourseNodes(Collection<String> groupIds) {
+        Map<String, Optional<Course>> courses = new HashMap<>();
+        Map<String, String> jsons = KoriAPIRequester.requestCourseInfos(groupIds);
+
+        for (String groupId : groupIds) {
+            String json = record(KoriAPIRequester.API_COURSE_STRING, groupId, jsons.get(groupId));
+            courses.put(groupId, json != null
+                ? Optional.ofNullable(parser.parseCourse(json))
+                : fetchCourseNode(groupId));
+        }
+        return courses;
+    }
+
+
+    /**
+     * Retrieves the courses of a tree being loaded. With summary-only trees
+     * the courses are returned as summaries.
+     * 
+     * @param groupIds Group IDs of the courses.
+     * @return Map<String, Course> courses found, by group ID.
+     */
+    private Map<String, Course> retrieveTreeCourseNodes(Collection<String> groupIds) {
+        Map<String, Course> courses = retrieveCourseNodes(groupIds);
+        if (summaryTrees) {
+            courses.replaceAll((groupId, course) -> course.toSummary());
+        }
+        return courses;
     }
 
 
+    /**
+     * Keeps a copy of a course with all of its details, removes the least
+     * recently used course if the cache is full.
+     * 
+     * @param course Course retrieved from Sisu.
+     */
+    private void cacheCourseDetails(Course course) {
+        if (courseDetailsCacheSize == 0) {
+            return;
+        }
+        synchronized (courseDetails) {
+            courseDetails.put(course.getGroupId(), new Course(course));
+            if (courseDetails.size() > courseDetailsCacheSize) {
+                Iterator<String> eldest = courseDetails.keySet().iterator();
+                eldest.next();
+                eldest.remove();
+            }
+        }
+    }
+
 
     /**
      * Retrieves all degree programmes from Sisu.
      * @return ArrayList of DegreeProgramme objects.
      */
     private Optional<ArrayList<SisuNode>> retrieveAllStudyProgrammes() {
-        String json = KoriAPIRequester.requestDegreeProgrammes();
+        String json = record(
+            KoriAPIRequester.API_MODULE_SEARCH_STRING, 
+            Constants.CURRICULUM_PERIOD_ID, 
+            KoriAPIRequester.requestDegreeProgrammes());
         return Optional.ofNullable(parser.parseAllStudyProgrammes(json));
     }
 
+
+    /**
+     * Passes a response to the recorder of this data source, if it has one.
+     * 
+     * @return String the response, for chaining.
+     */
+    private String record(String type, String groupId, String json) {
+        if (json != null && responseRecorder != null) {
+            responseRecorder.onResponse(type, groupId, json);
+        }
+        return json;
+    }
+
 } 
 
@@ -0,0 +1,257 @@
+package fi.Sisu.datasource;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes files through a temporary file which is renamed over the old file,
+ * so readers and crashes only ever see the old or the new content. When the
+ * content is forced to the disk depends on the DurabilityPolicy.
+ *
+ * With the GROUPED policy, written files wait as temporary files until the
+ * group is committed: every file is forced, renamed in place and the
+ * folders are forced once. The group is committed on the given executor
+ * after the sync interval, or when commit is called. A file written again
+ * before the commit replaces its earlier content in the group, so rapid
+ * saves cost one fsync.
+ *
+ * Thread-safe.
+ */
+public class AtomicFileWriter {
+
+    private static final String TEMP_EXTENSION = ".tmp";
+
+    private final DurabilityPolicy policy;
+    private final Duration syncInterval;
+    private final ScheduledExecutorService executor;
+
+    // Files waiting for the commit of the group, by target file, with the
+    // actions to run once they are in place.
+    private final LinkedHashMap<Path, List<Runnable>> group = new LinkedHashMap<>();
+
+    // Files written in place which are forced with the group.
+    private final LinkedHashSet<Path> unsynced = new LinkedHashSet<>();
+
+    private boolean commitScheduled = false;
+
+
+    /**
+     * Constructor.
+     *
+     * @param policy DurabilityPolicy of the written files.
+     * @param syncInterval Duration how long a group collects files.
+     * @param executor ScheduledExecutorService which commits the groups,
+     *        only used with the GROUPED policy and may be null otherwise.
+     */
+    public AtomicFileWriter(DurabilityPolicy policy, Duration syncInterval, ScheduledExecutorService executor) {
+        this.policy = policy;
+        this.syncInterval = syncInterval;
+        this.executor = executor;
+    }
+
+
+    /**
+     * Writes a file. The action is run after the file is in place, before
+     * this method returns unless the file waits for its group.
+     *
+     * @param target Path of the file.
+     * @param data byte[] new content of the file.
+     * @param onCommitted Runnable to run once the file is in place, may be null.
+     * @throws IOException if the temporary file can't be written or renamed.
+     */
+    public synchronized void write(Path target, byte[] data, Runnable onCommitted) throws IOException {
+        Path temp = getTempFile(target);
+        try (FileChannel channel = FileChannel.open(temp,
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if (policy == DurabilityPolicy.PER_SAVE) {
+                channel.force(false);
+            }
+        }
+
+        if (policy != DurabilityPolicy.GROUPED) {
+            move(temp, target);
+            if (policy == DurabilityPolicy.PER_SAVE) {
+                forceFolder(target.toAbsolutePath().getParent());
+            }
+            if (onCommitted != null) {
+                onCommitted.run();
+            }
+            return;
+        }
+
+        List<Runnable> actions = group.computeIfAbsent(target, file -> new ArrayList<>());
+        if (onCommitted != null) {
+            actions.add(onCommitted);
+        }
+        scheduleCommit();
+    }
+
+
+    /**
+     * Forces a file which was written in place, for example by appending,
+     * according to the policy: right away, with the next group or never.
+     *
+     * @param file Path of the file.
+     */
+    public synchronized void sync(Path file) {
+        if (policy == DurabilityPolicy.PER_SAVE) {
+            force(file);
+        }
+        else if (policy == DurabilityPolicy.GROUPED) {
+            unsynced.add(file);
+            scheduleCommit();
+        }
+    }
+
+
+    /**
+     * Drops a file waiting in the group, so it is not brought back after
+     * the target has been deleted.
+     *
+     * @param target Path of the file.
+     */
+    public synchronized void discard(Path target) {
+        if (group.remove(target) != null) {
+            try {
+                Files.deleteIfExists(getTempFile(target));
+            }
+            catch (IOException e) {
+                System.err.println("Could not delete " + getTempFile(target) + ": " + e.getMessage());
+            }
+        }
+        unsynced.remove(target);
+    }
+
+
+    /**
+     * Commits the files waiting in the group: forces them to the disk,
+     * renames them in place and runs their actions. A file which can't be
+     * renamed is left as its temporary file, the old file stays in place.
+     */
+    public synchronized void commit() {
+        commitScheduled = false;
+        if (group.isEmpty() && unsynced.isEmpty()) {
+            return;
+        }
+
+        LinkedHashSet<Path> folders = new LinkedHashSet<>();
+        for (Path file : unsynced) {
+            force(file);
+        }
+        unsynced.clear();
+
+        List<Runnable> actions = new ArrayList<>();
+        for (Map.Entry<Path, List<Runnable>> entry : group.entrySet()) {
+            Path target = entry.getKey();
+            Path temp = getTempFile(target);
+            try {
+                force(temp);
+                move(temp, target);
+                folders.add(target.toAbsolutePath().getParent());
+                actions.addAll(entry.getValue());
+            }
+            catch (IOException e) {
+                System.err.println("Could not commit " + target + ": " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+        group.clear();
+
+        for (Path folder : folders) {
+            forceFolder(folder);
+        }
+        actions.forEach(Runnable::run);
+    }
+
+
+    /**
+     * Tells whether a file is waiting in the group, so its target still has
+     * the old content.
+     *
+     * @param target Path of the file.
+     * @return boolean true if the file waits for the commit.
+     */
+    public synchronized boolean isPending(Path target) {
+        return group.containsKey(target);
+    }
+
+
+    /**
+     * Returns the policy of the writer.
+     *
+     * @return DurabilityPolicy
+     */
+    public DurabilityPolicy getPolicy() {
+        return policy;
+    }
+
+
+    private void scheduleCommit() {
+        if (!commitScheduled) {
+            commitScheduled = true;
+            executor.schedule(this::commit, syncInterval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+
+    private static Path getTempFile(Path target) {
+        return target.resolveSibling(target.getFileName() + TEMP_EXTENSION);
+    }
+
+
+    private static void force(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.force(false);
+        }
+        catch (NoSuchFileException e) {
+            // Deleted or replaced since, nothing to force.
+        }
+        catch (IOException e) {
+            System.err.println("Could not sync " + file + ": " + e.getMessage());
+        }
+    }
+
+
+    /**
+     * Forces a folder, so the renames in it survive a crash. Not every
+     * platform can open a folder for this, then it is skipped.
+     */
+    private static void forceFolder(Path folder) {
+        try (FileChannel channel = FileChannel.open(folder, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+        catch (IOException e) {
+            // Folders can't be opened on Windows, renames are durable there.
+        }
+    }
+
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target,
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package fi.Sisu.datasource;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Optional;
+
+import fi.Sisu.app.AppConfig;
+import fi.Sisu.model.CompactProgrammeTree;
+import fi.Sisu.model.CurriculumOverlay;
+import fi.Sisu.model.SisuNode;
+import fi.Sisu.utils.ObjectMapperFactory;
+
+/**
+ * Stores the curriculum trees of the study programmes, shared by all
+ * students of a programme. The trees hold the structure loaded from Sisu
+ * without any student data, students save only a CurriculumOverlay of their
+ * own changes.
+ *
+ * Every stored tree is a version of the curriculum, saved in the folder as
+ * a [groupId]@[version].json file, where the version is a hash of the
+ * content. Overlays remember the version they were made against, so the
+ * curriculum can be updated from Sisu without breaking the students saved
+ * against an older version. The newest version is the current one, it
+ * expires after the TTL and is then no longer returned by getCurriculum, so
+ * the caller loads the programme from Sisu and stores it again. Files of
+ * older application versions, [groupId].json, are used for the overlays
+ * without a version.
+ *
+ * Trees are kept in memory in compact form after the first use. Callers get
+ * SisuNode trees built from the compact form, so the shared tree can't be
+ * changed through a student's study programme.
+ *
+ * Students saved as overlays can't be resolved without their curriculum,
+ * so the files are forced to the disk and moved in place from a temporary
+ * file, a crash never leaves a half written curriculum.
+ *
+ * The compact trees are immutable, so only finding a tree is done under the
+ * lock. Students loaded in parallel build their trees at the same time.
+ */
+public class CurriculumStore {
+
+    private static final String FILE_EXTENSION = ".json";
+    private static final String VERSION_SEPARATOR = "@";
+    private static final int VERSION_LENGTH = 16;
+
+    private final Path folder;
+    private final Duration ttl;
+    private final AtomicFileWriter fileWriter =
+        new AtomicFileWriter(DurabilityPolicy.PER_SAVE, Duration.ZERO, null);
+
+    // Curriculum trees by file name.
+    private final HashMap<String, CompactProgrammeTree> curriculums = new HashMap<>();
+
+    // File name of the current version by study programme groupId.
+    private final HashMap<String, String> currentFiles = new HashMap<>();
+
+
+    /**
+     * Constructor. The folder is created when the first tree is stored.
+     *
+     * @param folder Path of the curriculum folder.
+     */
+    public CurriculumStore(Path folder) {
+        this(folder, AppConfig.getCurriculumTtl());
+    }
+
+
+    /**
+     * Constructor. The folder is created when the first tree is stored.
+     *
+     * @param folder Path of the curriculum folder.
+     * @param ttl Duration how long a stored curriculum is used before it is
+     *        loaded from Sisu again.
+     */
+    public CurriculumStore(Path folder, Duration ttl) {
+        this.folder = folder;
+        this.ttl = ttl;
+    }
+
+
+    /**
+     * Returns a copy of the current curriculum tree of a study programme.
+     *
+     * @param groupId GroupId of the study programme.
+     * @return Optional<SisuNode> copy of the tree, empty if it is not stored
+     *         or has expired.
+     */
+    public Optional<SisuNode> getCurriculum(String groupId) {
+        return findCurrentFile(groupId)
+            .filter(this::isFresh)
+            .flatMap(this::findCurriculum)
+            .map(CompactProgrammeTree::toSisuNode);
+    }
+
+
+    /**
+     * Stores the curriculum of a study programme loaded from Sisu as its
+     * current version. Grades and chosen courses are left out. If the same
+     * version is already stored, it is only marked fresh again. Older
+     * versions are kept for the overlays made against them.
+     *
+     * @param programme SisuNode study programme loaded from Sisu.
+     * @return boolean true if the curriculum is stored.
+     */
+    public synchronized boolean storeCurriculum(SisuNode programme) {
+        String groupId = programme.getGroupId();
+        if (groupId == null) {
+            return false;
+        }
+
+        SisuNode curriculum = CurriculumOverlay.withoutStudentData(programme);
+        String fileName;
+        try {
+            byte[] json = ObjectMapperFactory.getSisuNodeWriter().writeValueAsBytes(curriculum);
+            fileName = getFileName(groupId, getVersion(json));
+            Path file = folder.resolve(fileName);
+            if (!Files.exists(file)) {
+                Files.createDirectories(folder);
+                fileWriter.write(file, json, null);
+            }
+            Files.setLastModifiedTime(file, getNewerTime(groupId, fileName));
+        }
+        catch (IOException e) {
+            System.err.println("Could not save curriculum " + groupId + ": " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        }
+        curriculums.putIfAbsent(fileName, new CompactProgrammeTree(curriculum));
+        currentFiles.put(groupId, fileName);
+        return true;
+    }
+
+
+    /**
+     * Computes the overlay of a student's study programme against the
+     * current version of the stored curriculum, expired or not.
+     *
+     * @param programme SisuNode study programme of the student.
+     * @return Optional<CurriculumOverlay> empty if the curriculum is not
+     *         stored, or the programme can't be expressed as an overlay.
+     */
+    public Optional<CurriculumOverlay> createOverlay(SisuNode programme) {
+        Optional<String> fileName = findCurrentFile(programme.getGroupId());
+        if (fileName.isEmpty()) {
+            return Optional.empty();
+        }
+        return findCurriculum(fileName.get())
+            .flatMap(curriculum -> CurriculumOverlay.diff(programme, curriculum))
+            .map(overlay -> {
+                overlay.setCurriculumVersion(getVersion(fileName.get()));
+                return overlay;
+            });
+    }
+
+
+    /**
+     * Builds a student's study programme from the version of the curriculum
+     * the overlay was made against.
+     *
+     * @param overlay CurriculumOverlay of the student.
+     * @return Optional<SisuNode> study programme, empty if the curriculum
+     *         version is not stored.
+     */
+    public Optional<SisuNode> resolve(CurriculumOverlay overlay) {
+        String groupId = overlay.getCurriculumGroupId();
+        if (groupId == null) {
+            return Optional.empty();
+        }
+        return findCurriculum(getFileName(groupId, overlay.getCurriculumVersion()))
+            .map(curriculum -> overlay.applyTo(curriculum.toSisuNode()));
+    }
+
+
+    /**
+     * Returns the file name of the current version of a curriculum, the
+     * newest file of the study programme in the folder.
+     */
+    private synchronized Optional<String> findCurrentFile(String groupId) {
+        if (groupId == null) {
+            return Optional.empty();
+        }
+        String current = currentFiles.get(groupId);
+        if (current != null) {
+            return Optional.of(current);
+        }
+        if (!Files.isDirectory(folder)) {
+            return Optional.empty();
+        }
+
+        String legacyName = getFileName(groupId, null);
+        String versionPrefix = legacyName.substring(0, legacyName.length() - FILE_EXTENSION.length())
+            + VERSION_SEPARATOR;
+        FileTime newest = null;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder, "*" + FILE_EXTENSION)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                if (!name.equals(legacyName) && !name.startsWith(versionPrefix)) {
+                    continue;
+                }
+                FileTime modified = Files.getLastModifiedTime(file);
+                if (newest == null || modified.compareTo(newest) > 0) {
+                    newest = modified;
+                    current = name;
+                }
+            }
+        }
+        catch (IOException e) {
+            System.err.println("Could not list curriculums of " + groupId + ": " + e.getMessage());
+            e.printStackTrace();
+            return Optional.empty();
+        }
+        if (current != null) {
+            currentFiles.put(groupId, current);
+        }
+        return Optional.ofNullable(current);
+    }
+
+
+    /**
+     * Returns the current time, or a time after the current version if its
+     * file is not older, so the stored version is the newest file.
+     */
+    private FileTime getNewerTime(String groupId, String fileName) throws IOException {
+        Instant now = Instant.now();
+        Optional<String> current = findCurrentFile(groupId);
+        if (current.isPresent() && !current.get().equals(fileName)) {
+            Instant previous = Files.getLastModifiedTime(folder.resolve(current.get())).toInstant();
+            if (!previous.isBefore(now)) {
+                now = previous.plusSeconds(1);
+            }
+        }
+        return FileTime.from(now);
+    }
+
+
+    private boolean isFresh(String fileName) {
+        try {
+            Instant modified = Files.getLastModifiedTime(folder.resolve(fileName)).toInstant();
+            return modified.plus(ttl).isAfter(Instant.now());
+        }
+        catch (IOException e) {
+            return false;
+        }
+    }
+
+
+    /**
+     * Returns the stored tree itself, reads it from the folder if it is not
+     * in memory yet.
+     */
+    private synchronized Optional<CompactProgrammeTree> findCurriculum(String fileName) {
+        CompactProgrammeTree curriculum = curriculums.get(fileName);
+        if (curriculum != null) {
+            return Optional.of(curriculum);
+        }
+
+        Path file = folder.resolve(fileName);
+        if (!Files.exists(file)) {
+            return Optional.empty();
+        }
+        try {
+            SisuNode tree = ObjectMapperFactory.getSisuNodeReader().readValue(file.toFile());
+            curriculum = new CompactProgrammeTree(tree);
+        }
+        catch (IOException e) {
+            System.err.println("Could not read curriculum " + fileName + ": " + e.getMessage());
+            e.printStackTrace();
+            return Optional.empty();
+        }
+        curriculums.put(fileName, curriculum);
+        return Optional.of(curriculum);
+    }
+
+
+    /**
+     * Builds the file name of a curriculum version, or of a curriculum saved
+     * without a version. GroupIds only contain letters, numbers and dashes,
+     * but anything else is replaced just in case.
+     */
+    private static String getFileName(String groupId, String version) {
+        String name = groupId.replaceAll("[^a-zA-Z0-9._-]", "_");
+        return version == null
+            ? name + FILE_EXTENSION
+            : name + VERSION_SEPARATOR + version + FILE_EXTENSION;
+    }
+
+
+    /**
+     * Returns the version in a file name, null for a file without one.
+     */
+    private static String getVersion(String fileName) {
+        int separator = fileName.lastIndexOf(VERSION_SEPARATOR);
+        return separator < 0
+            ? null
+            : fileName.substring(separator + 1, fileName.length() - FILE_EXTENSION.length());
+    }
+
+
+    /**
+     * Version of a curriculum, the beginning of the SHA-256 hash of its json.
+     */
+    private static String getVersion(byte[] json) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(json);
+            StringBuilder version = new StringBuilder();
+            for (int i = 0; version.length() < VERSION_LENGTH; i++) {
+                version.append(String.format("%02x", hash[i]));
+            }
+            return version.toString();
+        }
+        catch (NoSuchAlgorithmException e) {
+            // Every Java platform has SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package fi.Sisu.datasource;
+
+/**
+ * When saved student files are forced to the disk with fsync. Files are
+ * always written to a temporary file and renamed over the old one, so a
+ * crash never leaves a half written student file, whatever the policy. The
+ * policy decides how many of the latest saves a crash of the whole machine
+ * can lose.
+ */
+public enum DurabilityPolicy {
+
+    /**
+     * Every save is forced to the disk before it is renamed in place.
+     * Nothing is lost, but every save waits for the disk.
+     */
+    PER_SAVE,
+
+    /**
+     * Saves are renamed in place in groups, and every group is forced to
+     * the disk with one fsync per file. A crash loses at most the saves of
+     * the last sync interval, the files are left as they were before them.
+     */
+    GROUPED,
+
+    /**
+     * Files are renamed in place right away and the operating system writes
+     * them to the disk when it wants to.
+     */
+    NONE
+}
@@ -2,22 +2,46 @@ package fi.Sisu.datasource;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.exc.MismatchedInputException;
 
+import fi.Sisu.app.AppConfig;
 import fi.Sisu.app.Constants;
+import fi.Sisu.model.CurriculumOverlay;
+import fi.Sisu.model.SisuNode;
 import fi.Sisu.model.Student;
+import fi.Sisu.model.StudentChange;
+import fi.Sisu.model.StudentSummary;
+import fi.Sisu.utils.BackgroundExecutor;
 import fi.Sisu.utils.MyJavaFXUtils;
-import fi.Sisu.utils.ObjectMapperFactory;
 import javafx.scene.control.Alert.AlertType;
 
 /**
@@ -25,18 +49,146 @@ import javafx.scene.control.Alert.AlertType;
  * Rewritten to use a separate file for each student, and to use an interface 
  * instead of exposing everything to the application.
  * 
+ * Loaded students are kept in memory, so getStudent returns the same Student
+ * object until it is invalidated. saveStudent writes to disk in the
+ * background after a short delay, and several saves of the same student
+ * during the delay are written only once. Call flush before the application
+ * exits to write the pending saves.
+ * 
+ * Study programmes are saved as an overlay against the shared curriculum
+ * tree in the CurriculumStore when the curriculum is stored there, and
+ * resolved back to a full tree when the student is loaded. Students whose
+ * programme can't be expressed as an overlay are saved with the whole tree.
+ * 
+ * Changes to a student's study programme made with applyStudentChange are
+ * appended to a StudentJournal next to the student file instead of
+ * rewriting the file. The journal is replayed when the student is loaded,
+ * and compacted into the student file on the writer thread when it grows
+ * large or the data source is flushed.
+ * 
+ * Student files are saved in the StudentFileFormat of the configuration,
+ * JSON by default, with the extension of the format. They are read in
+ * whichever format they are in, and a student's file in another format is
+ * removed once the student has been saved in the new one.
+ * 
+ * Student files are written through an AtomicFileWriter, so a crash never
+ * leaves a half written file. The DurabilityPolicy decides whether every
+ * save is forced to the disk, the saves are forced in groups, or not at all.
+ * 
+ * The student list is read from a StudentDirectory index, which is updated
+ * after every write and delete. When all students are really needed,
+ * loadAllStudents reads the files in parallel and reports the files which
+ * failed instead of showing a dialog for each.
+ * 
  * @author Heikki Hohtari
  * @author Antti Hakkarainen (rewrite)
  */
 public class FileDataSource implements IFileDataSource, IDataFileOperations {
 
+    // Single writer thread, so the writes of one student never overlap.
+    private static final ScheduledExecutorService WRITE_EXECUTOR =
+        Executors.newSingleThreadScheduledExecutor(
+            BackgroundExecutor.createDaemonThreadFactory("sisu-student-writer"));
+
+    // Bounded pool for loading all students at once.
+    private static final ExecutorService LOAD_EXECUTOR = Executors.newFixedThreadPool(
+        AppConfig.getStudentLoadThreads(),
+        BackgroundExecutor.createDaemonThreadFactory("sisu-student-loader"));
+
     private final String filePrefix = "student_";
-    private final String fileExtension = ".json";
-    private final String studentsFolderPath = "students";
+    private final String journalExtension = ".journal";
+    private final String studentsFolderPath;
+    private final Duration writeDelay;
+    private final CurriculumStore curriculumStore;
+    private final StudentDirectory directory;
+    private final AtomicFileWriter fileWriter;
+
+    // Students loaded from disk or saved, by student ID.
+    private final ConcurrentHashMap<String, Student> studentCache = new ConcurrentHashMap<>();
+
+    // Encoded students waiting to be written to disk, by student ID. The
+    // student is serialized when it is saved, so later changes made to the
+    // object on the UI thread don't race with the writer thread.
+    private final ConcurrentHashMap<String, PendingWrite> pendingWrites = new ConcurrentHashMap<>();
+
+    // Change journals by student ID.
+    private final ConcurrentHashMap<String, StudentJournal> journals = new ConcurrentHashMap<>();
+
+    // Students whose journal compaction waits for the writer thread.
+    private final Set<String> pendingCompactions = ConcurrentHashMap.newKeySet();
+
+    /**
+     * A saved student waiting to be written, with its summary for the
+     * directory index and the last journal change it includes.
+     */
+    private static class PendingWrite {
+        private final StudentFileFormat format;
+        private final byte[] data;
+        private final StudentSummary summary;
+        private final long journalSequence;
+
+        PendingWrite(StudentFileFormat format, byte[] data, StudentSummary summary, long journalSequence) {
+            this.format = format;
+            this.data = data;
+            this.summary = summary;
+            this.journalSequence = journalSequence;
+        }
+    }
+
+
+    public FileDataSource() {
+        this(
+            Paths.get("students"), 
+            new CurriculumStore(AppConfig.getCurriculumFolder()), 
+            AppConfig.getStudentWriteDelay());
+    }
+
+
+    /**
+     * Constructor.
+     * 
+     * @param studentsFolder Path of the folder for student files.
+     * @param curriculumStore CurriculumStore of the shared curriculum trees.
+     * @param writeDelay Duration how long saves wait before they are written.
+     */
+    public FileDataSource(Path studentsFolder, CurriculumStore curriculumStore, Duration writeDelay) {
+        this(studentsFolder, curriculumStore, writeDelay, AppConfig.getStudentDurability());
+    }
+
+
+    /**
+     * Constructor.
+     * 
+     * @param studentsFolder Path of the folder for student files.
+     * @param curriculumStore CurriculumStore of the shared curriculum trees.
+     * @param writeDelay Duration how long saves wait before they are written.
+     * @param durability DurabilityPolicy of the student files and journals.
+     */
+    public FileDataSource(
+        Path studentsFolder, 
+        CurriculumStore curriculumStore, 
+        Duration writeDelay, 
+        DurabilityPolicy durability) 
+        {
+        this.studentsFolderPath = studentsFolder.toString();
+        this.curriculumStore = curriculumStore;
+        this.writeDelay = writeDelay;
+        this.fileWriter = new AtomicFileWriter(durability, AppConfig.getStudentSyncInterval(), WRITE_EXECUTOR);
+        this.directory = new StudentDirectory(
+            studentsFolder, 
+            filePrefix, 
+            Arrays.stream(StudentFileFormat.values())
+                .map(StudentFileFormat::getExtension)
+                .collect(Collectors.toList()), 
+            journalExtension, 
+            this::loadStudentsForDirectory, 
+            WRITE_EXECUTOR);
+    }
+
 
     @Override
     public List<Student> getAllStudents() {
-        List<Student> students = new ArrayList<>();        
+        List<Student> students = Collections.synchronizedList(new ArrayList<>());
     
         // Create a 'students' folder if it does not exist
         try {
@@ -48,44 +200,306 @@ public class FileDataSource implements IFileDataSource, IDataFileOperations {
             e.printStackTrace();
             return students; 
         }
-    
-        // Get all files in the students folder
-        File folder = new File(studentsFolderPath);
-        File[] listOfFiles = folder.listFiles((dir, name) -> name.toLowerCase().endsWith(".json")); 
-        
-        // There may be zero or more files in the folder, we can't know for sure
-        Optional<File[]> listOfFilesOptional = Optional.ofNullable(listOfFiles);
-        students.addAll(getStudentsFromFiles(listOfFilesOptional));
-    
-        return students;
+
+        StudentLoadReport report = loadAllStudents(students::add).join();
+        for (StudentLoadReport.Failure failure : report.getFailures()) {
+            System.err.println("Could not load student " + failure);
+        }
+
+        List<Student> sorted = new ArrayList<>(students);
+        sorted.sort(Comparator.comparing(Student::getStudentID));
+        return sorted;
+    }
+
+
+    @Override
+    public CompletableFuture<StudentLoadReport> loadAllStudents(Consumer<Student> listener) {
+        long start = System.nanoTime();
+        List<Path> files;
+        try {
+            files = listStudentFiles();
+        }
+        catch (IOException e) {
+            System.err.println("Could not list student files: " + e.getMessage());
+            StudentLoadReport.Failure failure = 
+                new StudentLoadReport.Failure(null, Paths.get(studentsFolderPath), e);
+            return CompletableFuture.completedFuture(new StudentLoadReport(
+                0, List.of(failure), Duration.ofNanos(System.nanoTime() - start)));
+        }
+        return loadStudentFiles(files, listener, start);
+    }
+
+
+    /**
+     * Loads student files in parallel on the loader pool, see
+     * loadAllStudents.
+     * 
+     * @param files List<Path> of the student files.
+     * @param listener Consumer<Student> called with every loaded student, may be null.
+     * @param start long System.nanoTime when the load was started.
+     * @return CompletableFuture<StudentLoadReport> completed when every file has been tried.
+     */
+    private CompletableFuture<StudentLoadReport> loadStudentFiles(
+        List<Path> files, 
+        Consumer<Student> listener, 
+        long start) 
+        {
+        AtomicInteger loaded = new AtomicInteger();
+        ConcurrentLinkedQueue<StudentLoadReport.Failure> failures = new ConcurrentLinkedQueue<>();
+        CompletableFuture<?>[] loads = new CompletableFuture<?>[files.size()];
+        for (int i = 0; i < files.size(); i++) {
+            Path file = files.get(i);
+            loads[i] = CompletableFuture.runAsync(() -> {
+                String studentId = null;
+                Student student;
+                try {
+                    studentId = getStudentId(file);
+                    student = loadStudentFile(studentId, file);
+                }
+                catch (IOException | RuntimeException e) {
+                    failures.add(new StudentLoadReport.Failure(studentId, file, e));
+                    return;
+                }
+                loaded.incrementAndGet();
+                if (listener != null) {
+                    listener.accept(student);
+                }
+            }, LOAD_EXECUTOR);
+        }
+
+        return CompletableFuture.allOf(loads).thenApply(done -> new StudentLoadReport(
+            loaded.get(), 
+            new ArrayList<>(failures), 
+            Duration.ofNanos(System.nanoTime() - start)));
+    }
+
+
+    @Override
+    public List<StudentSummary> getStudentSummaries() {
+        try {
+            createStudentsFolderIfNotExists(Paths.get(studentsFolderPath));
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            return new ArrayList<>();
+        }
+        return directory.getSummaries();
     }
 
 
     @Override
     public Optional<Student> getStudent(String studentId) {
         isStudentIdValid(studentId);
+        Student cached = studentCache.get(studentId);
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+
         if (!this.studentDataFileExists(studentId)) {
             return Optional.empty();
         }
-        return Optional.of(loadStudentDataFromFile(studentId));
+        Student student = loadStudentDataFromFile(studentId);
+
+        // A student which failed to load is not cached, so it is read again.
+        if (!studentId.equals(student.getStudentID())) {
+            return Optional.of(student);
+        }
+        Student existing = studentCache.putIfAbsent(studentId, student);
+        return Optional.of(existing != null ? existing : student);
     }
 
 
     @Override
     public Boolean editStudent(String studentId, String firstName, String lastName) {
         isStudentIdValid(studentId);
-        Student student = this.loadStudentDataFromFile(studentId);
+        Optional<Student> student = this.getStudent(studentId);
+        if (student.isEmpty()) {
+            System.err.println("Student with given ID does not exist!");
+            return false;
+        }
 
-        student.setFirstName(firstName);
-        student.setLastName(lastName);
+        student.get().setFirstName(firstName);
+        student.get().setLastName(lastName);
 
-        return this.saveStudentDataToFile(student);
+        return this.saveStudent(student.get());
     }
 
 
     @Override
     public Boolean saveStudent(Student student) {
-        return this.saveStudentDataToFile(student);
+        if (student == null) {
+            throw new IllegalArgumentException("Student cannot be null.");
+        }
+        String studentId = student.getStudentID();
+        isStudentIdValid(studentId);
+
+        StudentFileFormat format = AppConfig.getStudentFileFormat();
+        byte[] data;
+        try {
+            data = format.write(toFileForm(student));
+        }
+        catch (IOException e) {
+            String errMsg = "Invalid data content with student:\n" + studentId;    
+
+            MyJavaFXUtils.displayAlertWithMoreInfo(
+                AlertType.ERROR,
+                "Error",
+                "Error while saving student data to JSON",
+                "Student data is corrupted or invalid.",
+                errMsg
+            );
+
+            System.err.println("Invalid data content: " + e.getMessage());
+            e.printStackTrace();
+
+            return false;
+        }
+
+        studentCache.put(studentId, student);
+
+        // Only the first save schedules a write, the following ones replace
+        // the pending data until it has been written.
+        PendingWrite write = new PendingWrite(
+            format, data, StudentSummary.of(student, 0), student.getJournalSequence());
+        if (pendingWrites.put(studentId, write) == null) {
+            WRITE_EXECUTOR.schedule(
+                () -> writePendingStudent(studentId), writeDelay.toMillis(), TimeUnit.MILLISECONDS);
+        }
+        return true;
+    }
+
+
+    @Override
+    public Boolean applyStudentChange(Student student, StudentChange change) {
+        if (student == null || change == null) {
+            throw new IllegalArgumentException("Student and change cannot be null.");
+        }
+        String studentId = student.getStudentID();
+        isStudentIdValid(studentId);
+
+        if (!change.applyTo(student)) {
+            System.err.println("Could not apply " + change + " to student " + studentId);
+            return false;
+        }
+        long sequence = student.getJournalSequence() + 1;
+        student.setJournalSequence(sequence);
+        studentCache.put(studentId, student);
+
+        StudentJournal journal = getJournal(studentId);
+        try {
+            createStudentsFolderIfNotExists(Paths.get(studentsFolderPath));
+            journal.append(sequence, change);
+        }
+        catch (IOException e) {
+            // The whole student is saved instead, with the change in it.
+            System.err.println("Could not append to the journal of student " + studentId + ": " + e.getMessage());
+            e.printStackTrace();
+            return saveStudent(student);
+        }
+
+        // The journal is synced on the writer thread, so the caller never
+        // waits for the disk or for a group being committed. Only the
+        // changed student is updated in the index, the rest of it stays
+        // valid. The summary is taken here, the file times are read there.
+        StudentSummary summary = StudentSummary.of(student, 0);
+        WRITE_EXECUTOR.execute(() -> {
+            fileWriter.sync(journal.getFile());
+            directory.update(summary.withModified(getLastModified(studentId)));
+        });
+
+        if (journal.size() > AppConfig.getStudentJournalCompactBytes()
+            && !pendingWrites.containsKey(studentId)
+            && pendingCompactions.add(studentId)) {
+            WRITE_EXECUTOR.execute(() -> compactJournal(studentId));
+        }
+        return true;
+    }
+
+
+    @Override
+    public void invalidateStudent(String studentId) {
+        isStudentIdValid(studentId);
+        // Write the pending save first, so the next load reads it from disk.
+        runOnWriterThread(() -> {
+            writePendingStudent(studentId);
+            fileWriter.commit();
+            return true;
+        });
+        studentCache.remove(studentId);
+    }
+
+
+    @Override
+    public void invalidateAllStudents() {
+        flush();
+        studentCache.clear();
+        directory.invalidate();
+    }
+
+
+    @Override
+    public void flush() {
+        runOnWriterThread(() -> {
+            pendingWrites.keySet().forEach(this::writePendingStudent);
+            fileWriter.commit();
+            // The changes left in the journals are compacted.
+            journals.keySet().forEach(this::compactJournal);
+            fileWriter.commit();
+            directory.flush();
+            return true;
+        });
+    }
+
+
+    @Override
+    public Optional<SisuNode> getCurriculum(String groupId) {
+        return curriculumStore.getCurriculum(groupId);
+    }
+
+
+    @Override
+    public boolean storeCurriculum(SisuNode programme) {
+        return curriculumStore.storeCurriculum(programme);
+    }
+
+
+    /**
+     * Rewrites the student files which are not in the given format, for
+     * example to move the students folder to Smile. The files are only
+     * re-encoded and renamed to the extension of the format, their overlays
+     * and journals stay as they are. Pending saves are written first.
+     * 
+     * @param format StudentFileFormat to convert the files to.
+     * @return int number of files converted.
+     * @throws IOException if the students folder can't be listed.
+     */
+    public int convertStudentFiles(StudentFileFormat format) throws IOException {
+        flush();
+        List<Path> files = listStudentFiles();
+        Integer converted = runOnWriterThread(() -> {
+            int count = 0;
+            for (Path file : files) {
+                try {
+                    String studentId = getStudentId(file);
+                    byte[] data = Files.readAllBytes(file);
+                    if (StudentFileFormat.detect(data) != format) {
+                        data = format.write(StudentFileFormat.read(data));
+                    }
+                    else if (file.equals(getStudentFile(studentId, format))) {
+                        continue;
+                    }
+                    writeStudentFile(studentId, format, data, null);
+                    count++;
+                }
+                catch (IOException | RuntimeException e) {
+                    System.err.println("Could not convert " + file + ": " + e.getMessage());
+                }
+            }
+            fileWriter.commit();
+            return count;
+        });
+        directory.invalidate();
+        return converted != null ? converted : 0;
     }
 
 
@@ -93,7 +507,7 @@ public class FileDataSource implements IFileDataSource, IDataFileOperations {
     public Boolean addStudent(String studentId, String firstName, String lastName) {
         isStudentIdValid(studentId);
         // Check if a student already exists with the given ID
-        if (this.studentDataFileExists(studentId)) {
+        if (this.studentExists(studentId)) {
             System.err.println("Student with given ID already exists!");
             return false;
         }
@@ -105,20 +519,55 @@ public class FileDataSource implements IFileDataSource, IDataFileOperations {
         student.setFirstName(firstName);
         student.setLastName(lastName);
 
-        return this.saveStudentDataToFile(student);
+        // Written right away, so the new student is found from the folder.
+        if (!this.saveStudentDataToFile(student)) {
+            return false;
+        }
+        studentCache.put(studentId, student);
+        return true;
     }
 
 
     @Override
     public Boolean deleteStudent(String studentId) {
+        isStudentIdValid(studentId);
+        studentCache.remove(studentId);
+        pendingWrites.remove(studentId);
+
+        // Deleted on the writer thread, so a write already in progress
+        // can't bring the file back.
+        Boolean deleted = runOnWriterThread(() -> deleteStudentDataFile(studentId));
+        return deleted != null && deleted;
+    }
+
+
+    @Override
+    public Boolean studentExists(String studentId) {
         isStudentIdValid(studentId);   
+        return studentCache.containsKey(studentId) || this.studentDataFileExists(studentId);
+    };
+
+
+    /**
+     * Deletes the data files of every format and the change journal of a
+     * student.
+     * 
+     * @param studentId ID of the student.
+     * @return Boolean was the file deleted.
+     */
+    private Boolean deleteStudentDataFile(String studentId) {
         String studentDataFileName = getStudentDataFileName(studentId);
         Path studentDataFilePath = Paths.get(studentDataFileName);        
     
         // Check if the file exists before attempting to delete it
         if (Files.exists(studentDataFilePath)) {
             try {
-                Files.delete(studentDataFilePath);
+                StudentJournal journal = getJournal(studentId);
+                fileWriter.discard(journal.getFile());
+                journal.delete();
+                journals.remove(studentId);
+                deleteOtherFormats(studentId, null);
+                directory.remove(studentId);
                 return true;
             } catch (IOException e) {
                 System.err.println("Could not delete student data file: " + studentDataFileName);
@@ -133,28 +582,452 @@ public class FileDataSource implements IFileDataSource, IDataFileOperations {
     }
 
 
-    @Override
-    public Boolean studentExists(String studentId) {
-        isStudentIdValid(studentId);   
-        return this.studentDataFileExists(studentId);
-    };
+    /**
+     * Returns the student in the form it is saved in: the study programme is
+     * replaced with its overlay when the curriculum is in the store. The
+     * student itself is not changed.
+     * 
+     * @param student Student to be saved.
+     * @return Student to be written to the file.
+     */
+    private Student toFileForm(Student student) {
+        Optional<SisuNode> programme = student.getStudyProgramme();
+        Optional<CurriculumOverlay> overlay = programme.isPresent()
+            ? curriculumStore.createOverlay(programme.get())
+            : Optional.ofNullable(student.getCurriculumOverlay());
 
+        Student fileForm = new Student(
+            student.getStudentID(),
+            student.getFirstName(),
+            student.getLastName(),
+            overlay.isPresent() ? null : programme.orElse(null));
+        fileForm.setStudyProgrammeGroupID(student.getStudyProgrammeGroupID());
+        fileForm.setStudyProgrammeName(student.getStudyProgrammeName());
+        fileForm.setCurriculumOverlay(overlay.orElse(null));
+        fileForm.setJournalSequence(student.getJournalSequence());
+        return fileForm;
+    }
 
-    @Override
-    public List<Student> getStudentsFromFiles(Optional<File[]> listOfFiles) {
-        List<Student> students = new ArrayList<>();
-    
-        if (listOfFiles.isPresent()) {
-            for (File file : listOfFiles.get()) {
-                String fileName = file.getName();
-                String studentId = fileName.substring(0, fileName.lastIndexOf(".json")).replace("student_", "");
-    
-                Optional<Student> student = getStudent(studentId);
-                student.ifPresent(students::add);             
+
+    private StudentJournal getJournal(String studentId) {
+        isStudentIdValid(studentId);
+        return journals.computeIfAbsent(studentId, id -> new StudentJournal(
+            Paths.get(studentsFolderPath, filePrefix + id + journalExtension), fileWriter.getPolicy()));
+    }
+
+
+    /**
+     * Rewrites a student file with the changes of its journal, so the
+     * journal can be truncated. Runs on the writer thread. The student is
+     * read from its file and journal instead of encoding the cached object,
+     * which the UI thread may be changing at the same time. A student with
+     * a save waiting to be written is left to it.
+     * 
+     * @param studentId ID of the student.
+     */
+    private void compactJournal(String studentId) {
+        pendingCompactions.remove(studentId);
+        if (getJournal(studentId).size() == 0 || pendingWrites.containsKey(studentId)) {
+            return;
+        }
+        for (StudentFileFormat format : StudentFileFormat.values()) {
+            if (fileWriter.isPending(getStudentFile(studentId, format))) {
+                return;
             }
         }
-    
+
+        try {
+            Student student = readStudentFile(new File(getStudentDataFileName(studentId)));
+            if (!studentId.equals(student.getStudentID())) {
+                throw new IOException("File has student ID " + student.getStudentID());
+            }
+            StudentFileFormat format = AppConfig.getStudentFileFormat();
+            writeStudentFile(studentId, format, format.write(toFileForm(student)), () -> {
+                truncateJournal(studentId, student.getJournalSequence());
+                directory.update(StudentSummary.of(student, getLastModified(studentId)));
+            });
+        }
+        catch (IOException | RuntimeException e) {
+            System.err.println("Could not compact the journal of student " + studentId + ": " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+
+    /**
+     * Removes the changes written to the student file from the journal of
+     * the student. A failure only leaves the changes to be replayed again.
+     * 
+     * @param studentId ID of the student.
+     * @param sequence long journal sequence saved in the student file.
+     */
+    private void truncateJournal(String studentId, long sequence) {
+        try {
+            getJournal(studentId).truncateThrough(sequence);
+        }
+        catch (IOException e) {
+            System.err.println("Could not compact the journal of student " + studentId + ": " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+
+    /**
+     * Applies the changes in a student's journal which are newer than the
+     * student file. Replaying stops at a gap in the sequence, since the
+     * changes after it were made to a different version of the student.
+     * 
+     * @param student Student read from the file, with its study programme resolved.
+     * @param file File the student was read from.
+     * @throws IOException if the journal can't be read.
+     */
+    private void replayJournal(Student student, File file) throws IOException {
+        List<StudentJournal.Entry> entries = getJournal(getStudentId(file.toPath())).read();
+        if (student.getStudyProgramme().isEmpty()) {
+            // Kept in the journal until the study programme can be resolved.
+            if (!entries.isEmpty()) {
+                System.err.println("Journal of student " + student.getStudentID() 
+                    + " can't be replayed without the study programme.");
+            }
+            return;
+        }
+        for (StudentJournal.Entry entry : entries) {
+            if (entry.getSequence() <= student.getJournalSequence()) {
+                continue;
+            }
+            if (entry.getSequence() != student.getJournalSequence() + 1) {
+                System.err.println("Journal of student " + student.getStudentID() 
+                    + " skips from " + student.getJournalSequence() + " to " + entry.getSequence());
+                return;
+            }
+            if (!entry.getChange().applyTo(student)) {
+                System.err.println("Could not replay " + entry.getChange() 
+                    + " to student " + student.getStudentID());
+            }
+            student.setJournalSequence(entry.getSequence());
+        }
+    }
+
+
+    /**
+     * Lists the student files in the students folder, in every format. If a
+     * student has files in several formats, only the newest is listed.
+     * 
+     * @return List<Path> of the files, empty if there is no folder.
+     */
+    private List<Path> listStudentFiles() throws IOException {
+        Map<String, Path> files = new HashMap<>();
+        Path folder = Paths.get(studentsFolderPath);
+        if (!Files.isDirectory(folder)) {
+            return new ArrayList<>();
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder, filePrefix + "*")) {
+            for (Path file : stream) {
+                if (StudentFileFormat.fromFileName(file.getFileName().toString()).isPresent()) {
+                    files.merge(getStudentId(file), file, FileDataSource::getNewerFile);
+                }
+            }
+        }
+        return new ArrayList<>(files.values());
+    }
+
+
+    private String getStudentId(Path file) {
+        String fileName = file.getFileName().toString();
+        StudentFileFormat format = StudentFileFormat.fromFileName(fileName)
+            .filter(found -> fileName.startsWith(filePrefix))
+            .orElseThrow(() -> new IllegalArgumentException("Not a student file: " + fileName));
+        return fileName.substring(filePrefix.length(), fileName.length() - format.getExtension().length());
+    }
+
+
+    /**
+     * Returns the file of a student in the given format.
+     * 
+     * @param studentId ID of the student.
+     * @param format StudentFileFormat of the file.
+     * @return Path of the file, which may not exist.
+     */
+    private Path getStudentFile(String studentId, StudentFileFormat format) {
+        return Paths.get(studentsFolderPath, filePrefix + studentId + format.getExtension());
+    }
+
+
+    /**
+     * Writes a student file in the given format through the file writer.
+     * Once it is in place, the student's files in the other formats are
+     * deleted.
+     * 
+     * @param studentId ID of the student.
+     * @param format StudentFileFormat of the data.
+     * @param data byte[] encoded student.
+     * @param onCommitted Runnable to run once the file is in place, may be null.
+     * @throws IOException if the file can't be written.
+     */
+    private void writeStudentFile(
+        String studentId, 
+        StudentFileFormat format, 
+        byte[] data, 
+        Runnable onCommitted) 
+        throws IOException 
+        {
+        // A write in another format still waiting to be committed would
+        // delete this file after it.
+        for (StudentFileFormat other : StudentFileFormat.values()) {
+            if (other != format) {
+                fileWriter.discard(getStudentFile(studentId, other));
+            }
+        }
+        fileWriter.write(getStudentFile(studentId, format), data, () -> {
+            deleteOtherFormats(studentId, format);
+            if (onCommitted != null) {
+                onCommitted.run();
+            }
+        });
+    }
+
+
+    /**
+     * Deletes the files of a student which are not in the given format,
+     * after the student has been written in it.
+     * 
+     * @param studentId ID of the student.
+     * @param format StudentFileFormat of the file to keep, null to delete all.
+     */
+    private void deleteOtherFormats(String studentId, StudentFileFormat format) {
+        for (StudentFileFormat other : StudentFileFormat.values()) {
+            if (other == format) {
+                continue;
+            }
+            Path file = getStudentFile(studentId, other);
+            try {
+                fileWriter.discard(file);
+                Files.deleteIfExists(file);
+            }
+            catch (IOException e) {
+                System.err.println("Could not delete " + file + ": " + e.getMessage());
+            }
+        }
+    }
+
+
+    private static Path getNewerFile(Path first, Path second) {
+        try {
+            return Files.getLastModifiedTime(second).compareTo(Files.getLastModifiedTime(first)) > 0 
+                ? second 
+                : first;
+        }
+        catch (IOException e) {
+            return first;
+        }
+    }
+
+
+    /**
+     * Loads a student for loadAllStudents. A student already in memory is
+     * used as it is, others are read and cached. Errors are thrown to the
+     * caller instead of showing them.
+     * 
+     * @param studentId ID of the student.
+     * @param file Path of the student file.
+     * @return Student loaded student.
+     * @throws IOException if the file can't be read or has another student.
+     */
+    private Student loadStudentFile(String studentId, Path file) throws IOException {
+        isStudentIdValid(studentId);
+        Student cached = studentCache.get(studentId);
+        if (cached != null) {
+            return cached;
+        }
+
+        Student student = readStudentFile(file.toFile());
+        if (!studentId.equals(student.getStudentID())) {
+            throw new IOException("File has student ID " + student.getStudentID());
+        }
+        Student existing = studentCache.putIfAbsent(studentId, student);
+        return existing != null ? existing : student;
+    }
+
+
+    /**
+     * Reads a student file, resolves its study programme and replays the
+     * student's change journal.
+     * 
+     * @param file File to read.
+     * @return Student read from the file.
+     * @throws IOException if the file can't be read or parsed.
+     */
+    private Student readStudentFile(File file) throws IOException {
+        Student student = StudentFileFormat.read(Files.readAllBytes(file.toPath()));
+        resolveStudyProgramme(student);
+        replayJournal(student, file);
+        return student;
+    }
+
+
+    /**
+     * Reads students for the directory index in parallel on the loader
+     * pool. Students already in memory are used as they are, others are
+     * read without caching them. Files which can't be read are left out
+     * and logged, no dialogs are shown.
+     * 
+     * @param studentIds IDs of the students.
+     * @return Map<String, Student> students read, by student ID.
+     */
+    private Map<String, Student> loadStudentsForDirectory(Collection<String> studentIds) {
+        Map<String, Student> students = new ConcurrentHashMap<>();
+        ConcurrentLinkedQueue<StudentLoadReport.Failure> failures = new ConcurrentLinkedQueue<>();
+        List<CompletableFuture<Void>> loads = new ArrayList<>();
+        for (String studentId : studentIds) {
+            loads.add(CompletableFuture.runAsync(() -> {
+                Path file = Paths.get(studentsFolderPath);
+                try {
+                    file = Paths.get(getStudentDataFileName(studentId));
+                    Student cached = studentCache.get(studentId);
+                    students.put(studentId, cached != null ? cached : readStudentFile(file.toFile()));
+                }
+                catch (IOException | RuntimeException e) {
+                    failures.add(new StudentLoadReport.Failure(studentId, file, e));
+                }
+            }, LOAD_EXECUTOR));
+        }
+
+        CompletableFuture.allOf(loads.toArray(new CompletableFuture<?>[0])).join();
+        for (StudentLoadReport.Failure failure : failures) {
+            System.err.println("Could not load student " + failure);
+        }
         return students;
+    }
+
+
+    /**
+     * Returns the last modified time of a student, the later of the student
+     * file and its change journal.
+     * 
+     * @param studentId ID of the student.
+     * @return long modified time in milliseconds, 0 if it can't be read.
+     */
+    private long getLastModified(String studentId) {
+        try {
+            long modified = Files.getLastModifiedTime(Paths.get(getStudentDataFileName(studentId))).toMillis();
+            Path journal = Paths.get(studentsFolderPath, filePrefix + studentId + journalExtension);
+            if (Files.exists(journal)) {
+                modified = Math.max(modified, Files.getLastModifiedTime(journal).toMillis());
+            }
+            return modified;
+        }
+        catch (IOException e) {
+            return 0;
+        }
+    }
+
+
+    /**
+     * Replaces the overlay of a loaded student with the study programme
+     * resolved from the curriculum store. If the curriculum is missing, the
+     * overlay is kept so it is saved back as it was.
+     * 
+     * @param student Student read from the file.
+     */
+    private void resolveStudyProgramme(Student student) {
+        CurriculumOverlay overlay = student.getCurriculumOverlay();
+        if (overlay == null) {
+            return;
+        }
+
+        Optional<SisuNode> programme = curriculumStore.resolve(overlay);
+        if (programme.isEmpty()) {
+            System.err.println("Curriculum " + overlay.getCurriculumGroupId() 
+                + " of student " + student.getStudentID() + " was not found.");
+            return;
+        }
+        student.setStudyProgramme(programme.get());
+        student.setCurriculumOverlay(null);
+    }
+
+
+    /**
+     * Writes the pending save of a student to disk, if there is one. Runs on
+     * the writer thread. With the GROUPED policy the file is in place, and
+     * the journal and the directory are updated, once its group is committed.
+     * 
+     * @param studentId ID of the student.
+     * @return Boolean was the write successful, true if there was nothing to write.
+     */
+    private Boolean writePendingStudent(String studentId) {
+        PendingWrite write = pendingWrites.remove(studentId);
+        if (write == null) {
+            return true;
+        }
+
+        try {
+            createStudentsFolderIfNotExists(Paths.get(studentsFolderPath));
+            writeStudentFile(studentId, write.format, write.data, () -> {
+                truncateJournal(studentId, write.journalSequence);
+                directory.update(write.summary.withModified(getLastModified(studentId)));
+            });
+        }
+        catch (IOException e) {
+            String errMsg = "An I/O error occurred with student:\n" + studentId;    
+
+            MyJavaFXUtils.runOnFxThread(() -> MyJavaFXUtils.displayAlertWithMoreInfo(
+                AlertType.ERROR,
+                "Error",
+                "Error while saving student data to JSON",
+                "Student data could not be written to disk.",
+                errMsg
+            ));
+
+            System.err.println("An I/O error occurred: " + e.getMessage());
+            e.printStackTrace();
+
+            return false;
+        }
+        return true;
+    }
+
+
+    /**
+     * Runs a task on the writer thread and waits for it to complete.
+     * 
+     * @param task Callable to run.
+     * @return T result of the task, null if it failed.
+     */
+    private <T> T runOnWriterThread(Callable<T> task) {
+        try {
+            return WRITE_EXECUTOR.submit(task).get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("Interrupted while writing student data.");
+        }
+        catch (ExecutionException e) {
+            System.err.println("Error while writing student data: " + e.getCause());
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+
+    @Override
+    public List<Student> getStudentsFromFiles(Optional<File[]> listOfFiles) {
+        List<Student> students = Collections.synchronizedList(new ArrayList<>());
+        if (listOfFiles.isEmpty()) {
+            return students;
+        }
+
+        List<Path> files = new ArrayList<>();
+        for (File file : listOfFiles.get()) {
+            files.add(file.toPath());
+        }
+        StudentLoadReport report = loadStudentFiles(files, students::add, System.nanoTime()).join();
+        for (StudentLoadReport.Failure failure : report.getFailures()) {
+            System.err.println("Could not load student " + failure);
+        }
+
+        List<Student> sorted = new ArrayList<>(students);
+        sorted.sort(Comparator.comparing(Student::getStudentID));
+        return sorted;
     }    
 
 
@@ -193,10 +1066,9 @@ public class FileDataSource implements IFileDataSource, IDataFileOperations {
         isStudentIdValid(studentId);        
 
         Student student = new Student();        
-        ObjectMapper objectMapper = ObjectMapperFactory.createObjectMapper();
 
         try {                        
-            student = objectMapper.readValue(this.initializeDataFile(studentId), Student.class);
+            student = readStudentFile(this.initializeDataFile(studentId));
         }
         catch (MismatchedInputException e) {
             String errMsg = "JSON structure mismatch in student:\n"
@@ -253,14 +1125,21 @@ public class FileDataSource implements IFileDataSource, IDataFileOperations {
             throw new IllegalArgumentException("Student cannot be null.");
         }
 
-        ObjectMapper objectMapper = ObjectMapperFactory.createObjectMapper();
-        objectMapper.enable(SerializationFeature.INDENT_OUTPUT);
-
+        String studentId = student.getStudentID();
         try {
-            objectMapper.writeValue(this.initializeDataFile(student.getStudentID()), student);
+            isStudentIdValid(studentId);
+            createStudentsFolderIfNotExists(Paths.get(studentsFolderPath));
+            StudentFileFormat format = AppConfig.getStudentFileFormat();
+            byte[] data = format.write(toFileForm(student));
+            writeStudentFile(studentId, format, data, () -> {
+                truncateJournal(studentId, student.getJournalSequence());
+                directory.update(StudentSummary.of(student, getLastModified(studentId)));
+            });
+            // Written right away, whatever the policy.
+            fileWriter.commit();
         }
         catch (JsonProcessingException e) {
-            String errMsg = "Invalid data content with student:\n" + student.getStudentID();    
+            String errMsg = "Invalid data content with student:\n" + studentId;    
 
             MyJavaFXUtils.displayAlertWithMoreInfo(
                 AlertType.ERROR,
@@ -276,7 +1155,7 @@ public class FileDataSource implements IFileDataSource, IDataFileOperations {
             return false;
         }
         catch (IOException e) {
-            String errMsg = "An I/O error occurred with student:\n" + student.getStudentID();    
+            String errMsg = "An I/O error occurred with student:\n" + studentId;    
 
             MyJavaFXUtils.displayAlertWithMoreInfo(
                 AlertType.ERROR,
@@ -307,14 +1186,26 @@ public class FileDataSource implements IFileDataSource, IDataFileOperations {
 
 
     /**
-     * Construct a file name for a student data file.
+     * Construct a file name for a student data file. The student's existing
+     * file is used whatever its format, the newest one if there are several.
+     * Otherwise the name is in the format used for saving.
      * 
      * @param studentId
      * @return
      */
     private String getStudentDataFileName(String studentId) {
         isStudentIdValid(studentId);   
-        return studentsFolderPath + File.separator + filePrefix + studentId + fileExtension;
+        Path file = null;
+        for (StudentFileFormat format : StudentFileFormat.values()) {
+            Path candidate = getStudentFile(studentId, format);
+            if (Files.exists(candidate)) {
+                file = file != null ? getNewerFile(file, candidate) : candidate;
+            }
+        }
+        if (file == null) {
+            file = getStudentFile(studentId, AppConfig.getStudentFileFormat());
+        }
+        return file.toString();
     }
 
     private void isStudentIdValid(String studentId) {
@@ -2,14 +2,20 @@ package fi.Sisu.datasource;
 
 import java.util.ArrayList;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 import fi.Sisu.model.Course;
 import fi.Sisu.model.SisuNode;
+import fi.Sisu.utils.BackgroundExecutor;
 
 /**
  * Interface for retrieving data from Sisu API.
  * Used by UI's viewmodels.
  * 
+ * The blocking methods must not be called on the JavaFX Application Thread,
+ * use the ...Async variants there. Their futures complete on a background
+ * thread, so results have to be moved back with Platform.runLater.
+ * 
  * @author Antti Hakkarainen
  */
 public interface IApiDataSource {
@@ -34,6 +40,17 @@ public interface IApiDataSource {
     public Optional<SisuNode> getStudyProgramme(String groupId);
 
 
+    /**
+     * Returns a module with its child modules and courses, but without the
+     * children of the child modules. The child modules are stubs (see 
+     * SisuNode.isStub), used for loading the tree one level at a time.
+     * 
+     * @param groupId String of the groupId of the module.
+     * @return Module object
+     */
+    public Optional<SisuNode> getModuleOneLevel(String groupId);
+
+
     /**
      * Retrieves all study programmes from Sisu.
      * 
@@ -48,5 +65,68 @@ public interface IApiDataSource {
      * @return ArrayList of Course objects.
      */
     public Optional<ArrayList<Course>> searchForCourses(String keyword);
-    
+
+
+    /**
+     * Asynchronous variant of getCourse.
+     * 
+     * @param groupId String of the groupId of the course.
+     * @return CompletableFuture<Optional<Course>>
+     */
+    public default CompletableFuture<Optional<Course>> getCourseAsync(String groupId) {
+        return CompletableFuture.supplyAsync(() -> getCourse(groupId), BackgroundExecutor.get());
+    }
+
+
+    /**
+     * Asynchronous variant of getStudyProgramme. Cancelling the returned
+     * future stops the loading as soon as possible.
+     * 
+     * @param groupId String of the groupId of the study programme.
+     * @param progressListener IProgressListener notified after every loaded
+     *                         module and course.
+     * @return CompletableFuture<Optional<SisuNode>>
+     */
+    public default CompletableFuture<Optional<SisuNode>> getStudyProgrammeAsync(
+        String groupId, 
+        IProgressListener progressListener) 
+        {
+        return CompletableFuture.supplyAsync(() -> getStudyProgramme(groupId), BackgroundExecutor.get());
+    }
+
+
+    /**
+     * Asynchronous variant of getModuleOneLevel.
+     * 
+     * @param groupId String of the groupId of the module.
+     * @return CompletableFuture<Optional<SisuNode>>
+     */
+    public default CompletableFuture<Optional<SisuNode>> getModuleOneLevelAsync(String groupId) {
+        return CompletableFuture.supplyAsync(() -> getModuleOneLevel(groupId), BackgroundExecutor.get());
+    }
+
+
+    /**
+     * Asynchronous variant of getAllStudyProgrammes.
+     * 
+     * @return CompletableFuture<Optional<ArrayList<SisuNode>>>
+     */
+    public default CompletableFuture<Optional<ArrayList<SisuNode>>> getAllStudyProgrammesAsync() {
+        return CompletableFuture.supplyAsync(() -> getAllStudyProgrammes(), BackgroundExecutor.get());
+    }
+
+
+    /**
+     * Asynchronous variant of searchForCourses. Completes with an empty 
+     * Optional if the keyword is invalid.
+     * 
+     * @param keyword String of the keyword.
+     * @return CompletableFuture<Optional<ArrayList<Course>>>
+     */
+    public default CompletableFuture<Optional<ArrayList<Course>>> searchForCoursesAsync(String keyword) {
+        return CompletableFuture.supplyAsync(() -> {
+            Optional<ArrayList<Course>> courses = searchForCourses(keyword);
+            return courses == null ? Optional.<ArrayList<Course>>empty() : courses;
+        }, BackgroundExecutor.get());
+    }
 }
@@ -19,10 +19,11 @@ public interface IDataFileOperations {
 
 
     /**
-     * Loads all students from JSON files.
+     * Loads all students from JSON files, in parallel. Files which can't be
+     * loaded are logged and left out, no dialogs are shown.
      * 
      * @param listOfFiles List of files to be loaded.
-     * @return List<Student> of all students found
+     * @return List<Student> of all students found, ordered by student ID.
      */
     public List<Student> getStudentsFromFiles(Optional<File[]> listOfFilesOptional);
 
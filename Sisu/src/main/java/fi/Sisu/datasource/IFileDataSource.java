@@ -2,8 +2,13 @@ package fi.Sisu.datasource;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
+import fi.Sisu.model.SisuNode;
 import fi.Sisu.model.Student;
+import fi.Sisu.model.StudentChange;
+import fi.Sisu.model.StudentSummary;
 
 /**
  * Interface for saving and loading data from disk.
@@ -22,7 +27,29 @@ public interface IFileDataSource {
 
 
     /**
-     * Returns a student object with the given student ID.
+     * Returns the summaries of all students for listing them. Read from the
+     * student directory index, the student files are not loaded.
+     * 
+     * @return List<StudentSummary> ordered by student ID.
+     */
+    public List<StudentSummary> getStudentSummaries();
+
+
+    /**
+     * Loads all students in parallel. Every student is passed to the
+     * listener as soon as it has been loaded, from a background thread.
+     * Files which can't be loaded are collected to the report, no dialogs
+     * are shown.
+     * 
+     * @param listener Consumer<Student> called with every loaded student, may be null.
+     * @return CompletableFuture<StudentLoadReport> completed when every file has been tried.
+     */
+    public CompletableFuture<StudentLoadReport> loadAllStudents(Consumer<Student> listener);
+
+
+    /**
+     * Returns a student object with the given student ID. The same object
+     * is returned on every call until the student is invalidated.
      * 
      * @param studentId The student ID of the student to be returned.
      * @return Student object with the given student ID.
@@ -43,7 +70,9 @@ public interface IFileDataSource {
 
 
     /**
-     * Saves the changes made to a student object to a JSON file.
+     * Saves the changes made to a student object to a JSON file. The file is
+     * written in the background, saves made in quick succession are written
+     * only once.
      * 
      * @param student The Student object with updated information.
      * @throws IOException If there is an issue writing to the JSON file.
@@ -51,6 +80,19 @@ public interface IFileDataSource {
     public Boolean saveStudent(Student student);
 
 
+    /**
+     * Makes a change to a student's study programme and appends it to the
+     * student's change journal, so only the change is written instead of
+     * the whole student file. The journal is compacted into the student file
+     * when it grows large, and when the data source is flushed.
+     * 
+     * @param student The Student object to change.
+     * @param change StudentChange to make.
+     * @return Boolean was the change made and stored.
+     */
+    public Boolean applyStudentChange(Student student, StudentChange change);
+
+
     /**
      * Adds student to the json file.
      * 
@@ -77,4 +119,49 @@ public interface IFileDataSource {
      * @return Boolean does student exist?
      */
     public Boolean studentExists(String studentId);
+
+
+    /**
+     * Drops a student from the in-memory cache, so the next getStudent reads
+     * it from disk. A pending save of the student is written first.
+     * 
+     * @param studentId ID of the student.
+     */
+    public void invalidateStudent(String studentId);
+
+
+    /**
+     * Drops all students from the in-memory cache. Pending saves are
+     * written first.
+     */
+    public void invalidateAllStudents();
+
+
+    /**
+     * Writes all pending saves to disk and waits for them to complete.
+     */
+    public void flush();
+
+
+    /**
+     * Returns a copy of the stored curriculum tree of a study programme.
+     * Stored curriculums expire, so they are loaded from Sisu again.
+     * 
+     * @param groupId GroupId of the study programme.
+     * @return Optional<SisuNode> empty if the curriculum is not stored or
+     *         has expired.
+     */
+    public Optional<SisuNode> getCurriculum(String groupId);
+
+
+    /**
+     * Stores the curriculum of a study programme loaded from Sisu, so the
+     * students of the programme can save only their own changes to it. A
+     * changed curriculum is stored as a new version, students saved against
+     * the earlier versions keep them.
+     * 
+     * @param programme SisuNode study programme loaded from Sisu.
+     * @return boolean is the curriculum stored.
+     */
+    public boolean storeCurriculum(SisuNode programme);
 }
@@ -0,0 +1,18 @@
+package fi.Sisu.datasource;
+
+/**
+ * Listener for the progress of long running loads, like loading a full
+ * degree programme tree from Sisu. Called from background threads, so
+ * implementations must move UI updates to the JavaFX Application Thread.
+ */
+@FunctionalInterface
+public interface IProgressListener {
+
+    /**
+     * Called every time an item has been loaded.
+     *
+     * @param loaded int number of items loaded so far
+     * @param discovered int number of items known so far, grows while loading
+     */
+    public void onProgress(int loaded, int discovered);
+}
@@ -0,0 +1,21 @@
+package fi.Sisu.datasource;
+
+/**
+ * Receives module, course and programme list responses, whether they came
+ * from the network, the cache or a snapshot. Used to collect the responses
+ * of a crawl into a snapshot (only the requests of the crawling
+ * ApiDataSource are recorded) and to record test fixtures.
+ * Called from background threads.
+ */
+@FunctionalInterface
+public interface IResponseRecorder {
+
+    /**
+     * Called with every response.
+     *
+     * @param type String request type (course-units/modules/module-search)
+     * @param groupId String groupId, or the curriculum period of a search
+     * @param json String response body
+     */
+    public void onResponse(String type, String groupId, String json);
+}
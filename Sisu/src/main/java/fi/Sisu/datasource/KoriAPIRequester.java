@@ -1,34 +1,95 @@
 package fi.Sisu.datasource;
 
-import java.io.BufferedReader;
+import java.io.FilterInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.ProtocolException;
-import java.net.URL;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+
+import fi.Sisu.app.AppConfig;
+import fi.Sisu.app.Constants;
 import fi.Sisu.utils.MyJavaFXUtils;
+import fi.Sisu.utils.ObjectMapperFactory;
 import javafx.scene.control.Alert.AlertType;
 
 /**
  * A static class used to make requests to Kori API about modules and courses.
  * Sends the raw JSON data to caller as a String. 
  * 
+ * All requests share one HttpClient, so connections to Kori are kept alive
+ * and multiplexed over HTTP/2 instead of doing a new TLS handshake for every
+ * module and course. The number of requests in flight at the same time is
+ * limited, see AppConfig for the timeouts and the limit.
+ * 
+ * Module and course responses are cached to disk (see KoriResponseCache), and
+ * only revalidated with the server after the cached copy gets old.
+ * 
+ * Courses of a module can be requested in batches with several group IDs in
+ * one request, see requestCourseInfos.
+ * 
+ * If there is a snapshot file (see KoriSnapshot), its responses are used
+ * when the server can't be reached. In offline mode only the snapshot is
+ * used and the network is never contacted. Course search is not available
+ * offline.
+ * 
+ * With sisu.api.recordFolder set, every response is also saved as a
+ * fixture (see KoriFixtures), which KoriStandInServer can serve later from a
+ * local address set with sisu.api.baseUrl.
+ * 
  * @author Kilian Kugge
  */
 public class KoriAPIRequester {
     
-    // URL template for Kori API requests. The first %s is replaced with the 
-    // request type (course-units/modules) and the second %s is replaced with
-    // the group ID of the requested course/module.
+    // URL template for Kori API requests. The first %s is replaced with the
+    // base URL (see AppConfig.getApiBaseUrl), the second %s with the 
+    // request type (course-units/modules) and the third %s with the group ID
+    // of the requested course/module.
     private static final String KORI_API_URL_TEMPLATE = 
-        "https://sis-tuni.funidata.fi/kori/api/%s/by-group-id?groupId=%s&universityId=tuni-university-root-id";
-    private static final String API_COURSE_STRING = "course-units";
-    private static final String API_MODULE_STRING = "modules";
+        "%s/%s/by-group-id?groupId=%s&universityId=tuni-university-root-id";
+    // Separator used to ask for several group IDs in one request.
+    private static final String GROUP_ID_SEPARATOR = "&groupId=";
+    // Request types, also used as the recorded response types.
+    static final String API_COURSE_STRING = "course-units";
+    static final String API_MODULE_STRING = "modules";
+    static final String API_MODULE_SEARCH_STRING = "module-search";
+    private static final String DEGREE_PROGRAMMES_URL_TEMPLATE = 
+        "%s/module-search?curriculumPeriodId=%s&universityId=tuni-university-root-id&moduleType=DegreeProgramme&limit=1000";
     private static final String SEARCH_REGEX = "[a-zA-Z0-9]{3,}";
 
+    // Created on first request, so the configuration can still be changed
+    // with system properties before anything is loaded.
+    private static volatile HttpClient httpClient;
+    private static volatile Semaphore inFlightRequests;
+    private static volatile KoriResponseCache responseCache;
+    private static volatile Optional<KoriSnapshot> snapshot;
+    private static volatile Optional<KoriFixtures> fixtureRecorder;
+
+    // Time of the latest connection error alert, used to avoid alert floods.
+    private static final long CONNECTION_ALERT_INTERVAL_MS = 10_000;
+    private static final AtomicLong lastConnectionAlert = new AtomicLong();
+
+    private static final ObjectMapper mapper = ObjectMapperFactory.getObjectMapper();
+
     private KoriAPIRequester () {
         // Private constructor to avoid accidental instantiation of this class.
     }
@@ -40,7 +101,7 @@ public class KoriAPIRequester {
      * @return
      */
     public static final String requestCourseInfo (String groupId) {
-        return makeAPIRequest(getCourseInfoURL(groupId));
+        return makeCachedAPIRequest(API_COURSE_STRING, groupId, getCourseInfoURL(groupId));
     }
 
 
@@ -52,7 +113,84 @@ public class KoriAPIRequester {
      * @return String containing the URL to the Kori API course info request.
      */
     public static final String getCourseInfoURL (String groupId) {
-        return String.format(KORI_API_URL_TEMPLATE, API_COURSE_STRING, groupId);
+        return String.format(KORI_API_URL_TEMPLATE, AppConfig.getApiBaseUrl(), API_COURSE_STRING, groupId);
+    }
+
+
+    /**
+     * Requests info of several courses at once. Fresh responses are taken
+     * from the cache, the rest are requested with one request for every
+     * chunk of group IDs. Every course of a batch response is cached as if it
+     * was requested alone.
+     * 
+     * Courses missing from the returned map could not be fetched with a
+     * batch request, and should be requested one by one with 
+     * requestCourseInfo.
+     * 
+     * @param groupIds Kori API Group IDs of the courses requested.
+     * @return Map<String, String> JSON of every course found, by group ID.
+     */
+    public static final Map<String, String> requestCourseInfos (Collection<String> groupIds) {
+        Map<String, String> results = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        Optional<KoriResponseCache> cache = getResponseCache();
+
+        if (AppConfig.isOffline()) {
+            for (String groupId : groupIds) {
+                getFromSnapshot(API_COURSE_STRING, groupId).ifPresent(json -> results.put(groupId, json));
+            }
+            return results;
+        }
+
+        for (String groupId : groupIds) {
+            Optional<KoriResponseCache.CachedResponse> cached = cache
+                .flatMap(responseCache -> responseCache.get(API_COURSE_STRING, groupId))
+                .filter(response -> response.isFresh(AppConfig.getApiCacheTtl()));
+            if (cached.isPresent()) {
+                results.put(groupId, record(API_COURSE_STRING, groupId, cached.get().getBody()));
+            }
+            else if (!missing.contains(groupId)) {
+                missing.add(groupId);
+            }
+        }
+
+        // With only one course missing a single request is just as good.
+        int batchSize = AppConfig.getApiCourseBatchSize();
+        if (missing.size() < 2 || batchSize < 2) {
+            return results;
+        }
+
+        for (int start = 0; start < missing.size(); start += batchSize) {
+            List<String> chunk = missing.subList(start, Math.min(start + batchSize, missing.size()));
+            String json = makeAPIRequest(getCourseInfosURL(chunk));
+            if (json == null) {
+                continue;
+            }
+
+            Map<String, String> courses = splitByGroupId(json);
+            for (String groupId : chunk) {
+                String course = courses.get(groupId);
+                if (course != null) {
+                    results.put(groupId, record(API_COURSE_STRING, groupId, course));
+                    cache.ifPresent(responseCache -> 
+                        responseCache.put(API_COURSE_STRING, groupId, course, null, null));
+                }
+            }
+        }
+
+        return results;
+    }
+
+
+    /**
+     * Formats the URL to the Kori API request for several courses at once.
+     * 
+     * @param groupIds Kori API Group IDs of the courses requested.
+     * @return String containing the URL to the Kori API course info request.
+     */
+    public static final String getCourseInfosURL (Collection<String> groupIds) {
+        return String.format(KORI_API_URL_TEMPLATE, AppConfig.getApiBaseUrl(), API_COURSE_STRING, 
+            String.join(GROUP_ID_SEPARATOR, groupIds));
     }
 
 
@@ -65,13 +203,58 @@ public class KoriAPIRequester {
      * @return String containing the full JSON response from the Kori API. 
      */
     public static final String requestCoursesWithKeyword (String keyword) {
+        if (AppConfig.isOffline()) {
+            System.err.println("Course search is not available offline.");
+            return null;
+        }
+        if (!isValidKeyword(keyword)) {
+            return null;
+        }
+
+        return makeAPIRequest(getCourseSearchURL(keyword));
+    }
+
+
+    /**
+     * Streaming version of requestCoursesWithKeyword. Search responses can be
+     * several megabytes, so they should be parsed while they are downloaded.
+     * The caller must close the stream, the request counts against the 
+     * concurrent request limit until then.
+     * @param keyword String keyword to search for.
+     * @return InputStream of the JSON response, null if the request failed.
+     */
+    public static final InputStream requestCoursesWithKeywordAsStream (String keyword) {
+        if (AppConfig.isOffline()) {
+            System.err.println("Course search is not available offline.");
+            return null;
+        }
+        if (!isValidKeyword(keyword)) {
+            return null;
+        }
+
+        String urlString = getCourseSearchURL(keyword);
+        try {
+            return sendStreamingRequest(urlString);
+        }
+        catch (IOException | InterruptedException | IllegalArgumentException | SecurityException e) {
+            handleRequestFailure(urlString, e);
+            return null;
+        }
+    }
+
+
+    private static boolean isValidKeyword (String keyword) {
         Pattern pattern = Pattern.compile(SEARCH_REGEX);
         if (!pattern.matcher(keyword).matches()) {
             System.err.println("Invalid keyword: " + keyword);
-            return null;
+            return false;
         }
+        return true;
+    }
+
 
-        return makeAPIRequest("https://sis-tuni.funidata.fi/kori/api/course-unit-search?fullTextQuery=" + keyword + "&limit=10000&orgRootId=tuni-university-root-id&start=0&uiLang=fi&universityOrgId=tuni-university-root-id&validity=ONGOING_AND_FUTURE");
+    private static String getCourseSearchURL (String keyword) {
+        return AppConfig.getApiBaseUrl() + "/course-unit-search?fullTextQuery=" + keyword + "&limit=10000&orgRootId=tuni-university-root-id&start=0&uiLang=fi&universityOrgId=tuni-university-root-id&validity=ONGOING_AND_FUTURE";
     }
 
 
@@ -81,7 +264,7 @@ public class KoriAPIRequester {
      * @return
      */
     public static final String requestModuleInfo (String groupId) {
-        return makeAPIRequest(getModuleInfoURL(groupId));
+        return makeCachedAPIRequest(API_MODULE_STRING, groupId, getModuleInfoURL(groupId));
     }
 
 
@@ -93,7 +276,7 @@ public class KoriAPIRequester {
      * @return String containing the URL to the Kori API module info request.
      */
     public static final String getModuleInfoURL (String groupId) {
-        return String.format(KORI_API_URL_TEMPLATE, API_MODULE_STRING, groupId);
+        return String.format(KORI_API_URL_TEMPLATE, AppConfig.getApiBaseUrl(), API_MODULE_STRING, groupId);
     }
     
 
@@ -102,7 +285,165 @@ public class KoriAPIRequester {
      * @return String containing the full JSON response from the Kori API.
      */
     public static final String requestDegreeProgrammes () {
-        return makeAPIRequest("https://sis-tuni.funidata.fi/kori/api/module-search?curriculumPeriodId=uta-lvv-2021&universityId=tuni-university-root-id&moduleType=DegreeProgramme&limit=1000");
+        String curriculumPeriod = Constants.CURRICULUM_PERIOD_ID;
+        return makeCachedAPIRequest(
+            API_MODULE_SEARCH_STRING, 
+            curriculumPeriod, 
+            String.format(DEGREE_PROGRAMMES_URL_TEMPLATE, AppConfig.getApiBaseUrl(), curriculumPeriod));
+    }
+
+
+    /**
+     * Passes a response to the fixture folder, if it is in use.
+     * 
+     * @return String the response, for chaining.
+     */
+    private static String record (String type, String groupId, String json) {
+        if (json == null) {
+            return null;
+        }
+        getFixtureRecorder().ifPresent(fixtures -> fixtures.onResponse(type, groupId, json));
+        return json;
+    }
+
+
+    /**
+     * Returns the fixture folder responses are recorded to, opens it on
+     * first call.
+     * 
+     * @return Optional<KoriFixtures>, empty if record mode is off.
+     */
+    private static Optional<KoriFixtures> getFixtureRecorder () {
+        if (fixtureRecorder == null) {
+            synchronized (KoriAPIRequester.class) {
+                if (fixtureRecorder == null) {
+                    fixtureRecorder = AppConfig.getApiRecordFolder().map(KoriFixtures::new);
+                }
+            }
+        }
+        return fixtureRecorder;
+    }
+
+
+    /**
+     * Splits a Kori response with several courses into separate responses by
+     * group ID. Every course keeps all of its versions, in the same order and
+     * format as a response to a request for that course alone.
+     * 
+     * @param json String containing the full JSON response from the Kori API.
+     * @return Map<String, String> JSON array of every course by group ID, 
+     *         empty if the response could not be read.
+     */
+    private static Map<String, String> splitByGroupId (String json) {
+        Map<String, ArrayNode> versions = new LinkedHashMap<>();
+        Map<String, String> results = new HashMap<>();
+        try {
+            JsonNode root = mapper.readTree(json);
+            if (!root.isArray()) {
+                return results;
+            }
+            for (JsonNode course : root) {
+                String groupId = course.path("groupId").asText(null);
+                if (groupId != null) {
+                    versions.computeIfAbsent(groupId, id -> mapper.createArrayNode()).add(course);
+                }
+            }
+            for (Map.Entry<String, ArrayNode> entry : versions.entrySet()) {
+                results.put(entry.getKey(), mapper.writeValueAsString(entry.getValue()));
+            }
+        }
+        catch (IOException e) {
+            System.err.println("Could not read batch response: " + e.getMessage());
+            results.clear();
+        }
+        return results;
+    }
+
+
+    /**
+     * Returns the shared HttpClient, creates it on first call. The client
+     * prefers HTTP/2 and falls back to HTTP/1.1 with keep-alive if the server
+     * does not support it.
+     * 
+     * @return HttpClient shared by all requests.
+     */
+    private static HttpClient getHttpClient() {
+        if (httpClient == null) {
+            synchronized (KoriAPIRequester.class) {
+                if (httpClient == null) {
+                    inFlightRequests = new Semaphore(AppConfig.getApiMaxConcurrentRequests(), true);
+                    httpClient = HttpClient.newBuilder()
+                        .version(HttpClient.Version.HTTP_2)
+                        .connectTimeout(AppConfig.getApiConnectTimeout())
+                        .followRedirects(HttpClient.Redirect.NORMAL)
+                        .build();
+                }
+            }
+        }
+        return httpClient;
+    }
+
+
+    /**
+     * Returns the shared response cache, creates it on first call.
+     * 
+     * @return Optional<KoriResponseCache>, empty if caching is disabled.
+     */
+    private static Optional<KoriResponseCache> getResponseCache() {
+        if (!AppConfig.isApiCacheEnabled()) {
+            return Optional.empty();
+        }
+        if (responseCache == null) {
+            synchronized (KoriAPIRequester.class) {
+                if (responseCache == null) {
+                    responseCache = new KoriResponseCache(
+                        AppConfig.getApiCacheFolder(), AppConfig.getApiCacheMaxBytes());
+                }
+            }
+        }
+        return Optional.of(responseCache);
+    }
+
+
+    /**
+     * Returns the snapshot, opens it on first call.
+     * 
+     * @return Optional<KoriSnapshot>, empty if there is no snapshot file.
+     */
+    private static Optional<KoriSnapshot> getSnapshot() {
+        if (snapshot == null) {
+            synchronized (KoriAPIRequester.class) {
+                if (snapshot == null) {
+                    snapshot = openSnapshot(AppConfig.getSnapshotFile());
+                }
+            }
+        }
+        return snapshot;
+    }
+
+
+    private static Optional<KoriSnapshot> openSnapshot(Path file) {
+        if (!Files.exists(file)) {
+            if (AppConfig.isOffline()) {
+                System.err.println("Offline mode, but there is no snapshot file: " + file);
+            }
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(KoriSnapshot.open(file));
+        }
+        catch (IOException e) {
+            System.err.println("Could not open snapshot " + file + ": " + e.getMessage());
+            e.printStackTrace();
+            return Optional.empty();
+        }
+    }
+
+
+    private static Optional<String> getFromSnapshot (String type, String groupId) {
+        return getSnapshot()
+            .flatMap(responses -> responses.get(type, groupId))
+            .map(json -> record(type, groupId, json));
     }
 
 
@@ -110,80 +451,248 @@ public class KoriAPIRequester {
      * Makes a request to the Kori API with the given URL and returns the full
      * JSON response as a string.
      * 
-     * EXAMPLE METHHOD PULLED FROM THE INTERNET, detects used encoding from the
-     * Content-Type header and uses it to read the response. This avoids problems
-     * with åäö and other special characters.
-     * 
      * @param urlString URL for the request.
      * @return  String containing the full JSON response from the Kori API.
      */
-    private static final String makeAPIRequest (String urlString)
-    {
+    private static final String makeAPIRequest (String urlString) {
         try {
-            URL url = new URL(urlString);
-            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestMethod("GET");
+            HttpResponse<String> response = sendRequest(urlString, Optional.empty());
 
             // Check the response code
-            int responseCode = connection.getResponseCode();
+            if (response.statusCode() == HttpURLConnection.HTTP_OK) {
+                return response.body();
+            }
 
-            if (responseCode == HttpURLConnection.HTTP_OK) {
-                // Get the Content-Type header value
-                String contentType = connection.getHeaderField("Content-Type");
+            System.err.println("GET request failed. Response code: " + response.statusCode());
+            return null;
+        }
+        catch (IOException | InterruptedException | IllegalArgumentException | SecurityException e) {
+            handleRequestFailure(urlString, e);
+            return null;
+        }
+    }
 
-                // Extract the encoding from the Content-Type header, if available
-                String encoding = "UTF-8"; // Default to UTF-8
-                String[] contentTypeParts = contentType.split(";");
 
-                for (String part : contentTypeParts) {
-                    part = part.trim();
-                    if (part.toLowerCase().startsWith("charset=")) {
-                        encoding = part.substring("charset=".length());
-                        break;
-                    }
-                }
+    /**
+     * Makes a request to the Kori API through the response cache. A fresh 
+     * cached response is returned without contacting the server. An old one is
+     * revalidated with If-None-Match/If-Modified-Since, and still used if the
+     * server can not be reached.
+     * 
+     * @param type String request type (course-units/modules)
+     * @param groupId String groupId of the course or module
+     * @param urlString URL for the request.
+     * @return String containing the full JSON response from the Kori API.
+     */
+    private static final String makeCachedAPIRequest (String type, String groupId, String urlString) {
+        if (AppConfig.isOffline()) {
+            return getFromSnapshot(type, groupId).orElse(null);
+        }
+        return record(type, groupId, makeCachedAPIRequestOnline(type, groupId, urlString));
+    }
 
-                // Read the response using the detected encoding
-                BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream(), encoding));
-                String inputLine;
-                StringBuilder content = new StringBuilder();
 
-                while ((inputLine = in.readLine()) != null) {
-                    content.append(inputLine);
+    private static final String makeCachedAPIRequestOnline (String type, String groupId, String urlString) {
+        Optional<KoriResponseCache> cache = getResponseCache();
+        if (cache.isEmpty()) {
+            try {
+                HttpResponse<String> response = sendRequest(urlString, Optional.empty());
+                if (response.statusCode() == HttpURLConnection.HTTP_OK) {
+                    return response.body();
                 }
-                in.close();
+                System.err.println("GET request failed. Response code: " + response.statusCode());
+                return null;
+            }
+            catch (IOException | InterruptedException | IllegalArgumentException | SecurityException e) {
+                return handleRequestFailure(type, groupId, urlString, e);
+            }
+        }
+
+        Optional<KoriResponseCache.CachedResponse> cached = cache.get().get(type, groupId);
+        if (cached.isPresent() && cached.get().isFresh(AppConfig.getApiCacheTtl())) {
+            return cached.get().getBody();
+        }
 
-                return content.toString();
+        try {
+            HttpResponse<String> response = sendRequest(urlString, cached);
+
+            if (response.statusCode() == HttpURLConnection.HTTP_NOT_MODIFIED && cached.isPresent()) {
+                cache.get().markRevalidated(type, groupId);
+                return cached.get().getBody();
             }
-            else {
-                System.err.println("GET request failed. Response code: " + responseCode);
-                return null;
+
+            if (response.statusCode() == HttpURLConnection.HTTP_OK) {
+                cache.get().put(type, groupId, response.body(),
+                    response.headers().firstValue("ETag").orElse(null),
+                    response.headers().firstValue("Last-Modified").orElse(null));
+                return response.body();
             }
-        } 
-        catch (ProtocolException e) {
-            System.err.println("ProtocolException at KoriAPIRequester");
-            e.printStackTrace();
+
+            System.err.println("GET request failed. Response code: " + response.statusCode());
             return null;
-        }   
-        catch (SecurityException e) {
-            System.err.println("SecurityException at KoriAPIRequester");
-            e.printStackTrace();
+        }
+        catch (IOException | InterruptedException | IllegalArgumentException | SecurityException e) {
+            // An old response is better than nothing when the server is unreachable.
+            if (cached.isPresent()) {
+                System.err.println("Using cached response, request failed: " + urlString);
+                if (e instanceof InterruptedException) {
+                    Thread.currentThread().interrupt();
+                }
+                return cached.get().getBody();
+            }
+            return handleRequestFailure(type, groupId, urlString, e);
+        }
+    }
+
+
+    /**
+     * Handles a failed module, course or programme list request: the
+     * response is taken from the snapshot if it has one, otherwise the
+     * failure is reported.
+     * 
+     * @return String response from the snapshot, null if there is none.
+     */
+    private static String handleRequestFailure (String type, String groupId, String urlString, Exception e) {
+        if (!(e instanceof InterruptedException)) {
+            Optional<KoriSnapshot> responses = getSnapshot();
+            Optional<String> json = responses.flatMap(snap -> snap.get(type, groupId));
+            if (json.isPresent()) {
+                System.err.println("Using snapshot response, request failed: " + urlString);
+                return json.get();
+            }
+        }
+        handleRequestFailure(urlString, e);
+        return null;
+    }
+
+
+    /**
+     * Sends a GET request with the shared client. If a cached response is
+     * given, the request is made conditional with its ETag and Last-Modified.
+     * The body is decoded with the charset from the Content-Type header (UTF-8
+     * if there is none). This avoids problems with åäö and other special
+     * characters.
+     * 
+     * @param urlString URL for the request.
+     * @param cached Optional<CachedResponse> previous response for this URL.
+     * @return HttpResponse<String> response from the server.
+     * @throws IOException if the request fails.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    private static HttpResponse<String> sendRequest (
+        String urlString, 
+        Optional<KoriResponseCache.CachedResponse> cached
+        ) throws IOException, InterruptedException {
+        HttpClient client = getHttpClient();
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(urlString))
+            .timeout(AppConfig.getApiReadTimeout())
+            .header("Accept", "application/json")
+            .GET();
+
+        cached.ifPresent(response -> {
+            response.getEtag().ifPresent(etag -> builder.header("If-None-Match", etag));
+            response.getLastModified().ifPresent(date -> builder.header("If-Modified-Since", date));
+        });
+
+        inFlightRequests.acquire();
+        try {
+            return client.send(builder.build(), HttpResponse.BodyHandlers.ofString());
+        }
+        finally {
+            inFlightRequests.release();
+        }
+    }
+
+
+    /**
+     * Sends a GET request and returns the body as a stream as soon as the 
+     * headers have arrived. The request holds its place in the concurrent
+     * request limit until the stream is closed.
+     * 
+     * @param urlString URL for the request.
+     * @return InputStream of the response body, null if the status was not OK.
+     * @throws IOException if the request fails.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    private static InputStream sendStreamingRequest (String urlString) 
+        throws IOException, InterruptedException {
+        HttpClient client = getHttpClient();
+        HttpRequest request = HttpRequest.newBuilder(URI.create(urlString))
+            .timeout(AppConfig.getApiReadTimeout())
+            .header("Accept", "application/json")
+            .GET()
+            .build();
+
+        inFlightRequests.acquire();
+        HttpResponse<InputStream> response;
+        try {
+            response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        }
+        catch (IOException | InterruptedException | RuntimeException e) {
+            inFlightRequests.release();
+            throw e;
+        }
+
+        AtomicBoolean released = new AtomicBoolean(false);
+        InputStream body = new FilterInputStream(response.body()) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                }
+                finally {
+                    if (released.compareAndSet(false, true)) {
+                        inFlightRequests.release();
+                    }
+                }
+            }
+        };
+
+        if (response.statusCode() != HttpURLConnection.HTTP_OK) {
+            System.err.println("GET request failed. Response code: " + response.statusCode());
+            body.close();
             return null;
-        }     
-        catch (MalformedURLException e) {
+        }
+        return body;
+    }
+
+
+    /**
+     * Reports a failed request. Connection problems are shown to the user,
+     * everything else is only logged.
+     * 
+     * @param urlString URL of the failed request.
+     * @param e Exception that caused the failure.
+     */
+    private static void handleRequestFailure (String urlString, Exception e) {
+        if (e instanceof InterruptedException) {
+            System.err.println("Request was interrupted at KoriAPIRequester: " + urlString);
+            Thread.currentThread().interrupt();
+        }
+        else if (e instanceof IllegalArgumentException) {
             System.err.println("Malformed URL provided to makeAPIRequest: " + urlString);
             e.printStackTrace();
-            return null;
-        } catch (IOException e) {
-            MyJavaFXUtils.displayAlert(
-                AlertType.ERROR, 
-                "Error",
-                "There was a problem connecting to the server.",
-                "There might be a problem with internet connection,\n" +
-                "or the server might be down. Please try again later.");
+        }
+        else if (e instanceof SecurityException) {
+            System.err.println("SecurityException at KoriAPIRequester");
+            e.printStackTrace();
+        }
+        else {
+            // Requests run in parallel on background threads, so show only
+            // one alert for a burst of failures, and show it on the UI thread.
+            long now = System.currentTimeMillis();
+            long previous = lastConnectionAlert.get();
+            if (now - previous > CONNECTION_ALERT_INTERVAL_MS 
+                && lastConnectionAlert.compareAndSet(previous, now)) {
+                MyJavaFXUtils.runOnFxThread(() -> MyJavaFXUtils.displayAlert(
+                    AlertType.ERROR, 
+                    "Error",
+                    "There was a problem connecting to the server.",
+                    "There might be a problem with internet connection,\n" +
+                    "or the server might be down. Please try again later."));
+            }
             System.err.println("IOException at KoriAPIRequester");
             e.printStackTrace();
-            return null;
         }
     }
 }
@@ -0,0 +1,89 @@
+package fi.Sisu.datasource;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+
+/**
+ * Folder of recorded Kori API responses, one file for every module, course
+ * and programme list as [folder]/[type]/[groupId].json. KoriAPIRequester
+ * records to it in record mode (see AppConfig.getApiRecordFolder) and
+ * KoriStandInServer serves the recorded responses.
+ *
+ * The files hold the responses exactly as a request for one group ID would
+ * return them, so they can also be edited or written by hand for tests.
+ */
+public class KoriFixtures implements IResponseRecorder {
+
+    private static final String FILE_EXTENSION = ".json";
+
+    private final Path folder;
+
+
+    /**
+     * Constructor. The folder is created when the first response is saved.
+     *
+     * @param folder Path of the fixture folder.
+     */
+    public KoriFixtures(Path folder) {
+        this.folder = folder;
+    }
+
+
+    /**
+     * Saves a response, replacing an earlier one with the same key.
+     */
+    @Override
+    public void onResponse(String type, String groupId, String json) {
+        Path file = getFile(type, groupId);
+        try {
+            Files.createDirectories(file.getParent());
+            Files.writeString(file, json, StandardCharsets.UTF_8);
+        }
+        catch (IOException e) {
+            System.err.println("Could not record response " + type + "/" + groupId + ": " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+
+    /**
+     * Returns a recorded response.
+     *
+     * @param type String request type (course-units/modules/module-search)
+     * @param groupId String groupId, or the curriculum period of a search.
+     * @return Optional<String> response body, empty if it is not recorded.
+     */
+    public Optional<String> get(String type, String groupId) {
+        Path file = getFile(type, groupId);
+        if (!Files.exists(file)) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(Files.readString(file, StandardCharsets.UTF_8));
+        }
+        catch (IOException e) {
+            System.err.println("Could not read fixture " + file + ": " + e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+
+    /**
+     * Builds the file name of a response. Anything but letters, numbers,
+     * dots and dashes is replaced, so a key can't point outside the folder.
+     */
+    private Path getFile(String type, String groupId) {
+        return folder
+            .resolve(sanitize(type))
+            .resolve(sanitize(groupId) + FILE_EXTENSION);
+    }
+
+
+    private static String sanitize(String name) {
+        String sanitized = name.replaceAll("[^a-zA-Z0-9._-]", "_");
+        return sanitized.startsWith(".") ? "_" + sanitized : sanitized;
+    }
+}
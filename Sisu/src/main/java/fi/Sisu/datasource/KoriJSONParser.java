@@ -1,24 +1,60 @@
 package fi.Sisu.datasource;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.stream.Collectors;
-import java.util.stream.StreamSupport;
+import java.util.function.Function;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import fi.Sisu.model.Course;
 import fi.Sisu.model.SisuNode;
+import fi.Sisu.utils.ObjectMapperFactory;
+import fi.Sisu.utils.StringCanonicalizer;
 
 /**
  * Class that takes in Kori API JSON data as strings and parses it into the
  * correct classes.
  * 
+ * The JSON is read with a streaming parser, which picks up only the fields
+ * Course and SisuNode need and skips everything else without building a tree
+ * of it. Only the "rule" node of a module, which holds the child modules and
+ * courses, is read as a tree. Large responses like course search results can
+ * be parsed straight from an InputStream.
+ * 
  * @author Kilian Kugge
  */
 public class KoriJSONParser {
 
+    private static final ObjectMapper mapper = ObjectMapperFactory.getObjectMapper();
+
+    // Shares the ids, names and descriptions repeated across responses.
+    private static final StringCanonicalizer strings = StringCanonicalizer.get();
+
+    /**
+     * The fields of a Kori course, module or search result object used by
+     * this parser. Anything not needed is skipped while reading.
+     */
+    private static class KoriObject {
+        String type;
+        String code;
+        String groupId;
+        String gradeScaleId;
+        String name;
+        String content;
+        String outcomes;
+        String prerequisites;
+        String contentDescription;
+        String learningOutcomes;
+        int creditsMin;
+        int creditsMax;
+        int targetCreditsMin;
+        JsonNode rule;
+    }
+
     public KoriJSONParser () {
         
     }
@@ -32,24 +68,16 @@ public class KoriJSONParser {
      * @return ArrayList of DegreeProgramme objects.
      */
     public ArrayList<SisuNode> parseAllStudyProgrammes(String json) {
-        
-        JsonNode root = getJsonRoot(json);
-        if (root == null){ 
+        if (json == null) {
             return null;
         }
-
-        ArrayList<SisuNode> studyProgrammes = new ArrayList<SisuNode>();
-
-        for (JsonNode dp : root.get("searchResults")) {
-            SisuNode sisuNode = new SisuNode(); 
-            sisuNode.setName(dp.get("name").asText());
-            sisuNode.setAbbreviation(dp.get("code").asText());
-            sisuNode.setGroupId(dp.get("groupId").asText());
-            sisuNode.setTargetCredits(dp.path("credits").get("min").asInt());
-
-            studyProgrammes.add(sisuNode);
+        try (JsonParser parser = mapper.getFactory().createParser(json)) {
+            return readSearchResults(parser, this::createStudyProgramme);
+        }
+        catch (IOException e) {
+            System.err.println(e);
+            return null;
         }
-        return studyProgrammes;
     }
 
 
@@ -60,24 +88,54 @@ public class KoriJSONParser {
      * @return Course object.
      */
     public Course parseCourse(String json) {
-        
-        JsonNode root = getJsonRoot(json);
+        if (json == null) {
+            return null;
+        }
+        try (JsonParser parser = mapper.getFactory().createParser(json)) {
+            return parseCourse(parser);
+        }
+        catch (IOException e) {
+            System.err.println(e);
+            return null;
+        }
+    }
+
+
+    /**
+     * Parses a Kori API course response into a Course object.
+     * 
+     * @param in InputStream of the JSON, closed after reading.
+     * @return Course object.
+     */
+    public Course parseCourse(InputStream in) {
+        try (JsonParser parser = mapper.getFactory().createParser(in)) {
+            return parseCourse(parser);
+        }
+        catch (IOException e) {
+            System.err.println(e);
+            return null;
+        }
+    }
+
+
+    private Course parseCourse(JsonParser parser) throws IOException {
+        KoriObject root = readFirstObject(parser);
         if (root == null)
             return null;
 
         boolean graded = false;
-        if (root.get("gradeScaleId").asText().equals("sis-0-5"))
+        if ("sis-0-5".equals(root.gradeScaleId))
             graded = true;
 
         Course course = new Course();
-        course.setName(checkLanguageOrNull(root.path("name")));
-        course.setAbbreviation(root.get("code").asText());
-        course.setGroupId(root.get("groupId").asText());
-        course.setTargetCredits(root.path("credits").get("max").asInt());
+        course.setName(root.name);
+        course.setAbbreviation(root.code);
+        course.setGroupId(root.groupId);
+        course.setTargetCredits(root.creditsMax);
         course.setGraded(graded);
-        course.setContentDescription(checkLanguageOrNull(root.path("content")));
-        course.setLearningOutcomes(checkLanguageOrNull(root.path("outcomes")));
-        course.setPrerequisites(checkLanguageOrNull(root.path("prerequisites")));      
+        course.setContentDescription(root.content);
+        course.setLearningOutcomes(root.outcomes);
+        course.setPrerequisites(root.prerequisites);      
 
         return course;
     }
@@ -91,21 +149,34 @@ public class KoriJSONParser {
      * @return ArrayList of Course objects.
      */
     public ArrayList<Course> parseCourseSearchResults(String json) {
-        
-        JsonNode root = getJsonRoot(json);
-        if (root == null)
+        if (json == null) {
             return null;
-        
-        // The search results are stored in a "searchResults" node.
-        JsonNode nodes = root.get("searchResults");
-        
-        // Turn the nodes into a stream and map them to Course objects.
-        // JsonNode implements iterator which means we can turn it into a stream
-        // with it's spliterator.
-        return (ArrayList<Course>)
-                    StreamSupport.stream(nodes.spliterator(), true)
-                    .map(node -> parseSingleSearchResultCourse(node))
-                    .collect(Collectors.toList());
+        }
+        try (JsonParser parser = mapper.getFactory().createParser(json)) {
+            return readSearchResults(parser, this::parseSingleSearchResultCourse);
+        }
+        catch (IOException e) {
+            System.err.println(e);
+            return null;
+        }
+    }
+
+
+    /**
+     * Parses course search results straight from a stream, so the whole 
+     * response never has to be in memory at once.
+     * 
+     * @param in InputStream of the JSON, closed after reading.
+     * @return ArrayList of Course objects.
+     */
+    public ArrayList<Course> parseCourseSearchResults(InputStream in) {
+        try (JsonParser parser = mapper.getFactory().createParser(in)) {
+            return readSearchResults(parser, this::parseSingleSearchResultCourse);
+        }
+        catch (IOException e) {
+            System.err.println(e);
+            return null;
+        }
     }
 
 
@@ -115,14 +186,14 @@ public class KoriJSONParser {
      * @param json JSON string to parse.
      * @return DegreeProgramme object.
      */
-    private SisuNode parseDegreeProgramme(JsonNode root) {
+    private SisuNode parseDegreeProgramme(KoriObject root) {
         SisuNode sisuNode = new SisuNode();
-        sisuNode.setName(checkLanguageOrNull(root.path("name")));
-        sisuNode.setAbbreviation(root.get("code").asText());
-        sisuNode.setGroupId(root.get("groupId").asText());
-        sisuNode.setContentDescription(checkLanguageOrNull(root.path("contentDescription")));
-        sisuNode.setLearningOutcomes(checkLanguageOrNull(root.path("learningOutcomes")));
-        sisuNode.setTargetCredits(root.path("targetCredits").get("min").asInt());
+        sisuNode.setName(root.name);
+        sisuNode.setAbbreviation(root.code);
+        sisuNode.setGroupId(root.groupId);
+        sisuNode.setContentDescription(root.contentDescription);
+        sisuNode.setLearningOutcomes(root.learningOutcomes);
+        sisuNode.setTargetCredits(root.targetCreditsMin);
  
         return sisuNode;
     }
@@ -153,11 +224,11 @@ public class KoriJSONParser {
      * @param json JSON string to parse.
      * @return GroupingModule object.
      */
-    private SisuNode parseGroupingModule(JsonNode root) {
+    private SisuNode parseGroupingModule(KoriObject root) {
         SisuNode sisuNode = new SisuNode();
-        sisuNode.setName(checkLanguageOrNull(root.path("name")));
-        sisuNode.setAbbreviation(root.get("code").asText());
-        sisuNode.setGroupId(root.get("groupId").asText());
+        sisuNode.setName(root.name);
+        sisuNode.setAbbreviation(root.code);
+        sisuNode.setGroupId(root.groupId);
  
         return sisuNode;
     }
@@ -169,23 +240,52 @@ public class KoriJSONParser {
      * @return Module object. Null if parsing failed for some reason.
      */
     public SisuNode parseModule(String json) {
+        if (json == null) {
+            return null;
+        }
+        try (JsonParser parser = mapper.getFactory().createParser(json)) {
+            return parseModule(parser);
+        }
+        catch (IOException e) {
+            System.err.println(e);
+            return null;
+        }
+    }
 
-        // Get the root node of the JSON.
-        JsonNode root = getJsonRoot(json);
-        if (root == null) 
+
+    /**
+     * Parses a Kori API module response into a Module object.
+     * @param in InputStream of the JSON, closed after reading.
+     * @return Module object. Null if parsing failed for some reason.
+     */
+    public SisuNode parseModule(InputStream in) {
+        try (JsonParser parser = mapper.getFactory().createParser(in)) {
+            return parseModule(parser);
+        }
+        catch (IOException e) {
+            System.err.println(e);
+            return null;
+        }
+    }
+
+
+    private SisuNode parseModule(JsonParser parser) throws IOException {
+
+        // Read the fields of the module.
+        KoriObject root = readFirstObject(parser);
+        if (root == null || root.type == null) 
             return null;
 
         // Parse the module based on its type.
-        String type = root.get("type").asText();
         SisuNode module = null;
      
-        if (type.equals("StudyModule")) {
+        if (root.type.equals("StudyModule")) {
             module = parseStudyModule(root);
         } 
-        else if (type.equals("GroupingModule")) {
+        else if (root.type.equals("GroupingModule")) {
             module = parseGroupingModule(root);
         }
-        else if (type.equals("DegreeProgramme")) {
+        else if (root.type.equals("DegreeProgramme")) {
             module = parseDegreeProgramme(root);
         }
         else {
@@ -193,7 +293,7 @@ public class KoriJSONParser {
         }
 
         // Get the top composite rule where the child modules and courses will be.
-        JsonNode compositeRule = getTopCompositeRule(root);
+        JsonNode compositeRule = getTopCompositeRule(root.rule);
         if (compositeRule == null) {
             return module;
         }
@@ -206,18 +306,35 @@ public class KoriJSONParser {
     }
 
 
+    /**
+     * Creates an incomplete (no children yet) DegreeProgramme from a degree
+     * programme search result.
+     * @param dp Search result to convert.
+     * @return DegreeProgramme object.
+     */
+    private SisuNode createStudyProgramme (KoriObject dp) {
+        SisuNode sisuNode = new SisuNode(); 
+        sisuNode.setName(dp.name);
+        sisuNode.setAbbreviation(dp.code);
+        sisuNode.setGroupId(dp.groupId);
+        sisuNode.setTargetCredits(dp.creditsMin);
+
+        return sisuNode;
+    }
+
+
     /**
      * Parses a single course search result into a Course object.
      * @param courseInfo
      * @return
      */
-    private Course parseSingleSearchResultCourse (JsonNode courseInfo) {
-        Course course = new Course(courseInfo.get("groupId").asText());
-        course.setName(courseInfo.get("name").asText());
-        course.setAbbreviation(courseInfo.get("code").asText());
+    private Course parseSingleSearchResultCourse (KoriObject courseInfo) {
+        Course course = new Course(courseInfo.groupId);
+        course.setName(courseInfo.name);
+        course.setAbbreviation(courseInfo.code);
 
-        Integer min = courseInfo.path("credits").get("min").asInt();
-        Integer max = courseInfo.path("credits").get("max").asInt();
+        Integer min = courseInfo.creditsMin;
+        Integer max = courseInfo.creditsMax;
 
         // Sometimes the max value can be null or 0, and in that case the min value
         // should be used, but otherwise use max. 
@@ -238,20 +355,223 @@ public class KoriJSONParser {
      * @param json JSON string to parse.
      * @return StudyModule object.
      */
-    private SisuNode parseStudyModule(JsonNode root) {
+    private SisuNode parseStudyModule(KoriObject root) {
         SisuNode sisuNode = new SisuNode();
-        sisuNode.setName(checkLanguageOrNull(root.path("name")));
-        sisuNode.setAbbreviation(root.get("code").asText());
-        sisuNode.setGroupId(root.get("groupId").asText());
-        sisuNode.setContentDescription(checkLanguageOrNull(root.path("contentDescription")));
-        sisuNode.setLearningOutcomes(checkLanguageOrNull(root.path("learningOutcomes")));
-        sisuNode.setPrerequisites(checkLanguageOrNull(root.path("prerequisites")));
-        sisuNode.setTargetCredits(root.path("targetCredits").get("min").asInt());
+        sisuNode.setName(root.name);
+        sisuNode.setAbbreviation(root.code);
+        sisuNode.setGroupId(root.groupId);
+        sisuNode.setContentDescription(root.contentDescription);
+        sisuNode.setLearningOutcomes(root.learningOutcomes);
+        sisuNode.setPrerequisites(root.prerequisites);
+        sisuNode.setTargetCredits(root.targetCreditsMin);
  
         return sisuNode;
     }
 
 
+
+    /**
+     * Reads the first object of a Kori response. Most of the Kori API JSON's
+     * have a useless outer array, the rest of it is skipped.
+     * 
+     * @param parser JsonParser positioned before the response.
+     * @return KoriObject with the fields read, null if there is no object.
+     * @throws IOException if the JSON can not be read.
+     */
+    private KoriObject readFirstObject(JsonParser parser) throws IOException {
+        JsonToken token = parser.nextToken();
+        if (token == JsonToken.START_ARRAY) {
+            token = parser.nextToken();
+        }
+        if (token != JsonToken.START_OBJECT) {
+            return null;
+        }
+        return readKoriObject(parser);
+    }
+
+
+    /**
+     * Reads the "searchResults" array of a Kori search response and converts
+     * every result as soon as it has been read, so only one result at a time
+     * is kept in its raw form.
+     * 
+     * @param parser JsonParser positioned before the response.
+     * @param converter Function to convert a result to the wanted class.
+     * @return ArrayList of the converted results, null if there were none.
+     * @throws IOException if the JSON can not be read.
+     */
+    private <T> ArrayList<T> readSearchResults(
+        JsonParser parser, 
+        Function<KoriObject, T> converter) 
+        throws IOException {
+
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            return null;
+        }
+
+        ArrayList<T> results = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+
+            if (!field.equals("searchResults") || token != JsonToken.START_ARRAY) {
+                parser.skipChildren();
+                continue;
+            }
+
+            results = new ArrayList<>();
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                results.add(converter.apply(readKoriObject(parser)));
+            }
+        }
+        return results;
+    }
+
+
+    /**
+     * Reads the fields needed from a Kori JSON object. Fields that are not
+     * needed are skipped, with everything inside them.
+     * 
+     * @param parser JsonParser positioned at the start of the object.
+     * @return KoriObject with the fields read.
+     * @throws IOException if the JSON can not be read.
+     */
+    private KoriObject readKoriObject(JsonParser parser) throws IOException {
+        KoriObject object = new KoriObject();
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+
+            switch (field) {
+                case "type":
+                    object.type = readText(parser);
+                    break;
+                case "code":
+                    object.code = readText(parser);
+                    break;
+                case "groupId":
+                    object.groupId = readText(parser);
+                    break;
+                case "gradeScaleId":
+                    object.gradeScaleId = readText(parser);
+                    break;
+                case "name":
+                    object.name = readLanguageOrNull(parser);
+                    break;
+                case "content":
+                    object.content = readLanguageOrNull(parser);
+                    break;
+                case "outcomes":
+                    object.outcomes = readLanguageOrNull(parser);
+                    break;
+                case "prerequisites":
+                    object.prerequisites = readLanguageOrNull(parser);
+                    break;
+                case "contentDescription":
+                    object.contentDescription = readLanguageOrNull(parser);
+                    break;
+                case "learningOutcomes":
+                    object.learningOutcomes = readLanguageOrNull(parser);
+                    break;
+                case "credits":
+                    int[] credits = readMinMax(parser);
+                    object.creditsMin = credits[0];
+                    object.creditsMax = credits[1];
+                    break;
+                case "targetCredits":
+                    object.targetCreditsMin = readMinMax(parser)[0];
+                    break;
+                case "rule":
+                    // The rules are recursive and read in many ways, so 
+                    // this is the only part read as a tree.
+                    object.rule = parser.getCurrentToken() == JsonToken.START_OBJECT
+                        ? mapper.readTree(parser)
+                        : null;
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        return object;
+    }
+
+
+    /**
+     * Reads the current value as text, like JsonNode.asText does.
+     */
+    private String readText(JsonParser parser) throws IOException {
+        if (parser.getCurrentToken().isScalarValue()) {
+            return strings.canonicalize(parser.getText());
+        }
+        parser.skipChildren();
+        return "";
+    }
+
+
+    /**
+     * Reads a "min"/"max" object of credits. Missing values are 0.
+     * 
+     * @return int array containing 1. the min and 2. the max value.
+     */
+    private int[] readMinMax(JsonParser parser) throws IOException {
+        int[] minMax = new int[2];
+        if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return minMax;
+        }
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            if (field.equals("min")) {
+                minMax[0] = parser.getValueAsInt();
+            }
+            else if (field.equals("max")) {
+                minMax[1] = parser.getValueAsInt();
+            }
+            else {
+                parser.skipChildren();
+            }
+        }
+        return minMax;
+    }
+
+
+    /**
+     * Streaming version of checkLanguageOrNull. Search results have plain 
+     * strings instead of language objects, those are returned as they are.
+     * 
+     * @return String containing the field's value or null if the field is null.
+     */
+    private String readLanguageOrNull(JsonParser parser) throws IOException {
+        JsonToken token = parser.getCurrentToken();
+        if (token == JsonToken.VALUE_STRING) {
+            return strings.canonicalize(parser.getText());
+        }
+        if (token != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return null;
+        }
+
+        String fi = null;
+        String en = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String language = parser.getCurrentName();
+            parser.nextToken();
+            if (language.equals("fi")) {
+                fi = readText(parser);
+            }
+            else if (language.equals("en")) {
+                en = readText(parser);
+            }
+            else {
+                parser.skipChildren();
+            }
+        }
+        return fi != null ? fi : en;
+    }
+
     
     /**
      * Helper function for checking fields that may be in either Finnish or 
@@ -267,11 +587,11 @@ public class KoriJSONParser {
         }
 
         if (field.has("fi")) {
-            return field.get("fi").asText();
+            return strings.canonicalize(field.get("fi").asText());
         }
         
         if (field.has("en")) {
-            return field.get("en").asText();
+            return strings.canonicalize(field.get("en").asText());
         }
 
         // If for some reason the field is not null but doesn't have either
@@ -289,7 +609,6 @@ public class KoriJSONParser {
      */
     private JsonNode getJsonRoot(String json) {
         JsonNode root = null;
-        ObjectMapper mapper = new ObjectMapper();
         try {
             root = mapper.readTree(json);
         }
@@ -313,16 +632,17 @@ public class KoriJSONParser {
      * Returns the top "CompositeRule" node of a Kori JSON file which contains
      * the child modules and courses and possibly other CompositeRules.
      * 
-     * @param json JSON string to parse.
+     * @param rule The topmost "rule" node of the module, may be null.
      * @return "rules" node.
      */
-    private JsonNode getTopCompositeRule(JsonNode root) {
+    private JsonNode getTopCompositeRule(JsonNode rule) {
         
         // The child modules and courses are stored in "rule" nodes which are
         // stored in a "rules" node of a "CompositeRule" node.
 
-        // First get the topmost rule node which all Kori JSON's should have.
-        JsonNode rule = root.get("rule");
+        // The topmost rule node should be in all Kori JSON's.
+        if (rule == null || !rule.isObject())
+            return null;
 
         // A Credits rule has nothing useful to us here except the next rule node.
         if (rule.get("type").asText().equals("CreditsRule"))
@@ -356,13 +676,13 @@ public class KoriJSONParser {
 
             // If the rule is a ModuleRule, add as child module.
             if (rule.get("type").asText().equals("ModuleRule")) {
-                sisuNode.addChildModuleId(rule.get("moduleGroupId").asText());
+                sisuNode.addChildModuleId(strings.canonicalize(rule.get("moduleGroupId").asText()));
                 continue;
             }
 
             // If the rule is a CourseUnitRule, add as child course.
             if (rule.get("type").asText().equals("CourseUnitRule")) {
-                String id = rule.get("courseUnitGroupId").asText();      
+                String id = strings.canonicalize(rule.get("courseUnitGroupId").asText());
                 sisuNode.addChildCourse(new Course(id));
 
                 if (coursesMandatory) {
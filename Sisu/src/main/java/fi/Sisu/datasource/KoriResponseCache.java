@@ -0,0 +1,362 @@
+package fi.Sisu.datasource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+
+/**
+ * Disk-backed cache for Kori API responses. Used by KoriAPIRequester so that
+ * modules and courses which were already downloaded once don't have to be
+ * fetched again, curriculum data changes only a few times a year anyway.
+ *
+ * Every response is stored in two files, named after the request type and
+ * groupId: the response body (.json) and its metadata (.meta) which holds the
+ * ETag and Last-Modified headers and the time the response was fetched.
+ *
+ * Responses younger than the TTL are served without contacting the server.
+ * Older responses can be revalidated with a conditional request. When the
+ * total size of the cached bodies grows over the size cap, the least recently
+ * used responses are removed. Files are touched on access, so the LRU order
+ * survives restarts.
+ */
+public class KoriResponseCache {
+
+    private static final String BODY_EXTENSION = ".json";
+    private static final String META_EXTENSION = ".meta";
+    private static final String TEMP_EXTENSION = ".tmp";
+    private static final String META_ETAG = "etag";
+    private static final String META_LAST_MODIFIED = "lastModified";
+    private static final String META_FETCHED_AT = "fetchedAt";
+
+    /**
+     * Single cached response.
+     */
+    public static class CachedResponse {
+        private final String body;
+        private final String etag;
+        private final String lastModified;
+        private final Instant fetchedAt;
+
+        public CachedResponse(String body, String etag, String lastModified, Instant fetchedAt) {
+            this.body = body;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.fetchedAt = fetchedAt;
+        }
+
+        public String getBody() {
+            return body;
+        }
+
+        public Optional<String> getEtag() {
+            return Optional.ofNullable(etag);
+        }
+
+        public Optional<String> getLastModified() {
+            return Optional.ofNullable(lastModified);
+        }
+
+        public Instant getFetchedAt() {
+            return fetchedAt;
+        }
+
+        /**
+         * Returns true if the response is young enough to be used without
+         * asking the server.
+         *
+         * @param ttl Duration how long a response is considered fresh.
+         * @return boolean is the response fresh
+         */
+        public boolean isFresh(Duration ttl) {
+            return fetchedAt.plus(ttl).isAfter(Instant.now());
+        }
+    }
+
+    private final Path directory;
+    private final long maxBytes;
+
+    // Cache keys in LRU order (eldest first) and the size of their bodies.
+    private final LinkedHashMap<String, Long> entries;
+    private long totalBytes;
+    private boolean loaded;
+
+
+    /**
+     * Constructor. The directory is created and scanned on first use.
+     *
+     * @param directory Path of the cache directory.
+     * @param maxBytes long maximum total size of the cached response bodies.
+     */
+    public KoriResponseCache(Path directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+
+    /**
+     * Returns the cached response for the given request, if there is one.
+     *
+     * @param type String request type (course-units/modules)
+     * @param groupId String groupId of the course or module
+     * @return Optional<CachedResponse>
+     */
+    public Optional<CachedResponse> get(String type, String groupId) {
+        String key = getKey(type, groupId);
+        synchronized (this) {
+            loadIfNeeded();
+            if (entries.get(key) == null) {
+                return Optional.empty();
+            }
+        }
+
+        Path bodyFile = directory.resolve(key + BODY_EXTENSION);
+        Path metaFile = directory.resolve(key + META_EXTENSION);
+        try {
+            String body = Files.readString(bodyFile, StandardCharsets.UTF_8);
+            Properties meta = readMeta(metaFile);
+            Instant fetchedAt = Instant.ofEpochMilli(
+                Long.parseLong(meta.getProperty(META_FETCHED_AT, "0")));
+
+            // Touch the file so the LRU order is kept over restarts too.
+            Files.setLastModifiedTime(bodyFile, FileTime.from(Instant.now()));
+
+            return Optional.of(new CachedResponse(
+                body,
+                meta.getProperty(META_ETAG),
+                meta.getProperty(META_LAST_MODIFIED),
+                fetchedAt));
+        }
+        catch (IOException | NumberFormatException e) {
+            // Evicted meanwhile or broken, treat as a cache miss.
+            System.err.println("Could not read cached response: " + key);
+            remove(key);
+            return Optional.empty();
+        }
+    }
+
+
+    /**
+     * Stores a response to the cache, replacing the old one if it exists.
+     *
+     * @param type String request type (course-units/modules)
+     * @param groupId String groupId of the course or module
+     * @param body String response body
+     * @param etag String ETag header of the response, may be null
+     * @param lastModified String Last-Modified header of the response, may be null
+     */
+    public void put(String type, String groupId, String body, String etag, String lastModified) {
+        String key = getKey(type, groupId);
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+
+        Properties meta = new Properties();
+        if (etag != null) {
+            meta.setProperty(META_ETAG, etag);
+        }
+        if (lastModified != null) {
+            meta.setProperty(META_LAST_MODIFIED, lastModified);
+        }
+        meta.setProperty(META_FETCHED_AT, Long.toString(Instant.now().toEpochMilli()));
+
+        try {
+            synchronized (this) {
+                loadIfNeeded();
+            }
+            writeAtomically(directory.resolve(key + BODY_EXTENSION), bytes);
+            writeMeta(directory.resolve(key + META_EXTENSION), meta);
+        }
+        catch (IOException e) {
+            System.err.println("Could not write response to cache: " + key);
+            e.printStackTrace();
+            return;
+        }
+
+        synchronized (this) {
+            Long previous = entries.put(key, (long) bytes.length);
+            totalBytes += bytes.length - (previous == null ? 0 : previous);
+            evictIfNeeded();
+        }
+    }
+
+
+    /**
+     * Marks a cached response as fresh again, used when the server answered
+     * 304 Not Modified to a conditional request.
+     *
+     * @param type String request type (course-units/modules)
+     * @param groupId String groupId of the course or module
+     */
+    public void markRevalidated(String type, String groupId) {
+        String key = getKey(type, groupId);
+        Path metaFile = directory.resolve(key + META_EXTENSION);
+        try {
+            Properties meta = readMeta(metaFile);
+            meta.setProperty(META_FETCHED_AT, Long.toString(Instant.now().toEpochMilli()));
+            writeMeta(metaFile, meta);
+        }
+        catch (IOException e) {
+            System.err.println("Could not update cached response: " + key);
+        }
+    }
+
+
+    /**
+     * Returns the total size of the cached response bodies in bytes.
+     *
+     * @return long size in bytes
+     */
+    public synchronized long getTotalBytes() {
+        loadIfNeeded();
+        return totalBytes;
+    }
+
+
+    /**
+     * Removes the least recently used responses until the cache fits in its
+     * size cap. Caller must hold the lock.
+     */
+    private void evictIfNeeded() {
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            iterator.remove();
+            totalBytes -= eldest.getValue();
+            deleteFiles(eldest.getKey());
+        }
+    }
+
+
+    private synchronized void remove(String key) {
+        Long size = entries.remove(key);
+        if (size != null) {
+            totalBytes -= size;
+        }
+        deleteFiles(key);
+    }
+
+
+    private void deleteFiles(String key) {
+        try {
+            Files.deleteIfExists(directory.resolve(key + BODY_EXTENSION));
+            Files.deleteIfExists(directory.resolve(key + META_EXTENSION));
+        }
+        catch (IOException e) {
+            System.err.println("Could not delete cached response: " + key);
+        }
+    }
+
+
+    /**
+     * Creates the cache directory and reads the existing responses into the
+     * LRU index, oldest access first. Caller must hold the lock.
+     */
+    private void loadIfNeeded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+
+        List<Path> bodies = new ArrayList<>();
+        try {
+            Files.createDirectories(directory);
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + BODY_EXTENSION)) {
+                stream.forEach(bodies::add);
+            }
+        }
+        catch (IOException e) {
+            System.err.println("Could not read response cache folder: " + directory);
+            e.printStackTrace();
+            return;
+        }
+
+        bodies.sort((a, b) -> getLastModified(a).compareTo(getLastModified(b)));
+        for (Path body : bodies) {
+            String fileName = body.getFileName().toString();
+            String key = fileName.substring(0, fileName.length() - BODY_EXTENSION.length());
+            try {
+                long size = Files.size(body);
+                entries.put(key, size);
+                totalBytes += size;
+            }
+            catch (IOException e) {
+                System.err.println("Could not read cached response: " + key);
+            }
+        }
+        evictIfNeeded();
+    }
+
+
+    private static FileTime getLastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path);
+        }
+        catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+
+    private static Properties readMeta(Path metaFile) throws IOException {
+        Properties meta = new Properties();
+        try (InputStream in = Files.newInputStream(metaFile)) {
+            meta.load(in);
+        }
+        return meta;
+    }
+
+
+    private static void writeMeta(Path metaFile, Properties meta) throws IOException {
+        Path temp = Files.createTempFile(metaFile.getParent(), null, TEMP_EXTENSION);
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            meta.store(out, null);
+        }
+        move(temp, metaFile);
+    }
+
+
+    /**
+     * Writes the file through a temporary file, so concurrent readers never
+     * see a half written response.
+     */
+    private static void writeAtomically(Path file, byte[] bytes) throws IOException {
+        Path temp = Files.createTempFile(file.getParent(), null, TEMP_EXTENSION);
+        Files.write(temp, bytes);
+        move(temp, file);
+    }
+
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target,
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+
+    /**
+     * Builds the file name for a cache entry. GroupIds only contain letters,
+     * numbers and dashes, but anything else is replaced just in case.
+     */
+    private static String getKey(String type, String groupId) {
+        return (type + "_" + groupId).replaceAll("[^a-zA-Z0-9._-]", "_");
+    }
+}
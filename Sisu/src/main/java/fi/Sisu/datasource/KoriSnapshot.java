@@ -0,0 +1,192 @@
+package fi.Sisu.datasource;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Read-only bundle of Kori API responses in a single file, used to run the
+ * application without a network connection. The snapshot is created by
+ * crawling a curriculum period, see ApiDataSource.createSnapshot.
+ *
+ * The file holds the response bodies one after another, followed by an index
+ * of their keys, offsets and lengths, and a fixed size footer:
+ * [bodies][index][int entry count][long index offset][magic]. The file is
+ * memory-mapped, only the index is read when the snapshot is opened and the
+ * bodies are decoded when they are asked for.
+ */
+public class KoriSnapshot {
+
+    private static final byte[] MAGIC = "SISUSNP1".getBytes(StandardCharsets.US_ASCII);
+    private static final int FOOTER_LENGTH = Integer.BYTES + Long.BYTES + MAGIC.length;
+    private static final String TEMP_EXTENSION = ".tmp";
+
+    private final MappedByteBuffer buffer;
+
+    // Offset and length of every body, by key.
+    private final HashMap<String, long[]> index;
+
+
+    private KoriSnapshot(MappedByteBuffer buffer, HashMap<String, long[]> index) {
+        this.buffer = buffer;
+        this.index = index;
+    }
+
+
+    /**
+     * Opens a snapshot file.
+     *
+     * @param file Path of the snapshot.
+     * @return KoriSnapshot opened snapshot.
+     * @throws IOException if the file can't be read or is not a snapshot.
+     */
+    public static KoriSnapshot open(Path file) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < FOOTER_LENGTH || channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Not a snapshot file: " + file);
+            }
+            // The mapping stays valid after the channel is closed.
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        ByteBuffer footer = buffer.duplicate();
+        footer.position(buffer.capacity() - FOOTER_LENGTH);
+        int entryCount = footer.getInt();
+        long indexOffset = footer.getLong();
+        byte[] magic = new byte[MAGIC.length];
+        footer.get(magic);
+        if (!Arrays.equals(magic, MAGIC)
+            || indexOffset < 0 || indexOffset > buffer.capacity() - FOOTER_LENGTH) {
+            throw new IOException("Not a snapshot file: " + file);
+        }
+
+        ByteBuffer entries = buffer.duplicate();
+        entries.position((int) indexOffset);
+        HashMap<String, long[]> index = new HashMap<>();
+        try {
+            for (int i = 0; i < entryCount; i++) {
+                byte[] key = new byte[entries.getInt()];
+                entries.get(key);
+                long offset = entries.getLong();
+                long length = entries.getInt();
+                index.put(new String(key, StandardCharsets.UTF_8), new long[] {offset, length});
+            }
+        }
+        catch (RuntimeException e) {
+            throw new IOException("Snapshot index is corrupted: " + file, e);
+        }
+        return new KoriSnapshot(buffer, index);
+    }
+
+
+    /**
+     * Writes a snapshot file. The file is written to a temporary file first
+     * and then moved in place, so a failed write never leaves a broken
+     * snapshot behind.
+     *
+     * @param file Path of the snapshot.
+     * @param responses Map<String, String> response bodies by key.
+     * @throws IOException if the file can't be written.
+     */
+    public static void write(Path file, Map<String, String> responses) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path temp = file.resolveSibling(file.getFileName() + TEMP_EXTENSION);
+
+        List<byte[]> keys = new ArrayList<>(responses.size());
+        List<long[]> positions = new ArrayList<>(responses.size());
+        try (OutputStream fileOut = Files.newOutputStream(temp);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+            long offset = 0;
+            for (Map.Entry<String, String> response : responses.entrySet()) {
+                byte[] body = response.getValue().getBytes(StandardCharsets.UTF_8);
+                out.write(body);
+                keys.add(response.getKey().getBytes(StandardCharsets.UTF_8));
+                positions.add(new long[] {offset, body.length});
+                offset += body.length;
+            }
+
+            long indexOffset = offset;
+            for (int i = 0; i < keys.size(); i++) {
+                out.writeInt(keys.get(i).length);
+                out.write(keys.get(i));
+                out.writeLong(positions.get(i)[0]);
+                out.writeInt((int) positions.get(i)[1]);
+            }
+            out.writeInt(keys.size());
+            out.writeLong(indexOffset);
+            out.write(MAGIC);
+        }
+
+        try {
+            Files.move(temp, file,
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+
+    /**
+     * Builds the key of a response.
+     *
+     * @param type String request type (course-units/modules/module-search)
+     * @param groupId String groupId, or the curriculum period of a search.
+     * @return String key of the response.
+     */
+    public static String getKey(String type, String groupId) {
+        return type + "/" + groupId;
+    }
+
+
+    /**
+     * Returns a response from the snapshot.
+     *
+     * @param type String request type (course-units/modules/module-search)
+     * @param groupId String groupId, or the curriculum period of a search.
+     * @return Optional<String> response body, empty if it is not in the snapshot.
+     */
+    public Optional<String> get(String type, String groupId) {
+        long[] position = index.get(getKey(type, groupId));
+        if (position == null) {
+            return Optional.empty();
+        }
+
+        // Every read uses its own view, so reads can run in parallel.
+        ByteBuffer body = buffer.duplicate();
+        body.position((int) position[0]);
+        byte[] bytes = new byte[(int) position[1]];
+        body.get(bytes);
+        return Optional.of(new String(bytes, StandardCharsets.UTF_8));
+    }
+
+
+    /**
+     * Returns the number of responses in the snapshot.
+     *
+     * @return int number of responses.
+     */
+    public int size() {
+        return index.size();
+    }
+}
@@ -0,0 +1,322 @@
+package fi.Sisu.datasource;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import fi.Sisu.utils.BackgroundExecutor;
+import fi.Sisu.utils.ObjectMapperFactory;
+
+/**
+ * Local stand-in for the Kori API, serves recorded responses (see
+ * KoriFixtures) over HTTP on the loopback address. Pointing the application
+ * to it with sisu.api.baseUrl makes tree loads repeatable without a network,
+ * so their timings can be compared between builds.
+ *
+ * Every response can be delayed by a fixed latency and a random jitter, and
+ * a share of the requests can be answered with 503 Service Unavailable. The
+ * jitter and the error decision of a request are derived from the seed, the
+ * request URI and how many times that URI has been requested before, so a
+ * run can be repeated even though the requests are handled concurrently and
+ * arrive in a different order.
+ *
+ * Serves the same URLs KoriAPIRequester uses: modules and courses by one or
+ * more group IDs, the degree programme list by curriculum period, and
+ * course searches recorded under course-unit-search/[keyword].
+ */
+public class KoriStandInServer {
+
+    private static final String BY_GROUP_ID_PATH = "/by-group-id";
+    private static final String MODULE_SEARCH_PATH = "/module-search";
+    private static final String COURSE_SEARCH_PATH = "/course-unit-search";
+
+    private final KoriFixtures fixtures;
+    private final ObjectMapper mapper = ObjectMapperFactory.getObjectMapper();
+
+    private Duration latency = Duration.ZERO;
+    private Duration jitter = Duration.ZERO;
+    private double errorRate = 0;
+    private volatile long seed = 0;
+
+    // Number of requests received so far by request URI.
+    private final ConcurrentHashMap<String, AtomicInteger> uriRequestCounts = new ConcurrentHashMap<>();
+
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private final AtomicInteger errorCount = new AtomicInteger();
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+
+    /**
+     * Constructor.
+     *
+     * @param fixtures KoriFixtures recorded responses to serve.
+     */
+    public KoriStandInServer(KoriFixtures fixtures) {
+        this.fixtures = fixtures;
+    }
+
+
+    /**
+     * Sets the delay of every response.
+     *
+     * @param latency Duration fixed delay before responding.
+     * @param jitter Duration maximum random delay added to the latency.
+     */
+    public void setLatency(Duration latency, Duration jitter) {
+        this.latency = latency;
+        this.jitter = jitter;
+    }
+
+
+    /**
+     * Sets the share of requests answered with an error.
+     *
+     * @param errorRate double between 0 (no errors) and 1 (only errors).
+     */
+    public void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+
+    /**
+     * Sets the seed of the jitter and the error injection, and starts
+     * counting the requests of every URI from zero again.
+     *
+     * @param seed long random seed.
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+        uriRequestCounts.clear();
+    }
+
+
+    /**
+     * Starts the server.
+     *
+     * @param port int port to listen on, 0 for any free port.
+     * @throws IOException if the port can't be bound.
+     */
+    public synchronized void start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        // Sleeping handlers must not hold up the other requests.
+        executor = Executors.newCachedThreadPool(
+            BackgroundExecutor.createDaemonThreadFactory("kori-stand-in"));
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+
+    /**
+     * Stops the server.
+     */
+    public synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+        }
+    }
+
+
+    /**
+     * Returns the URL to set as sisu.api.baseUrl.
+     *
+     * @return String base URL of the running server.
+     */
+    public synchronized String getBaseUrl() {
+        InetSocketAddress address = server.getAddress();
+        return "http://" + address.getHostString() + ":" + address.getPort();
+    }
+
+
+    /**
+     * Returns the number of requests received.
+     *
+     * @return int number of requests.
+     */
+    public int getRequestCount() {
+        return requestCount.get();
+    }
+
+
+    /**
+     * Returns the number of requests answered with an injected error.
+     *
+     * @return int number of errors.
+     */
+    public int getErrorCount() {
+        return errorCount.get();
+    }
+
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            requestCount.incrementAndGet();
+            SplittableRandom random = getRandom(exchange.getRequestURI().toString());
+            double error = random.nextDouble();
+            delay(random.nextDouble());
+
+            if (error < errorRate) {
+                errorCount.incrementAndGet();
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_UNAVAILABLE, -1);
+                return;
+            }
+
+            Optional<String> body = findResponse(
+                exchange.getRequestURI().getPath(),
+                exchange.getRequestURI().getRawQuery());
+            if (body.isEmpty()) {
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_FOUND, -1);
+                return;
+            }
+
+            byte[] bytes = body.get().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+            exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+        finally {
+            exchange.close();
+        }
+    }
+
+
+    /**
+     * Returns the random numbers of a request, which only depend on the
+     * seed, the URI and the number of earlier requests of the same URI.
+     */
+    private SplittableRandom getRandom(String uri) {
+        int attempt = uriRequestCounts.computeIfAbsent(uri, key -> new AtomicInteger()).getAndIncrement();
+        long hash = seed;
+        hash = 31 * hash + uri.hashCode();
+        hash = 31 * hash + attempt;
+        return new SplittableRandom(hash);
+    }
+
+
+    /**
+     * Sleeps for the latency plus a share of the jitter.
+     *
+     * @param jitterShare double between 0 and 1.
+     */
+    private void delay(double jitterShare) {
+        long millis = latency.toMillis();
+        if (!jitter.isZero()) {
+            millis += (long) (jitterShare * jitter.toMillis());
+        }
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**
+     * Finds the recorded response of a request.
+     */
+    private Optional<String> findResponse(String path, String query) {
+        if (path.endsWith(BY_GROUP_ID_PATH)) {
+            String type = path.substring(1, path.length() - BY_GROUP_ID_PATH.length());
+            return Optional.of(combine(type, getParameters(query, "groupId")));
+        }
+        if (path.equals(MODULE_SEARCH_PATH)) {
+            return getParameters(query, "curriculumPeriodId").stream().findFirst()
+                .flatMap(period -> fixtures.get(MODULE_SEARCH_PATH.substring(1), period));
+        }
+        if (path.equals(COURSE_SEARCH_PATH)) {
+            return getParameters(query, "fullTextQuery").stream().findFirst()
+                .flatMap(keyword -> fixtures.get(COURSE_SEARCH_PATH.substring(1), keyword));
+        }
+        return Optional.empty();
+    }
+
+
+    /**
+     * Combines the versions of every requested group ID into one array, as
+     * Kori does. Unknown group IDs are left out.
+     */
+    private String combine(String type, List<String> groupIds) {
+        ArrayNode combined = mapper.createArrayNode();
+        for (String groupId : groupIds) {
+            Optional<String> json = fixtures.get(type, groupId);
+            if (json.isEmpty()) {
+                continue;
+            }
+            try {
+                JsonNode versions = mapper.readTree(json.get());
+                if (versions.isArray()) {
+                    combined.addAll((ArrayNode) versions);
+                }
+            }
+            catch (IOException e) {
+                System.err.println("Invalid fixture " + type + "/" + groupId + ": " + e.getMessage());
+            }
+        }
+        return combined.toString();
+    }
+
+
+    private static List<String> getParameters(String query, String name) {
+        List<String> values = new ArrayList<>();
+        if (query == null) {
+            return values;
+        }
+        for (String parameter : query.split("&")) {
+            int separator = parameter.indexOf('=');
+            if (separator > 0 && parameter.substring(0, separator).equals(name)) {
+                values.add(URLDecoder.decode(parameter.substring(separator + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return values;
+    }
+
+
+    /**
+     * Runs the server until the process is stopped. Arguments: fixture
+     * folder, and optionally port, latency and jitter in milliseconds, and
+     * error rate.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: KoriStandInServer <fixture folder> [port] [latency ms] [jitter ms] [error rate]");
+            System.exit(1);
+        }
+        KoriStandInServer server = new KoriStandInServer(new KoriFixtures(Paths.get(args[0])));
+        server.setLatency(
+            Duration.ofMillis(args.length > 2 ? Long.parseLong(args[2]) : 0),
+            Duration.ofMillis(args.length > 3 ? Long.parseLong(args[3]) : 0));
+        server.setErrorRate(args.length > 4 ? Double.parseDouble(args[4]) : 0);
+        server.start(args.length > 1 ? Integer.parseInt(args[1]) : 0);
+        System.out.println("Serving " + args[0] + ", run with -Dsisu.api.baseUrl=" + server.getBaseUrl());
+    }
+}
@@ -0,0 +1,238 @@
+package fi.Sisu.datasource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import fi.Sisu.model.Course;
+import fi.Sisu.model.SisuNode;
+
+/**
+ * Loads a full module tree (degree programme with all of its child modules
+ * and courses) concurrently.
+ *
+ * The fetches run on the given I/O executor, so the number of requests in
+ * flight is limited by its size and not by the number of CPU cores. Requests
+ * for the children of a module are started as soon as the module has been
+ * parsed and its childModuleIds are known, so the tree is fetched level by
+ * level without any thread waiting for its children.
+ *
+ * Modules and courses which appear in several branches of the tree are
+ * fetched only once per load. The courses of a module are fetched in
+ * batches, so a module with dozens of courses needs only a few requests.
+ */
+public class ModuleTreeLoader {
+
+    /**
+     * State of a single tree load: cancellation and progress reporting.
+     */
+    private static class Load {
+        private final IProgressListener progressListener;
+        private final AtomicBoolean cancelled = new AtomicBoolean(false);
+        private final AtomicInteger loaded = new AtomicInteger();
+        private final AtomicInteger discovered = new AtomicInteger();
+
+        // Fetches of this load by groupId. Modules and courses referenced
+        // from several branches are fetched only once.
+        private final ConcurrentHashMap<String, CompletableFuture<Optional<SisuNode>>> modules =
+            new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<String, CompletableFuture<Optional<Course>>> courses =
+            new ConcurrentHashMap<>();
+
+        Load(IProgressListener progressListener) {
+            this.progressListener = progressListener;
+        }
+
+        /**
+         * Throws CancellationException if the load has been cancelled, so
+         * the remaining requests are skipped.
+         */
+        void checkCancelled() {
+            if (cancelled.get()) {
+                throw new CancellationException("Loading the module tree was cancelled.");
+            }
+        }
+
+        void addDiscovered() {
+            discovered.incrementAndGet();
+        }
+
+        void itemLoaded() {
+            int loadedCount = loaded.incrementAndGet();
+            if (progressListener != null) {
+                progressListener.onProgress(loadedCount, discovered.get());
+            }
+        }
+    }
+
+    private final Function<String, Optional<SisuNode>> moduleFetcher;
+    private final Function<List<String>, Map<String, Course>> courseFetcher;
+    private final int courseBatchSize;
+    private final Executor executor;
+
+
+    /**
+     * Constructor.
+     *
+     * @param moduleFetcher Function which fetches a single module without children.
+     * @param courseFetcher Function which fetches a list of courses, returns
+     *        the courses found by groupId.
+     * @param courseBatchSize Maximum number of courses given to courseFetcher at once.
+     * @param executor Executor for the blocking fetches.
+     */
+    public ModuleTreeLoader(
+        Function<String, Optional<SisuNode>> moduleFetcher,
+        Function<List<String>, Map<String, Course>> courseFetcher,
+        int courseBatchSize,
+        Executor executor)
+        {
+        this.moduleFetcher = moduleFetcher;
+        this.courseFetcher = courseFetcher;
+        this.courseBatchSize = Math.max(1, courseBatchSize);
+        this.executor = executor;
+    }
+
+
+    /**
+     * Starts loading the module tree. Cancelling the returned future stops
+     * the loading, requests which have not been started yet are skipped.
+     *
+     * @param groupId String groupId of the top module.
+     * @param progressListener IProgressListener, may be null.
+     * @return CompletableFuture<Optional<SisuNode>> the top module with all
+     *         child modules and courses populated.
+     */
+    public CompletableFuture<Optional<SisuNode>> load(String groupId, IProgressListener progressListener) {
+        Load load = new Load(progressListener);
+        CompletableFuture<Optional<SisuNode>> result = new CompletableFuture<>();
+
+        // Cancelling the result stops the requests which are still queued.
+        result.whenComplete((module, error) -> {
+            if (result.isCancelled()) {
+                load.cancelled.set(true);
+            }
+        });
+
+        loadModule(groupId, load).whenComplete((module, error) -> {
+            if (error != null) {
+                result.completeExceptionally(error);
+            }
+            else {
+                result.complete(module);
+            }
+        });
+
+        return result;
+    }
+
+
+    /**
+     * Fetches a module and then all of its children. The children are
+     * added to the module in the same order they appear in the module.
+     *
+     * @param groupId String groupId of the module.
+     * @param load Load state of the whole tree.
+     * @return CompletableFuture<Optional<SisuNode>> completed module.
+     */
+    private CompletableFuture<Optional<SisuNode>> loadModule(String groupId, Load load) {
+        CompletableFuture<Optional<SisuNode>> fetch = load.modules.computeIfAbsent(groupId, id -> {
+            load.addDiscovered();
+            return CompletableFuture.supplyAsync(() -> {
+                load.checkCancelled();
+                Optional<SisuNode> module = moduleFetcher.apply(id);
+                load.itemLoaded();
+                return module;
+            }, executor);
+        });
+
+        return fetch
+            .thenCompose(fetchedModule -> {
+                if (fetchedModule.isEmpty()) {
+                    return CompletableFuture.completedFuture(fetchedModule);
+                }
+                // The fetched module may be used in several places of the
+                // tree, so every place gets its own copy.
+                SisuNode module = new SisuNode(fetchedModule.get());
+                Optional<SisuNode> optionalModule = Optional.of(module);
+
+                List<String> courseIds = new ArrayList<>(module.getChildCourses().keySet());
+
+                // Start all child requests right away.
+                List<CompletableFuture<Optional<SisuNode>>> childModules = new ArrayList<>();
+                for (String childId : module.getChildModuleIds()) {
+                    childModules.add(loadModule(childId, load));
+                }
+
+                List<CompletableFuture<Optional<Course>>> childCourses = loadCourses(courseIds, load);
+
+                List<CompletableFuture<?>> all = new ArrayList<>(childModules);
+                all.addAll(childCourses);
+
+                return CompletableFuture
+                    .allOf(all.toArray(new CompletableFuture<?>[0]))
+                    .thenApply(done -> {
+                        ArrayList<SisuNode> modules = new ArrayList<>();
+                        childModules.forEach(child -> child.join().ifPresent(modules::add));
+                        module.addChildModules(modules);
+
+                        ArrayList<Course> courses = new ArrayList<>();
+                        childCourses.forEach(child -> child.join().ifPresent(courses::add));
+                        module.updateChildCourses(courses);
+
+                        return optionalModule;
+                    });
+            });
+    }
+
+
+    /**
+     * Fetches the courses of a module. Courses which are not already being
+     * fetched by this load are fetched in batches of courseBatchSize.
+     *
+     * @param groupIds List of course groupIds.
+     * @param load Load state of the whole tree.
+     * @return List<CompletableFuture<Optional<Course>>> courses in the same
+     *         order as the groupIds.
+     */
+    private List<CompletableFuture<Optional<Course>>> loadCourses(List<String> groupIds, Load load) {
+        List<CompletableFuture<Optional<Course>>> results = new ArrayList<>();
+        List<String> newIds = new ArrayList<>();
+
+        for (String groupId : groupIds) {
+            CompletableFuture<Optional<Course>> fetch = load.courses.computeIfAbsent(groupId, id -> {
+                load.addDiscovered();
+                newIds.add(id);
+                return new CompletableFuture<>();
+            });
+            results.add(fetch.thenApply(course -> course.map(Course::new)));
+        }
+
+        for (int start = 0; start < newIds.size(); start += courseBatchSize) {
+            List<String> batch = newIds.subList(start, Math.min(start + courseBatchSize, newIds.size()));
+            CompletableFuture
+                .runAsync(() -> {
+                    load.checkCancelled();
+                    Map<String, Course> courses = courseFetcher.apply(batch);
+                    for (String id : batch) {
+                        load.itemLoaded();
+                        load.courses.get(id).complete(Optional.ofNullable(courses.get(id)));
+                    }
+                }, executor)
+                .whenComplete((done, error) -> {
+                    if (error != null) {
+                        batch.forEach(id -> load.courses.get(id).completeExceptionally(error));
+                    }
+                });
+        }
+
+        return results;
+    }
+}
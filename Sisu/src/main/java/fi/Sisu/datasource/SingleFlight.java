@@ -0,0 +1,130 @@
+package fi.Sisu.datasource;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Deduplicates concurrent calls with the same key. The first caller runs the
+ * call, callers arriving while it is still running wait for it and get the
+ * same result. The key is forgotten when the call completes, so a later call
+ * runs again.
+ *
+ * The result object is shared between the callers, so it should not be
+ * modified by them.
+ *
+ * @param <T> type of the result
+ */
+public class SingleFlight<T> {
+
+    private final ConcurrentHashMap<String, CompletableFuture<T>> inFlight = new ConcurrentHashMap<>();
+
+
+    /**
+     * Runs the call, or waits for an identical call already in flight.
+     *
+     * @param key String key identifying the call, like a groupId.
+     * @param call Supplier which does the actual work.
+     * @return T result of the call.
+     */
+    public T run(String key, Supplier<T> call) {
+        CompletableFuture<T> own = new CompletableFuture<>();
+        CompletableFuture<T> existing = inFlight.putIfAbsent(key, own);
+
+        if (existing != null) {
+            return join(existing);
+        }
+
+        try {
+            T result = call.get();
+            own.complete(result);
+            return result;
+        }
+        catch (RuntimeException | Error e) {
+            own.completeExceptionally(e);
+            throw e;
+        }
+        finally {
+            inFlight.remove(key, own);
+        }
+    }
+
+
+    /**
+     * Runs one call for several keys, like a batch request. Keys already in
+     * flight are waited for, the rest are registered before the call is
+     * made with only them, so callers arriving meanwhile wait for the batch.
+     *
+     * @param keys Collection<String> keys of the results.
+     * @param call Function which does the actual work for the given keys,
+     *        and returns a result for each of them.
+     * @return Map<String, T> results by key, keys without a result are left out.
+     */
+    public Map<String, T> runAll(Collection<String> keys, Function<Collection<String>, Map<String, T>> call) {
+        Map<String, CompletableFuture<T>> own = new LinkedHashMap<>();
+        Map<String, CompletableFuture<T>> existing = new LinkedHashMap<>();
+        for (String key : keys) {
+            if (own.containsKey(key) || existing.containsKey(key)) {
+                continue;
+            }
+            CompletableFuture<T> future = new CompletableFuture<>();
+            CompletableFuture<T> found = inFlight.putIfAbsent(key, future);
+            if (found != null) {
+                existing.put(key, found);
+            }
+            else {
+                own.put(key, future);
+            }
+        }
+
+        Map<String, T> results = new HashMap<>();
+        try {
+            if (!own.isEmpty()) {
+                Map<String, T> values = call.apply(new ArrayList<>(own.keySet()));
+                own.forEach((key, future) -> future.complete(values.get(key)));
+            }
+        }
+        catch (RuntimeException | Error e) {
+            own.values().forEach(future -> future.completeExceptionally(e));
+            throw e;
+        }
+        finally {
+            own.forEach(inFlight::remove);
+        }
+
+        own.forEach((key, future) -> results.put(key, future.join()));
+        existing.forEach((key, future) -> results.put(key, join(future)));
+        results.values().removeIf(value -> value == null);
+        return results;
+    }
+
+
+    /**
+     * Returns the number of calls currently in flight.
+     *
+     * @return int number of calls in flight.
+     */
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        }
+        catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
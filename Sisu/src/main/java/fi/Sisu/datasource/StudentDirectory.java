@@ -0,0 +1,296 @@
+package fi.Sisu.datasource;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+import fi.Sisu.model.Student;
+import fi.Sisu.model.StudentSummary;
+import fi.Sisu.utils.ObjectMapperFactory;
+
+/**
+ * Index of the students in the students folder, kept in a single file next
+ * to the student files. The student list is shown from the summaries in the
+ * index, so the student files with their whole study programmes don't have
+ * to be read for it.
+ *
+ * FileDataSource updates the index after every write and delete. The
+ * summaries change in memory right away, the index file is written on the
+ * given executor, once for all the changes made before it runs. When the
+ * index is first used, it is checked against the folder: students whose
+ * file or change journal is newer than their summary, or missing from the index, are read
+ * again in one batch, and summaries without a file are dropped. The check can be forced
+ * again with invalidate, for example if the folder is shared and changed
+ * by others.
+ */
+public class StudentDirectory {
+
+    private static final String INDEX_FILE_NAME = "directory.index";
+    private static final String TEMP_EXTENSION = ".tmp";
+
+    private final Path folder;
+    private final String filePrefix;
+    private final List<String> fileExtensions;
+    private final String journalExtension;
+    private final Function<Collection<String>, Map<String, Student>> loader;
+    private final Executor indexWriter;
+
+    // Held while the index file is written, so the writes are in order.
+    private final Object indexFileLock = new Object();
+
+    // Summaries by student ID.
+    private final TreeMap<String, StudentSummary> summaries = new TreeMap<>();
+    private boolean validated = false;
+    private boolean indexWriteScheduled = false;
+
+
+    /**
+     * Constructor.
+     *
+     * @param folder Path of the students folder.
+     * @param filePrefix String prefix of the student file names.
+     * @param fileExtensions List<String> extensions of the student file
+     *        names, one for every file format.
+     * @param journalExtension String extension of the change journal names.
+     * @param loader Function which reads the students whose summaries are
+     *        missing or old, by student ID. Students which can't be read are
+     *        left out of the result.
+     * @param indexWriter Executor which writes the index file.
+     */
+    public StudentDirectory(
+        Path folder, 
+        String filePrefix, 
+        List<String> fileExtensions, 
+        String journalExtension, 
+        Function<Collection<String>, Map<String, Student>> loader, 
+        Executor indexWriter) 
+        {
+        this.folder = folder;
+        this.filePrefix = filePrefix;
+        this.fileExtensions = fileExtensions;
+        this.journalExtension = journalExtension;
+        this.loader = loader;
+        this.indexWriter = indexWriter;
+    }
+
+
+    /**
+     * Returns the summaries of all students, ordered by student ID.
+     *
+     * @return List<StudentSummary> summaries of the students in the folder.
+     */
+    public synchronized List<StudentSummary> getSummaries() {
+        if (!validated) {
+            validate();
+        }
+        return new ArrayList<>(summaries.values());
+    }
+
+
+    /**
+     * Stores the summary of a student whose file has been written.
+     *
+     * @param summary StudentSummary with the modified time of the file.
+     */
+    public synchronized void update(StudentSummary summary) {
+        summaries.put(summary.getStudentID(), summary);
+        scheduleIndexWrite();
+    }
+
+
+    /**
+     * Removes a student whose file has been deleted.
+     *
+     * @param studentId ID of the student.
+     */
+    public synchronized void remove(String studentId) {
+        if (summaries.remove(studentId) != null) {
+            scheduleIndexWrite();
+        }
+    }
+
+
+    /**
+     * Checks the index against the folder again on the next getSummaries.
+     */
+    public synchronized void invalidate() {
+        validated = false;
+    }
+
+
+    /**
+     * Writes the index file now if it has changes waiting for the executor,
+     * for example before the application exits.
+     */
+    public void flush() {
+        synchronized (indexFileLock) {
+            List<StudentSummary> snapshot;
+            synchronized (this) {
+                if (!indexWriteScheduled) {
+                    return;
+                }
+                indexWriteScheduled = false;
+                snapshot = new ArrayList<>(summaries.values());
+            }
+            writeIndex(snapshot);
+        }
+    }
+
+
+    /**
+     * Brings the summaries up to date with the student files, and writes
+     * the index if anything changed.
+     */
+    private void validate() {
+        Map<String, Long> files;
+        try {
+            files = listStudentFiles();
+        }
+        catch (IOException e) {
+            System.err.println("Could not list student files: " + e.getMessage());
+            e.printStackTrace();
+            return;
+        }
+
+        boolean changed = !readIndex();
+        changed |= summaries.keySet().retainAll(files.keySet());
+
+        List<String> stale = new ArrayList<>();
+        for (Map.Entry<String, Long> file : files.entrySet()) {
+            StudentSummary summary = summaries.get(file.getKey());
+            if (summary == null || summary.getModified() != file.getValue()) {
+                stale.add(file.getKey());
+            }
+        }
+
+        if (!stale.isEmpty()) {
+            Map<String, Student> students = loader.apply(stale);
+            for (String studentId : stale) {
+                Student student = students.get(studentId);
+                if (student != null && studentId.equals(student.getStudentID())) {
+                    summaries.put(studentId, StudentSummary.of(student, files.get(studentId)));
+                }
+                else {
+                    summaries.remove(studentId);
+                }
+            }
+            changed = true;
+        }
+
+        if (changed) {
+            scheduleIndexWrite();
+        }
+        validated = true;
+    }
+
+
+    /**
+     * Lists the student files in the folder.
+     *
+     * @return Map<String, Long> last modified time of every student by ID,
+     *         the latest of its files and its change journal.
+     */
+    private Map<String, Long> listStudentFiles() throws IOException {
+        Map<String, Long> files = new HashMap<>();
+        if (!Files.isDirectory(folder)) {
+            return files;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder, filePrefix + "*")) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                Optional<String> extension = fileExtensions.stream().filter(name::endsWith).findFirst();
+                if (extension.isEmpty()) {
+                    continue;
+                }
+                String studentId = name.substring(filePrefix.length(), name.length() - extension.get().length());
+                long modified = Files.getLastModifiedTime(file).toMillis();
+                Path journal = folder.resolve(filePrefix + studentId + journalExtension);
+                if (Files.exists(journal)) {
+                    modified = Math.max(modified, Files.getLastModifiedTime(journal).toMillis());
+                }
+                files.merge(studentId, modified, Math::max);
+            }
+        }
+        return files;
+    }
+
+
+    /**
+     * Reads the summaries from the index file, if they are not in memory yet.
+     *
+     * @return boolean false if the index file is missing or could not be read.
+     */
+    private boolean readIndex() {
+        if (!summaries.isEmpty()) {
+            return true;
+        }
+        Path index = folder.resolve(INDEX_FILE_NAME);
+        if (!Files.exists(index)) {
+            return false;
+        }
+        try {
+            List<StudentSummary> stored = ObjectMapperFactory.getStudentSummariesReader().readValue(index.toFile());
+            for (StudentSummary summary : stored) {
+                if (summary.getStudentID() != null) {
+                    summaries.put(summary.getStudentID(), summary);
+                }
+            }
+            return true;
+        }
+        catch (IOException e) {
+            System.err.println("Could not read student index, rebuilding it: " + e.getMessage());
+            summaries.clear();
+            return false;
+        }
+    }
+
+
+    /**
+     * Writes the index on the executor, unless a write is already waiting
+     * there and will include the current changes.
+     */
+    private void scheduleIndexWrite() {
+        if (!indexWriteScheduled) {
+            indexWriteScheduled = true;
+            indexWriter.execute(this::flush);
+        }
+    }
+
+
+    /**
+     * Writes the index to a temporary file and moves it in place, so the
+     * index is never left half written. A failed write only means the index
+     * is rebuilt on the next start.
+     */
+    private void writeIndex(List<StudentSummary> snapshot) {
+        Path index = folder.resolve(INDEX_FILE_NAME);
+        Path temp = folder.resolve(INDEX_FILE_NAME + TEMP_EXTENSION);
+        try {
+            Files.createDirectories(folder);
+            ObjectMapperFactory.getStudentSummariesWriter().writeValue(
+                temp.toFile(), snapshot);
+            try {
+                Files.move(temp, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, index, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        catch (IOException e) {
+            System.err.println("Could not write student index: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+}
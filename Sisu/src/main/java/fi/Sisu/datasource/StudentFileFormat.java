@@ -0,0 +1,145 @@
+package fi.Sisu.datasource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Optional;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import fi.Sisu.model.Student;
+import fi.Sisu.utils.ObjectMapperFactory;
+
+/**
+ * Encodings of the student files. Indented JSON is easy to read and edit,
+ * Smile is the binary form of the same data: field names and short strings
+ * repeated in the study programme tree are written once and referred to
+ * after that. Smile can be gzipped as well, which mostly shrinks the long
+ * HTML descriptions.
+ *
+ * Every format has its own file extension, so the files can be told apart
+ * in the students folder. Files are still read by their content, so
+ * students saved in any format can be loaded whatever format is used for
+ * saving.
+ */
+public enum StudentFileFormat {
+
+    JSON(".json"),
+    SMILE(".sml"),
+    SMILE_GZIP(".sml.gz");
+
+    // ":)\n", the header Smile documents start with.
+    private static final byte[] SMILE_HEADER = {0x3A, 0x29, 0x0A};
+
+    private static final byte[] GZIP_HEADER = {0x1F, (byte) 0x8B};
+
+    private final String extension;
+
+
+    private StudentFileFormat(String extension) {
+        this.extension = extension;
+    }
+
+
+    /**
+     * Returns the extension of the files in this format.
+     *
+     * @return String extension with the leading dot.
+     */
+    public String getExtension() {
+        return extension;
+    }
+
+
+    /**
+     * Recognizes the format of a student file from its name.
+     *
+     * @param fileName String name of the file.
+     * @return Optional<StudentFileFormat> empty if the name has none of the
+     *         extensions.
+     */
+    public static Optional<StudentFileFormat> fromFileName(String fileName) {
+        for (StudentFileFormat format : values()) {
+            if (fileName.endsWith(format.extension)) {
+                return Optional.of(format);
+            }
+        }
+        return Optional.empty();
+    }
+
+
+    /**
+     * Encodes a student in this format.
+     *
+     * @param student Student to encode.
+     * @return byte[] content of the student file.
+     * @throws IOException if the student can't be serialized.
+     */
+    public byte[] write(Student student) throws IOException {
+        switch (this) {
+            case SMILE:
+                return ObjectMapperFactory.getStudentSmileWriter().writeValueAsBytes(student);
+            case SMILE_GZIP:
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+                    ObjectMapperFactory.getStudentSmileWriter().writeValue(out, student);
+                }
+                return bytes.toByteArray();
+            default:
+                return ObjectMapperFactory.getStudentWriter().writeValueAsBytes(student);
+        }
+    }
+
+
+    /**
+     * Decodes a student file in any of the formats.
+     *
+     * @param data byte[] content of the student file.
+     * @return Student read from the file.
+     * @throws IOException if the content can't be parsed.
+     */
+    public static Student read(byte[] data) throws IOException {
+        switch (detect(data)) {
+            case SMILE:
+                return ObjectMapperFactory.getStudentSmileReader().readValue(data);
+            case SMILE_GZIP:
+                try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+                    return ObjectMapperFactory.getStudentSmileReader().readValue(in);
+                }
+            default:
+                return ObjectMapperFactory.getStudentReader().readValue(data);
+        }
+    }
+
+
+    /**
+     * Recognizes the format of a student file from its first bytes.
+     * Everything which is not Smile or gzip is handled as JSON.
+     *
+     * @param data byte[] content of the student file.
+     * @return StudentFileFormat of the content.
+     */
+    public static StudentFileFormat detect(byte[] data) {
+        if (startsWith(data, GZIP_HEADER)) {
+            return SMILE_GZIP;
+        }
+        if (startsWith(data, SMILE_HEADER)) {
+            return SMILE;
+        }
+        return JSON;
+    }
+
+
+    private static boolean startsWith(byte[] data, byte[] header) {
+        if (data.length < header.length) {
+            return false;
+        }
+        for (int i = 0; i < header.length; i++) {
+            if (data[i] != header[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,271 @@
+package fi.Sisu.datasource;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import fi.Sisu.model.StudentChange;
+import fi.Sisu.utils.ObjectMapperFactory;
+
+/**
+ * Append-only journal of the changes made to one student since the student
+ * file was last written. Every change is a record of a few hundred bytes:
+ * [int payload length][long sequence][int CRC32][payload], where the payload
+ * is the change as compact JSON and the CRC covers the sequence and the
+ * payload.
+ *
+ * A crash can only leave the last record half written. Reading stops at the
+ * first record which is incomplete, fails its CRC or is out of sequence, and
+ * the broken tail is cut off before the next append, so the records before
+ * it are never lost. Appends are not forced to the disk by the journal
+ * itself, see AtomicFileWriter.sync. The journal is rewritten through a
+ * temporary file which is forced first, unless the policy is NONE.
+ *
+ * Thread-safe.
+ */
+public class StudentJournal {
+
+    private static final int HEADER_LENGTH = Integer.BYTES + Long.BYTES + Integer.BYTES;
+    private static final String TEMP_EXTENSION = ".tmp";
+
+    /**
+     * A change read from the journal.
+     */
+    public static class Entry {
+        private final long sequence;
+        private final StudentChange change;
+
+        Entry(long sequence, StudentChange change) {
+            this.sequence = sequence;
+            this.change = change;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public StudentChange getChange() {
+            return change;
+        }
+    }
+
+    /**
+     * Valid records of the file and where they end.
+     */
+    private static class Contents {
+        private final List<Entry> entries = new ArrayList<>();
+        private final List<byte[]> records = new ArrayList<>();
+        private int validLength;
+    }
+
+    private final Path file;
+    private final DurabilityPolicy policy;
+
+    // Set once the file has been checked for a broken tail.
+    private boolean checked = false;
+
+
+    /**
+     * Constructor. The file is created on the first append.
+     *
+     * @param file Path of the journal file.
+     * @param policy DurabilityPolicy of the rewrites.
+     */
+    public StudentJournal(Path file, DurabilityPolicy policy) {
+        this.file = file;
+        this.policy = policy;
+    }
+
+
+    /**
+     * Appends a change to the journal.
+     *
+     * @param sequence long sequence number of the change, one greater than
+     *        the previous change of the student.
+     * @param change StudentChange to append.
+     * @throws IOException if the record can't be written.
+     */
+    public synchronized void append(long sequence, StudentChange change) throws IOException {
+        if (!checked) {
+            read();
+        }
+
+        byte[] payload = ObjectMapperFactory.getStudentChangeWriter().writeValueAsBytes(change);
+        ByteBuffer record = ByteBuffer.allocate(HEADER_LENGTH + payload.length);
+        record.putInt(payload.length);
+        record.putLong(sequence);
+        record.putInt(checksum(sequence, payload));
+        record.put(payload);
+        record.flip();
+
+        // One write of the whole record, so only the last record can be torn.
+        try (FileChannel channel = FileChannel.open(file,
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+        }
+    }
+
+
+    /**
+     * Reads the valid changes of the journal, and cuts off a broken tail.
+     *
+     * @return List<Entry> changes in the order they were made, empty if
+     *         there is no journal.
+     * @throws IOException if the file can't be read.
+     */
+    public synchronized List<Entry> read() throws IOException {
+        Contents contents = readContents();
+        checked = true;
+        return contents.entries;
+    }
+
+
+    /**
+     * Removes the changes which are already in the student file. Called
+     * after the student file has been written.
+     *
+     * @param sequence long journal sequence saved in the student file.
+     * @throws IOException if the journal can't be rewritten.
+     */
+    public synchronized void truncateThrough(long sequence) throws IOException {
+        Contents contents = readContents();
+        checked = true;
+        int keep = 0;
+        while (keep < contents.entries.size() && contents.entries.get(keep).getSequence() <= sequence) {
+            keep++;
+        }
+        if (keep == 0 && contents.validLength == sizeOrZero()) {
+            return;
+        }
+        if (keep == contents.entries.size()) {
+            Files.deleteIfExists(file);
+            return;
+        }
+
+        Path temp = file.resolveSibling(file.getFileName() + TEMP_EXTENSION);
+        try (FileChannel channel = FileChannel.open(temp,
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (byte[] record : contents.records.subList(keep, contents.records.size())) {
+                ByteBuffer buffer = ByteBuffer.wrap(record);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            if (policy != DurabilityPolicy.NONE) {
+                channel.force(false);
+            }
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+
+    /**
+     * Deletes the journal.
+     *
+     * @throws IOException if the file can't be deleted.
+     */
+    public synchronized void delete() throws IOException {
+        Files.deleteIfExists(file);
+        checked = false;
+    }
+
+
+    /**
+     * Returns the path of the journal file.
+     *
+     * @return Path of the file, which may not exist.
+     */
+    public Path getFile() {
+        return file;
+    }
+
+
+    /**
+     * Returns the size of the journal file.
+     *
+     * @return long size in bytes, 0 if there is no journal.
+     */
+    public synchronized long size() {
+        return sizeOrZero();
+    }
+
+
+    private long sizeOrZero() {
+        try {
+            return Files.exists(file) ? Files.size(file) : 0;
+        }
+        catch (IOException e) {
+            return 0;
+        }
+    }
+
+
+    private Contents readContents() throws IOException {
+        Contents contents = new Contents();
+        if (!Files.exists(file)) {
+            return contents;
+        }
+
+        byte[] data = Files.readAllBytes(file);
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        long previous = -1;
+        while (buffer.remaining() >= HEADER_LENGTH) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            long sequence = buffer.getLong();
+            int crc = buffer.getInt();
+            if (length < 0 || length > buffer.remaining()) {
+                break;
+            }
+            byte[] payload = new byte[length];
+            buffer.get(payload);
+            if (crc != checksum(sequence, payload) || (previous >= 0 && sequence != previous + 1)) {
+                break;
+            }
+
+            StudentChange change;
+            try {
+                change = ObjectMapperFactory.getStudentChangeReader().readValue(payload);
+            }
+            catch (IOException e) {
+                break;
+            }
+            contents.entries.add(new Entry(sequence, change));
+            contents.records.add(Arrays.copyOfRange(data, start, buffer.position()));
+            contents.validLength = buffer.position();
+            previous = sequence;
+        }
+
+        if (contents.validLength < data.length) {
+            System.err.println("Cutting off a broken record at the end of " + file);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(contents.validLength);
+            }
+        }
+        return contents;
+    }
+
+
+    private static int checksum(long sequence, byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(ByteBuffer.allocate(Long.BYTES).putLong(sequence).array());
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+}
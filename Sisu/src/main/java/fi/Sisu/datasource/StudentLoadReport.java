@@ -0,0 +1,88 @@
+package fi.Sisu.datasource;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of loading all students at once (see
+ * IFileDataSource.loadAllStudents): how many students were loaded, which
+ * files failed and why, and how long it took. Failed files don't stop the
+ * load and are not reported with dialogs, the caller decides how to show
+ * them.
+ */
+public class StudentLoadReport {
+
+    /**
+     * A student file which could not be loaded.
+     */
+    public static class Failure {
+        private final String studentId;
+        private final Path file;
+        private final Exception error;
+
+        public Failure(String studentId, Path file, Exception error) {
+            this.studentId = studentId;
+            this.file = file;
+            this.error = error;
+        }
+
+        public String getStudentId() {
+            return studentId;
+        }
+
+        public Path getFile() {
+            return file;
+        }
+
+        public Exception getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return file + ": " + error.getMessage();
+        }
+    }
+
+    private final int loadedCount;
+    private final List<Failure> failures;
+    private final Duration elapsed;
+
+
+    /**
+     * Constructor.
+     *
+     * @param loadedCount int number of students loaded.
+     * @param failures List<Failure> files which could not be loaded.
+     * @param elapsed Duration of the whole load.
+     */
+    public StudentLoadReport(int loadedCount, List<Failure> failures, Duration elapsed) {
+        this.loadedCount = loadedCount;
+        this.failures = Collections.unmodifiableList(failures);
+        this.elapsed = elapsed;
+    }
+
+    public int getLoadedCount() {
+        return loadedCount;
+    }
+
+    public List<Failure> getFailures() {
+        return failures;
+    }
+
+    public boolean hasFailures() {
+        return !failures.isEmpty();
+    }
+
+    public Duration getElapsed() {
+        return elapsed;
+    }
+
+    @Override
+    public String toString() {
+        return "StudentLoadReport [loaded=" + loadedCount + ", failed=" + failures.size()
+            + ", elapsed=" + elapsed.toMillis() + "ms]";
+    }
+}
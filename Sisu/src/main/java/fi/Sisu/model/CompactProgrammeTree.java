@@ -0,0 +1,408 @@
+package fi.Sisu.model;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read-only study programme tree stored in flat arrays instead of SisuNode
+ * and Course objects. Used for the curriculum trees which are kept in memory
+ * for the whole session.
+ *
+ * Every groupId is stored once and referred to with an int handle. Modules
+ * and courses are rows in column arrays, child lists are int arrays, and
+ * the mandatory and chosen courses of a module are BitSets over the
+ * handles. Texts are deduplicated too, the same description is often found
+ * in several places of the tree.
+ *
+ * The SisuNode API is available through toSisuNode, which builds a normal
+ * mutable tree. The trees built share the groupId and text Strings of this
+ * tree, so they don't hold copies of them.
+ */
+public class CompactProgrammeTree {
+
+    private static final int NO_COURSE = -1;
+    private static final int[] EMPTY = new int[0];
+
+    // GroupIds of modules and courses by handle.
+    private final String[] groupIds;
+    private final HashMap<String, Integer> handles;
+
+    // Modules in depth first order, the root is module 0.
+    private final int[] moduleGroupIds;
+    private final String[] moduleNames;
+    private final String[] moduleAbbreviations;
+    private final String[] moduleDescriptions;
+    private final String[] moduleOutcomes;
+    private final String[] modulePrerequisites;
+    private final int[] moduleCredits;
+    private final BitSet stubs;
+    private final int[][] childModules;
+    private final int[][] childModuleIds;
+    private final int[][] childCourseIds;
+    private final int[][] childCourses;
+    private final BitSet[] mandatoryCourses;
+    private final BitSet[] chosenCourses;
+
+    // First module with each handle, -1 if the handle is not a module.
+    private final int[] firstModules;
+
+    // Courses, each Course object of the source tree once.
+    private final int[] courseGroupIds;
+    private final String[] courseNames;
+    private final String[] courseAbbreviations;
+    private final String[] courseDescriptions;
+    private final String[] courseOutcomes;
+    private final String[] coursePrerequisites;
+    private final String[] courseGrades;
+    private final int[] courseCredits;
+    private final BitSet gradedCourses;
+    private final BitSet summaryCourses;
+
+
+    /**
+     * Builds the compact form of a tree. The tree is not modified or kept.
+     *
+     * @param root Root of the tree.
+     */
+    public CompactProgrammeTree(SisuNode root) {
+        ArrayList<String> ids = new ArrayList<>();
+        handles = new HashMap<>();
+        HashMap<String, String> texts = new HashMap<>();
+
+        // Every place of a module in the tree gets its own row, the rows of
+        // the children are added to the parent's list as they are reached.
+        List<SisuNode> modules = new ArrayList<>();
+        List<List<Integer>> children = new ArrayList<>();
+        ArrayDeque<SisuNode> stack = new ArrayDeque<>();
+        ArrayDeque<Integer> parents = new ArrayDeque<>();
+        stack.push(root);
+        parents.push(-1);
+        while (!stack.isEmpty()) {
+            SisuNode node = stack.pop();
+            int parent = parents.pop();
+            if (parent >= 0) {
+                children.get(parent).add(modules.size());
+            }
+            modules.add(node);
+            children.add(new ArrayList<>(node.getChildModules().size()));
+
+            List<SisuNode> nodeChildren = node.getChildModules();
+            for (int i = nodeChildren.size() - 1; i >= 0; i--) {
+                stack.push(nodeChildren.get(i));
+                parents.push(modules.size() - 1);
+            }
+        }
+
+        int moduleCount = modules.size();
+        moduleGroupIds = new int[moduleCount];
+        moduleNames = new String[moduleCount];
+        moduleAbbreviations = new String[moduleCount];
+        moduleDescriptions = new String[moduleCount];
+        moduleOutcomes = new String[moduleCount];
+        modulePrerequisites = new String[moduleCount];
+        moduleCredits = new int[moduleCount];
+        stubs = new BitSet(moduleCount);
+        childModules = new int[moduleCount][];
+        childModuleIds = new int[moduleCount][];
+        childCourseIds = new int[moduleCount][];
+        childCourses = new int[moduleCount][];
+        mandatoryCourses = new BitSet[moduleCount];
+        chosenCourses = new BitSet[moduleCount];
+
+        List<Course> courses = new ArrayList<>();
+        IdentityHashMap<Course, Integer> courseIndexes = new IdentityHashMap<>();
+
+        for (int m = 0; m < moduleCount; m++) {
+            SisuNode node = modules.get(m);
+            moduleGroupIds[m] = getHandle(node.getGroupId(), ids);
+            moduleNames[m] = dedupe(node.getName(), texts);
+            moduleAbbreviations[m] = dedupe(node.getAbbreviation(), texts);
+            moduleDescriptions[m] = dedupe(node.getContentDescription(), texts);
+            moduleOutcomes[m] = dedupe(node.getLearningOutcomes(), texts);
+            modulePrerequisites[m] = dedupe(node.getPrerequisites(), texts);
+            moduleCredits[m] = node.getTargetCredits();
+            stubs.set(m, node.isStub());
+
+            childModules[m] = children.get(m).stream().mapToInt(Integer::intValue).toArray();
+            childModuleIds[m] = getHandles(node.getChildModuleIds(), ids);
+
+            Map<String, Course> nodeCourses = node.getChildCourses();
+            childCourseIds[m] = nodeCourses.isEmpty() ? EMPTY : new int[nodeCourses.size()];
+            childCourses[m] = nodeCourses.isEmpty() ? EMPTY : new int[nodeCourses.size()];
+            int i = 0;
+            for (Map.Entry<String, Course> entry : nodeCourses.entrySet()) {
+                Course course = entry.getValue();
+                childCourseIds[m][i] = getHandle(entry.getKey(), ids);
+                if (course == null) {
+                    childCourses[m][i] = NO_COURSE;
+                }
+                else {
+                    childCourses[m][i] = courseIndexes.computeIfAbsent(course, c -> {
+                        courses.add(c);
+                        return courses.size() - 1;
+                    });
+                }
+                i++;
+            }
+
+            mandatoryCourses[m] = getBits(node.getMandatoryCourses(), ids);
+            chosenCourses[m] = getBits(node.getChosenCourses(), ids);
+        }
+
+        int courseCount = courses.size();
+        courseGroupIds = new int[courseCount];
+        courseNames = new String[courseCount];
+        courseAbbreviations = new String[courseCount];
+        courseDescriptions = new String[courseCount];
+        courseOutcomes = new String[courseCount];
+        coursePrerequisites = new String[courseCount];
+        courseGrades = new String[courseCount];
+        courseCredits = new int[courseCount];
+        gradedCourses = new BitSet(courseCount);
+        summaryCourses = new BitSet(courseCount);
+
+        for (int c = 0; c < courseCount; c++) {
+            Course course = courses.get(c);
+            courseGroupIds[c] = getHandle(course.getGroupId(), ids);
+            courseNames[c] = dedupe(course.getName(), texts);
+            courseAbbreviations[c] = dedupe(course.getAbbreviation(), texts);
+            courseDescriptions[c] = dedupe(course.getContentDescription(), texts);
+            courseOutcomes[c] = dedupe(course.getLearningOutcomes(), texts);
+            coursePrerequisites[c] = dedupe(course.getPrerequisites(), texts);
+            courseGrades[c] = dedupe(course.getGrade(), texts);
+            courseCredits[c] = course.getTargetCredits();
+            gradedCourses.set(c, course.isGraded());
+            summaryCourses.set(c, course.isSummaryOnly());
+        }
+
+        groupIds = ids.toArray(new String[0]);
+        firstModules = new int[groupIds.length];
+        Arrays.fill(firstModules, -1);
+        for (int m = moduleCount - 1; m >= 0; m--) {
+            firstModules[moduleGroupIds[m]] = m;
+        }
+    }
+
+
+    /**
+     * Returns the groupId of the root module.
+     *
+     * @return String groupId of the programme.
+     */
+    public String getGroupId() {
+        return getGroupId(moduleGroupIds[0]);
+    }
+
+
+    /**
+     * Returns the number of modules in the tree.
+     *
+     * @return int number of modules, repeated modules counted every time.
+     */
+    public int getModuleCount() {
+        return moduleGroupIds.length;
+    }
+
+
+    /**
+     * Returns the first module with the given groupId in depth first order.
+     *
+     * @param groupId GroupId of the module.
+     * @return int index of the module, -1 if not found.
+     */
+    public int findModule(String groupId) {
+        Integer handle = groupId == null ? null : handles.get(groupId);
+        return handle == null ? -1 : firstModules[handle];
+    }
+
+
+    /**
+     * Returns true if the children of the module were not loaded.
+     *
+     * @param module int index of the module.
+     * @return boolean is the module a stub.
+     */
+    public boolean isStub(int module) {
+        return stubs.get(module);
+    }
+
+
+    /**
+     * Returns true if the module has a child course with the groupId.
+     *
+     * @param module int index of the module.
+     * @param courseId GroupId of the course.
+     * @return boolean is the course a child course of the module.
+     */
+    public boolean hasChildCourse(int module, String courseId) {
+        Integer handle = handles.get(courseId);
+        if (handle == null) {
+            return false;
+        }
+        for (int childCourseId : childCourseIds[module]) {
+            if (childCourseId == handle) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Returns the groupIds of the child courses of the module.
+     *
+     * @param module int index of the module.
+     * @return List<String> groupIds of the child courses.
+     */
+    public List<String> getChildCourseIds(int module) {
+        List<String> courseIds = new ArrayList<>(childCourseIds[module].length);
+        for (int handle : childCourseIds[module]) {
+            courseIds.add(getGroupId(handle));
+        }
+        return courseIds;
+    }
+
+
+    /**
+     * Returns the chosen courses of the module.
+     *
+     * @param module int index of the module.
+     * @return HashSet<String> groupIds of the chosen courses.
+     */
+    public HashSet<String> getChosenCourses(int module) {
+        return toIds(chosenCourses[module]);
+    }
+
+
+    /**
+     * Builds a SisuNode tree of this tree. The tree can be modified freely,
+     * it is not connected to this one.
+     *
+     * @return SisuNode root of the tree.
+     */
+    public SisuNode toSisuNode() {
+        int moduleCount = moduleGroupIds.length;
+        SisuNode[] nodes = new SisuNode[moduleCount];
+
+        // Children come after their parent in depth first order, so they
+        // are built first when going backwards.
+        for (int m = moduleCount - 1; m >= 0; m--) {
+            SisuNode node = new SisuNode(getGroupId(moduleGroupIds[m]));
+            node.setName(moduleNames[m]);
+            node.setAbbreviation(moduleAbbreviations[m]);
+            node.setContentDescription(moduleDescriptions[m]);
+            node.setLearningOutcomes(moduleOutcomes[m]);
+            node.setPrerequisites(modulePrerequisites[m]);
+            node.setTargetCredits(moduleCredits[m]);
+            node.setStub(stubs.get(m));
+
+            ArrayList<String> moduleIds = new ArrayList<>(childModuleIds[m].length);
+            for (int handle : childModuleIds[m]) {
+                moduleIds.add(getGroupId(handle));
+            }
+            node.setChildModuleIds(moduleIds);
+
+            HashMap<String, Course> courses = new HashMap<>();
+            for (int i = 0; i < childCourses[m].length; i++) {
+                int course = childCourses[m][i];
+                courses.put(getGroupId(childCourseIds[m][i]),
+                    course == NO_COURSE ? null : toCourse(course));
+            }
+            node.setChildCourses(courses);
+            node.setMandatoryCourses(toIds(mandatoryCourses[m]));
+            node.setChosenCourses(toIds(chosenCourses[m]));
+
+            ArrayList<SisuNode> children = new ArrayList<>(childModules[m].length);
+            for (int child : childModules[m]) {
+                children.add(nodes[child]);
+            }
+            node.setChildModules(children);
+            nodes[m] = node;
+        }
+        return nodes[0];
+    }
+
+
+    private Course toCourse(int c) {
+        Course course = new Course(getGroupId(courseGroupIds[c]));
+        course.setName(courseNames[c]);
+        course.setAbbreviation(courseAbbreviations[c]);
+        course.setContentDescription(courseDescriptions[c]);
+        course.setLearningOutcomes(courseOutcomes[c]);
+        course.setPrerequisites(coursePrerequisites[c]);
+        course.setTargetCredits(courseCredits[c]);
+        course.setGraded(gradedCourses.get(c));
+        course.setGrade(courseGrades[c]);
+        course.setSummaryOnly(summaryCourses.get(c));
+        return course;
+    }
+
+
+    private String getGroupId(int handle) {
+        return handle < 0 ? null : groupIds[handle];
+    }
+
+
+    private HashSet<String> toIds(BitSet bits) {
+        HashSet<String> ids = new HashSet<>();
+        if (bits != null) {
+            bits.stream().forEach(handle -> ids.add(groupIds[handle]));
+        }
+        return ids;
+    }
+
+
+    /**
+     * Returns the handle of a groupId, adds the groupId if it is new.
+     * Null groupIds get -1.
+     */
+    private int getHandle(String groupId, ArrayList<String> ids) {
+        if (groupId == null) {
+            return -1;
+        }
+        return handles.computeIfAbsent(groupId, id -> {
+            ids.add(id);
+            return ids.size() - 1;
+        });
+    }
+
+
+    private int[] getHandles(List<String> groupIds, ArrayList<String> ids) {
+        if (groupIds.isEmpty()) {
+            return EMPTY;
+        }
+        int[] result = new int[groupIds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = getHandle(groupIds.get(i), ids);
+        }
+        return result;
+    }
+
+
+    // Null for an empty set, most modules have no mandatory or chosen courses.
+    private BitSet getBits(Collection<String> groupIds, ArrayList<String> ids) {
+        if (groupIds.isEmpty()) {
+            return null;
+        }
+        BitSet bits = new BitSet();
+        for (String groupId : groupIds) {
+            if (groupId != null) {
+                bits.set(getHandle(groupId, ids));
+            }
+        }
+        return bits;
+    }
+
+
+    private static String dedupe(String text, HashMap<String, String> texts) {
+        return text == null ? null : texts.computeIfAbsent(text, t -> t);
+    }
+}
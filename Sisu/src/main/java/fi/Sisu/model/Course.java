@@ -1,5 +1,9 @@
 package fi.Sisu.model;
 
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 /**
@@ -64,6 +68,22 @@ public class Course {
     @JsonProperty("grade")
     private String grade;
 
+    /**
+     * True if the description, learning outcomes and prerequisites were left
+     * out to save memory. They are loaded with IApiDataSource.getCourse when
+     * the course is shown.
+     */
+    @JsonProperty("summaryOnly")
+    @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+    private boolean summaryOnly;
+
+    /**
+     * Module which contains the course. Told about grade and credit changes,
+     * so it can keep its credit totals up to date.
+     */
+    @JsonIgnore
+    private SisuNode parent;
+
     public Course() {
         // Empty constructor for jackson
     }
@@ -76,6 +96,55 @@ public class Course {
         this.groupId = groupId;
     }
 
+    /**
+     * Copy constructor.
+     * @param other Course to be copied.
+     */
+    public Course(Course other) {
+        this.name = other.name;
+        this.abbreviation = other.abbreviation;
+        this.groupId = other.groupId;
+        this.contentDescription = other.contentDescription;
+        this.learningOutcomes = other.learningOutcomes;
+        this.prerequisites = other.prerequisites;
+        this.targetCredits = other.targetCredits;
+        this.graded = other.graded;
+        this.grade = other.grade;
+        this.summaryOnly = other.summaryOnly;
+    }
+
+    /**
+     * Returns a copy of the course without the description, learning
+     * outcomes and prerequisites.
+     * 
+     * @return Course summary of the course.
+     */
+    public Course toSummary() {
+        Course summary = new Course(this);
+        summary.contentDescription = null;
+        summary.learningOutcomes = null;
+        summary.prerequisites = null;
+        summary.summaryOnly = true;
+        return summary;
+    }
+
+    /**
+     * Returns a copy of a summary course with the description, learning
+     * outcomes and prerequisites taken from the full course loaded from Sisu.
+     * The grade of this course is kept.
+     * 
+     * @param details Course loaded with all of its information.
+     * @return Course copy with the details.
+     */
+    public Course withDetailsFrom(Course details) {
+        Course course = new Course(this);
+        course.contentDescription = details.contentDescription;
+        course.learningOutcomes = details.learningOutcomes;
+        course.prerequisites = details.prerequisites;
+        course.summaryOnly = false;
+        return course;
+    }
+
     public String getName() {
         return name;
     }
@@ -129,7 +198,11 @@ public class Course {
     }
 
     public void setTargetCredits(int targetCredits) {
-        this.targetCredits = targetCredits;
+        if (parent == null) {
+            this.targetCredits = targetCredits;
+            return;
+        }
+        parent.changeCourses(List.of(groupId), () -> this.targetCredits = targetCredits);
     }
 
     public boolean isGraded() {
@@ -149,7 +222,34 @@ public class Course {
     }
 
     public void setGrade(String grade) {
-        this.grade = grade;
+        if (parent == null) {
+            this.grade = grade;
+            return;
+        }
+        parent.changeCourses(List.of(groupId), () -> this.grade = grade);
+    }
+
+    /**
+     * Returns true if the course has been passed: it has a grade, and the
+     * grade is not "fail".
+     * 
+     * @return boolean is the course completed.
+     */
+    @JsonIgnore
+    public boolean isCompleted() {
+        return grade != null && !grade.equals("fail");
+    }
+
+    public boolean isSummaryOnly() {
+        return summaryOnly;
+    }
+
+    public void setSummaryOnly(boolean summaryOnly) {
+        this.summaryOnly = summaryOnly;
+    }
+
+    void setParent(SisuNode parent) {
+        this.parent = parent;
     }
 
     @Override
@@ -0,0 +1,71 @@
+package fi.Sisu.model;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Set;
+
+/**
+ * Counts how many times each course groupId appears in a subtree of
+ * SisuNodes. A course can be mandatory or chosen in several modules, so
+ * removing it from one module must not remove it from the whole subtree.
+ */
+public class CourseCounts {
+
+    private final HashMap<String, Integer> counts = new HashMap<>();
+
+
+    /**
+     * Adds or removes one occurrence of every given course.
+     *
+     * @param courseIds Collection of course groupIds.
+     * @param sign 1 to add, -1 to remove.
+     */
+    void add(Collection<String> courseIds, int sign) {
+        for (String courseId : courseIds) {
+            add(courseId, sign);
+        }
+    }
+
+
+    /**
+     * Adds or removes all occurrences counted by another CourseCounts.
+     *
+     * @param other CourseCounts to add.
+     * @param sign 1 to add, -1 to remove.
+     */
+    void add(CourseCounts other, int sign) {
+        other.counts.forEach((courseId, count) -> add(courseId, sign * count));
+    }
+
+
+    /**
+     * Returns true if the course appears at least once.
+     *
+     * @param courseId GroupId of the course.
+     * @return boolean is the course counted.
+     */
+    boolean contains(String courseId) {
+        return counts.containsKey(courseId);
+    }
+
+
+    /**
+     * Returns the counted course groupIds.
+     *
+     * @return Set<String> view of the course groupIds.
+     */
+    Set<String> getCourseIds() {
+        return counts.keySet();
+    }
+
+
+    private void add(String courseId, int count) {
+        if (count <= 0 && !counts.containsKey(courseId)) {
+            return;
+        }
+        counts.merge(courseId, count, (oldCount, change) -> {
+            int newCount = oldCount + change;
+            return newCount > 0 ? newCount : null;
+        });
+    }
+}
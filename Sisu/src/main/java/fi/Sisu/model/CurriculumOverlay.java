@@ -0,0 +1,260 @@
+package fi.Sisu.model;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * The student's own changes to a shared curriculum tree: chosen courses,
+ * grades, and courses added to or removed from modules. Student files store
+ * this instead of a full copy of the study programme, and the programme is
+ * rebuilt by applying the overlay to a copy of the shared tree.
+ *
+ * Changes are stored by module groupId. If the same module is in several
+ * places of the tree, the changes apply to all of them.
+ */
+public class CurriculumOverlay {
+
+    /**
+     * Changes made to a single module.
+     */
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    public static class ModuleOverlay {
+        @JsonProperty("chosenCourses")
+        private HashSet<String> chosenCourses = new HashSet<>();
+
+        @JsonProperty("grades")
+        private HashMap<String, String> grades = new HashMap<>();
+
+        @JsonProperty("addedCourses")
+        private ArrayList<Course> addedCourses = new ArrayList<>();
+
+        @JsonProperty("removedCourses")
+        private HashSet<String> removedCourses = new HashSet<>();
+
+        public ModuleOverlay() {
+            // Empty constructor for jackson
+        }
+
+        @JsonIgnore
+        public boolean isEmpty() {
+            return chosenCourses.isEmpty() && grades.isEmpty()
+                && addedCourses.isEmpty() && removedCourses.isEmpty();
+        }
+
+        /**
+         * Returns true if both overlays make the same changes.
+         *
+         * @param other ModuleOverlay to compare with.
+         * @return boolean are the changes the same.
+         */
+        public boolean isSameAs(ModuleOverlay other) {
+            return chosenCourses.equals(other.chosenCourses)
+                && grades.equals(other.grades)
+                && removedCourses.equals(other.removedCourses)
+                && getAddedGrades().equals(other.getAddedGrades());
+        }
+
+        private HashMap<String, String> getAddedGrades() {
+            HashMap<String, String> addedGrades = new HashMap<>();
+            addedCourses.forEach(course -> addedGrades.put(course.getGroupId(), course.getGrade()));
+            return addedGrades;
+        }
+    }
+
+    /**
+     * GroupId of the curriculum (the study programme) the overlay is for.
+     */
+    @JsonProperty("curriculumGroupId")
+    private String curriculumGroupId;
+
+    /**
+     * Version of the curriculum the overlay was made against, see
+     * CurriculumStore. Overlays saved before versions have none.
+     */
+    @JsonProperty("curriculumVersion")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String curriculumVersion;
+
+    /**
+     * Changes by module groupId. Unchanged modules are left out.
+     */
+    @JsonProperty("modules")
+    private HashMap<String, ModuleOverlay> modules = new HashMap<>();
+
+    public CurriculumOverlay() {
+        // Empty constructor for jackson
+    }
+
+    public CurriculumOverlay(String curriculumGroupId) {
+        this.curriculumGroupId = curriculumGroupId;
+    }
+
+    public String getCurriculumGroupId() {
+        return curriculumGroupId;
+    }
+
+    public String getCurriculumVersion() {
+        return curriculumVersion;
+    }
+
+    public void setCurriculumVersion(String curriculumVersion) {
+        this.curriculumVersion = curriculumVersion;
+    }
+
+    public HashMap<String, ModuleOverlay> getModules() {
+        return modules;
+    }
+
+
+    /**
+     * Computes the changes the student has made to the curriculum.
+     *
+     * @param programme SisuNode study programme of the student.
+     * @param curriculum CompactProgrammeTree shared curriculum of the programme.
+     * @return Optional<CurriculumOverlay> changes of the student, empty if
+     *         the programme has modules which are not in the curriculum,
+     *         or the copies of a module have different changes.
+     */
+    public static Optional<CurriculumOverlay> diff(SisuNode programme, CompactProgrammeTree curriculum) {
+        CurriculumOverlay overlay = new CurriculumOverlay(curriculum.getGroupId());
+        HashSet<String> seenModules = new HashSet<>();
+
+        for (SisuNode module : getAllNodes(programme)) {
+            int curriculumModule = curriculum.findModule(module.getGroupId());
+            // The curriculum must have every module the student has loaded.
+            if (curriculumModule < 0 || (curriculum.isStub(curriculumModule) && !module.isStub())) {
+                return Optional.empty();
+            }
+
+            ModuleOverlay changes = diffModule(module, curriculum, curriculumModule);
+            if (!seenModules.add(module.getGroupId())) {
+                ModuleOverlay previous = overlay.modules.getOrDefault(
+                    module.getGroupId(), new ModuleOverlay());
+                if (!changes.isSameAs(previous)) {
+                    return Optional.empty();
+                }
+                continue;
+            }
+            if (!changes.isEmpty()) {
+                overlay.modules.put(module.getGroupId(), changes);
+            }
+        }
+        return Optional.of(overlay);
+    }
+
+
+    /**
+     * Applies the changes to a copy of the curriculum tree. Changes to
+     * modules which are not in the tree are skipped.
+     *
+     * @param programme SisuNode copy of the curriculum tree, modified in place.
+     * @return SisuNode the study programme of the student.
+     */
+    public SisuNode applyTo(SisuNode programme) {
+        for (Map.Entry<String, ModuleOverlay> entry : modules.entrySet()) {
+            List<SisuNode> nodes = programme.findAllNodesInTree(entry.getKey());
+            if (nodes.isEmpty()) {
+                System.err.println("Module " + entry.getKey() + " is not in curriculum "
+                    + curriculumGroupId + ", its changes were skipped.");
+                continue;
+            }
+
+            ModuleOverlay changes = entry.getValue();
+            for (SisuNode node : nodes) {
+                changes.removedCourses.forEach(node::removeChildCourse);
+                for (Course course : changes.addedCourses) {
+                    node.addChildCourse(new Course(course));
+                }
+                changes.grades.forEach((courseId, grade) -> {
+                    Course course = node.findCourse(courseId);
+                    if (course != null) {
+                        course.setGrade(grade);
+                    }
+                });
+                if (!changes.chosenCourses.isEmpty()) {
+                    node.setChosenCourses(new HashSet<>(changes.chosenCourses));
+                }
+            }
+        }
+        return programme;
+    }
+
+
+    /**
+     * Returns a copy of a study programme without the student's data: no
+     * grades and no chosen courses. Mandatory courses are kept.
+     *
+     * @param programme SisuNode study programme.
+     * @return SisuNode copy usable as a shared curriculum tree.
+     */
+    public static SisuNode withoutStudentData(SisuNode programme) {
+        SisuNode copy = new SisuNode(programme);
+        for (SisuNode node : getAllNodes(copy)) {
+            node.setChosenCourses(new HashSet<>());
+            for (Course course : node.getChildCourses().values()) {
+                if (course != null) {
+                    course.setGrade(null);
+                }
+            }
+        }
+        return copy;
+    }
+
+
+    private static ModuleOverlay diffModule(
+        SisuNode module, 
+        CompactProgrammeTree curriculum, 
+        int curriculumModule) 
+        {
+        ModuleOverlay changes = new ModuleOverlay();
+
+        for (Map.Entry<String, Course> entry : module.getChildCourses().entrySet()) {
+            Course course = entry.getValue();
+            if (!curriculum.hasChildCourse(curriculumModule, entry.getKey())) {
+                if (course != null) {
+                    changes.addedCourses.add(new Course(course));
+                }
+            }
+            else if (course != null && course.getGrade() != null) {
+                changes.grades.put(entry.getKey(), course.getGrade());
+            }
+        }
+        for (String courseId : curriculum.getChildCourseIds(curriculumModule)) {
+            if (!module.getChildCourses().containsKey(courseId)) {
+                changes.removedCourses.add(courseId);
+            }
+        }
+        if (!module.getChosenCourses().equals(curriculum.getChosenCourses(curriculumModule))) {
+            changes.chosenCourses.addAll(module.getChosenCourses());
+        }
+        return changes;
+    }
+
+
+    /**
+     * Returns all nodes of a tree in depth first order.
+     */
+    private static List<SisuNode> getAllNodes(SisuNode root) {
+        List<SisuNode> nodes = new ArrayList<>();
+        ArrayDeque<SisuNode> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            SisuNode node = stack.pop();
+            nodes.add(node);
+            List<SisuNode> children = node.getChildModules();
+            for (int i = children.size() - 1; i >= 0; i--) {
+                stack.push(children.get(i));
+            }
+        }
+        return nodes;
+    }
+}
@@ -1,9 +1,17 @@
 package fi.Sisu.model;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 /**
@@ -20,10 +28,34 @@ import com.fasterxml.jackson.annotation.JsonProperty;
  * one node can be used for all three types of nodes. This reduces complexity
  * and makes the code more readable and maintainable.
  * 
+ * The root node of a tree keeps an index of the modules and courses in the
+ * tree, so the find methods don't walk the whole tree. The index is built on
+ * the first lookup and updated when modules and courses are added or deleted
+ * with the methods of this class.
+ * 
+ * Every node also counts the mandatory and chosen courses of its subtree, so
+ * checking if a course is mandatory anywhere below a node doesn't walk the
+ * subtree either. The counts are computed when first needed and then updated
+ * up the parent chain when the sets change through the methods of this
+ * class. The same is done for the completed and chosen credits of the
+ * subtree, which also follow the grades and credits of the courses. The
+ * child collections are changed only through the methods of this class, the
+ * getters return unmodifiable views of them.
+ * 
+ * Most modules have no child modules, no chosen courses or no courses at
+ * all, so empty child collections are shared empty ones until something is
+ * added to them.
+ * 
  * @author Kilian Kugge
  * @author Antti Hakkarainen (rewrite to one class)
  */
 public class SisuNode {
+    // Shared empty collections, see writableChildModules etc.
+    private static final List<SisuNode> NO_MODULES = Collections.emptyList();
+    private static final List<String> NO_MODULE_IDS = Collections.emptyList();
+    private static final Map<String, Course> NO_COURSES = Collections.emptyMap();
+    private static final Set<String> NO_COURSE_IDS = Collections.emptySet();
+
     /**
      * Name of the node.
      */
@@ -46,7 +78,7 @@ public class SisuNode {
      * List of child nodes.
      */
     @JsonProperty("childModules")
-    private ArrayList<SisuNode> childModules;
+    private List<SisuNode> childModules = NO_MODULES;
 
     /**
      * List of child node groupIds. This is used because the process of retrieving
@@ -54,25 +86,25 @@ public class SisuNode {
      * the actual node.
      */
     @JsonProperty("childModuleIds")
-    private ArrayList<String> childModuleIds;
+    private List<String> childModuleIds = NO_MODULE_IDS;
 
     /**
      * Map of child courses. Key is the groupId of the course.
      */
     @JsonProperty("childCourses")
-    private HashMap<String, Course> childCourses;
+    private Map<String, Course> childCourses = NO_COURSES;
 
     /**
      * List of mandatory course's groupIds.
      */
     @JsonProperty("mandatoryCourses")
-    private HashSet<String> mandatoryCourses;
+    private Set<String> mandatoryCourses = NO_COURSE_IDS;
 
     /**
      * List of chosen course's groupIds.
      */
     @JsonProperty("chosenCourses")
-    private HashSet<String> chosenCourses;
+    private Set<String> chosenCourses = NO_COURSE_IDS;
 
     /**
      * Description of the node.
@@ -98,13 +130,50 @@ public class SisuNode {
     @JsonProperty("targetCredits")
     private int targetCredits;
 
+    /**
+     * True if the child modules and courses of the node have not been loaded
+     * yet. Stubs know only the groupIds of their children, and they are
+     * filled in when the user opens them (lazy tree loading).
+     */
+    @JsonProperty("stub")
+    private boolean stub;
+
+    /**
+     * Module which contains this node, null for the root of a tree.
+     */
+    @JsonIgnore
+    private SisuNode parent;
+
+    /**
+     * Index of the tree, only kept by the root. Null until it is needed.
+     */
+    @JsonIgnore
+    private SisuNodeIndex index;
+
+    /**
+     * Mandatory and chosen courses of the subtree starting from this node.
+     * Null until they are needed. If a node has them, so do all of its child
+     * modules.
+     */
+    @JsonIgnore
+    private CourseCounts subtreeMandatoryCourses;
+    @JsonIgnore
+    private CourseCounts subtreeChosenCourses;
+
+    /**
+     * Credits of the completed courses, and of the chosen and mandatory
+     * courses, in the subtree starting from this node. Valid only when
+     * creditsComputed is true, which works like the subtree counts.
+     */
+    @JsonIgnore
+    private int completedCredits;
+    @JsonIgnore
+    private int chosenCredits;
+    @JsonIgnore
+    private boolean creditsComputed;
+
     // Empty constructor for jackson
     public SisuNode() {
-        childCourses = new HashMap<>();
-        childModules = new ArrayList<>();
-        childModuleIds = new ArrayList<>();
-        mandatoryCourses = new HashSet<String>();
-        chosenCourses = new HashSet<String>();
     }
 
     public SisuNode(String groupId) {
@@ -112,6 +181,39 @@ public class SisuNode {
         this.groupId = groupId;
     }
 
+    /**
+     * Copy constructor. Child modules and courses are copied too, so the copy
+     * can be modified without affecting the original.
+     * 
+     * @param other Node to be copied.
+     */
+    public SisuNode(SisuNode other) {
+        this.name = other.name;
+        this.abbreviation = other.abbreviation;
+        this.groupId = other.groupId;
+        for (SisuNode child : other.childModules) {
+            SisuNode copy = new SisuNode(child);
+            copy.parent = this;
+            writableChildModules().add(copy);
+        }
+        if (!other.childModuleIds.isEmpty()) {
+            this.childModuleIds = new ArrayList<>(other.childModuleIds);
+        }
+        other.childCourses.forEach((id, course) -> 
+            writableChildCourses().put(id, course == null ? null : new Course(course)));
+        if (!other.mandatoryCourses.isEmpty()) {
+            this.mandatoryCourses = new HashSet<>(other.mandatoryCourses);
+        }
+        if (!other.chosenCourses.isEmpty()) {
+            this.chosenCourses = new HashSet<>(other.chosenCourses);
+        }
+        this.contentDescription = other.contentDescription;
+        this.learningOutcomes = other.learningOutcomes;
+        this.prerequisites = other.prerequisites;
+        this.targetCredits = other.targetCredits;
+        this.stub = other.stub;
+    }
+
     /**
      * Searches for a node with the given groupId from the entire SisuNode tree.
      * 
@@ -119,20 +221,24 @@ public class SisuNode {
      * @return Node with the given groupId, or null if not found.
      */
     public SisuNode findNodeInTree(String groupId) {
+        List<SisuNode> nodes = findFromIndex(
+            index -> index.getNodes(groupId),
+            node -> node.groupId != null && node.groupId.equals(groupId));
 
-        if (this.groupId.equals(groupId)) {
-            return this;
-        }
-
-        for (SisuNode module : childModules) {
-            SisuNode node = module.findNodeInTree(groupId);
-            if (node != null) {
-                return node;
-            }
-        }
-
-        return null;
+        return nodes.isEmpty() ? null : nodes.get(0);
+    }
 
+    /**
+     * Searches for all nodes with the given groupId from the subtree starting
+     * from this node. The same module can be in several places of the tree.
+     * 
+     * @param groupId GroupId of the nodes to be searched for.
+     * @return List<SisuNode> nodes in depth first order, empty if not found.
+     */
+    public List<SisuNode> findAllNodesInTree(String groupId) {
+        return findFromIndex(
+            index -> index.getNodes(groupId),
+            node -> node.groupId != null && node.groupId.equals(groupId));
     }
 
     /**
@@ -145,17 +251,8 @@ public class SisuNode {
      *         course is not found.
      */
     public String findCourseParentGroupId(String courseId) {
-        if (childCourses.containsKey(courseId)) {
-            return groupId;
-        }
-
-        for (SisuNode module : childModules) {
-            String parentNodeGroupId = module.findCourseParentGroupId(courseId);
-            if (parentNodeGroupId != null) {
-                return parentNodeGroupId;
-            }
-        }
-        return null;
+        List<SisuNode> parents = findCourseParents(courseId);
+        return parents.isEmpty() ? null : parents.get(0).groupId;
     }
 
     /**
@@ -179,18 +276,317 @@ public class SisuNode {
      * @return Course with the given groupId, or null if not found.
      */
     public Course findCourseInTree(String groupId) {
-        Course course = findCourse(groupId);
-        if (course != null) {
-            return course;
+        List<SisuNode> parents = findCourseParents(groupId);
+        return parents.isEmpty() ? null : parents.get(0).childCourses.get(groupId);
+    }
+
+    /**
+     * Returns the modules containing the given course in the subtree starting
+     * from this node, in depth first order.
+     * 
+     * @param courseId GroupId of the course.
+     * @return List<SisuNode> parent modules of the course, empty if not found.
+     */
+    private List<SisuNode> findCourseParents(String courseId) {
+        return findFromIndex(
+            index -> index.getCourseParents(courseId),
+            node -> node.childCourses.containsKey(courseId));
+    }
+
+    /**
+     * Looks nodes up from the index of the tree, and returns the ones which
+     * are in the subtree starting from this node. The index is built if it
+     * doesn't exist yet, and rebuilt if it is out of date.
+     * 
+     * @param lookup Function which returns the indexed nodes.
+     * @param isValid Predicate which checks that an indexed node still matches.
+     * @return List<SisuNode> found nodes in depth first order.
+     */
+    private List<SisuNode> findFromIndex(
+        Function<SisuNodeIndex, List<SisuNode>> lookup,
+        Predicate<SisuNode> isValid)
+        {
+        SisuNode root = getRoot();
+        if (root.index == null) {
+            root.index = new SisuNodeIndex(root);
         }
 
-        for (SisuNode module : childModules) {
-            course = module.findCourseInTree(groupId);
-            if (course != null) {
-                return course;
+        List<SisuNode> found = new ArrayList<>();
+        for (SisuNode node : lookup.apply(root.index)) {
+            // Walk up to the root, to check that the node is still in this
+            // tree and whether it is in the subtree of this node.
+            boolean inSubtree = false;
+            SisuNode ancestor = node;
+            while (true) {
+                inSubtree |= ancestor == this;
+                if (ancestor.parent == null) {
+                    break;
+                }
+                ancestor = ancestor.parent;
+            }
+
+            // The tree has been changed without updating the index.
+            if (ancestor != root || !isValid.test(node)) {
+                root.index = null;
+                return findFromIndex(lookup, isValid);
+            }
+            if (inSubtree) {
+                found.add(node);
             }
         }
-        return null;
+        return found;
+    }
+
+    /**
+     * Returns the root of the tree this node is in.
+     * 
+     * @return SisuNode root of the tree, this node if it has no parent.
+     */
+    private SisuNode getRoot() {
+        SisuNode node = this;
+        while (node.parent != null) {
+            node = node.parent;
+        }
+        return node;
+    }
+
+    /**
+     * Drops the index of the tree, it is rebuilt on the next lookup.
+     */
+    private void invalidateIndex() {
+        getRoot().index = null;
+    }
+
+    /**
+     * Makes a module a child of this node, it stops being a root. Also used
+     * by SisuNodeIndex, so trees deserialized from json get their parents.
+     * 
+     * @param module Child module.
+     */
+    void adoptChildModule(SisuNode module) {
+        module.parent = this;
+        module.index = null;
+    }
+
+    /**
+     * Computes the mandatory and chosen course counts of the subtree, if
+     * they haven't been computed yet. Child modules reuse their own counts.
+     */
+    private void ensureSubtreeCounts() {
+        if (subtreeMandatoryCourses != null) {
+            return;
+        }
+        CourseCounts mandatory = new CourseCounts();
+        CourseCounts chosen = new CourseCounts();
+        mandatory.add(mandatoryCourses, 1);
+        chosen.add(chosenCourses, 1);
+
+        for (SisuNode child : childModules) {
+            adoptChildModule(child);
+            child.ensureSubtreeCounts();
+            mandatory.add(child.subtreeMandatoryCourses, 1);
+            chosen.add(child.subtreeChosenCourses, 1);
+        }
+        subtreeMandatoryCourses = mandatory;
+        subtreeChosenCourses = chosen;
+    }
+
+    /**
+     * Applies a change of this node's mandatory or chosen courses to the
+     * subtree counts of this node and its parents. Stops at the first node
+     * without counts, because its parents can't have them either.
+     * 
+     * @param mandatory CourseCounts of mandatory courses added or removed.
+     * @param chosen CourseCounts of chosen courses added or removed.
+     * @param sign 1 if the courses were added, -1 if removed.
+     */
+    private void changeSubtreeCounts(CourseCounts mandatory, CourseCounts chosen, int sign) {
+        for (SisuNode node = this; node != null && node.subtreeMandatoryCourses != null; node = node.parent) {
+            node.subtreeMandatoryCourses.add(mandatory, sign);
+            node.subtreeChosenCourses.add(chosen, sign);
+        }
+    }
+
+    /**
+     * Applies a change of this node's mandatory or chosen course set to the
+     * subtree counts.
+     * 
+     * @param mandatory Collection of mandatory course groupIds added or removed.
+     * @param chosen Collection of chosen course groupIds added or removed.
+     * @param sign 1 if the courses were added, -1 if removed.
+     */
+    private void changeSubtreeCounts(Collection<String> mandatory, Collection<String> chosen, int sign) {
+        if (subtreeMandatoryCourses == null) {
+            return;
+        }
+        CourseCounts mandatoryCounts = new CourseCounts();
+        mandatoryCounts.add(mandatory, 1);
+        CourseCounts chosenCounts = new CourseCounts();
+        chosenCounts.add(chosen, 1);
+        changeSubtreeCounts(mandatoryCounts, chosenCounts, sign);
+    }
+
+    /**
+     * Drops the subtree counts and credit totals of this node and its
+     * parents, they are computed again when needed.
+     */
+    private void invalidateSubtreeTotals() {
+        for (SisuNode node = this; node != null; node = node.parent) {
+            node.subtreeMandatoryCourses = null;
+            node.subtreeChosenCourses = null;
+            node.creditsComputed = false;
+        }
+    }
+
+    /**
+     * Computes the credit totals of the subtree, if they haven't been
+     * computed yet. Child modules reuse their own totals. Courses are told
+     * their parent, so they report later grade and credit changes.
+     */
+    private void ensureCredits() {
+        if (creditsComputed) {
+            return;
+        }
+        int completed = 0;
+        int chosen = 0;
+        for (String courseId : childCourses.keySet()) {
+            attachCourse(childCourses.get(courseId));
+            completed += getCompletedCreditsOf(courseId);
+            chosen += getChosenCreditsOf(courseId);
+        }
+
+        for (SisuNode child : childModules) {
+            adoptChildModule(child);
+            child.ensureCredits();
+            completed += child.completedCredits;
+            chosen += child.chosenCredits;
+        }
+        completedCredits = completed;
+        chosenCredits = chosen;
+        creditsComputed = true;
+    }
+
+    /**
+     * Runs a change which affects the given child courses of this node, and
+     * applies its effect to the credit totals of this node and its parents.
+     * Used by Course when its grade or credits change.
+     * 
+     * @param courseIds Collection of distinct course groupIds affected.
+     * @param change Runnable which makes the change.
+     */
+    void changeCourses(Collection<String> courseIds, Runnable change) {
+        if (!creditsComputed) {
+            change.run();
+            return;
+        }
+        int completedBefore = 0;
+        int chosenBefore = 0;
+        for (String courseId : courseIds) {
+            completedBefore += getCompletedCreditsOf(courseId);
+            chosenBefore += getChosenCreditsOf(courseId);
+        }
+
+        change.run();
+
+        int completedAfter = 0;
+        int chosenAfter = 0;
+        for (String courseId : courseIds) {
+            completedAfter += getCompletedCreditsOf(courseId);
+            chosenAfter += getChosenCreditsOf(courseId);
+        }
+        if (completedAfter == completedBefore && chosenAfter == chosenBefore) {
+            return;
+        }
+        for (SisuNode node = this; node != null && node.creditsComputed; node = node.parent) {
+            node.completedCredits += completedAfter - completedBefore;
+            node.chosenCredits += chosenAfter - chosenBefore;
+        }
+    }
+
+    private int getCompletedCreditsOf(String courseId) {
+        Course course = childCourses.get(courseId);
+        return course != null && course.isCompleted() ? course.getTargetCredits() : 0;
+    }
+
+    private int getChosenCreditsOf(String courseId) {
+        Course course = childCourses.get(courseId);
+        if (course == null
+            || !(chosenCourses.contains(courseId) || mandatoryCourses.contains(courseId))) {
+            return 0;
+        }
+        return course.getTargetCredits();
+    }
+
+    /**
+     * Puts a course to the child courses, replacing the course with the same
+     * groupId.
+     * 
+     * @param course Course to put.
+     */
+    private void putChildCourse(Course course) {
+        changeCourses(List.of(course.getGroupId()), () -> 
+            detachCourse(writableChildCourses().put(course.getGroupId(), course)));
+        attachCourse(course);
+    }
+
+    private void attachCourse(Course course) {
+        if (course != null) {
+            course.setParent(this);
+        }
+    }
+
+    private void detachCourse(Course course) {
+        if (course != null) {
+            course.setParent(null);
+        }
+    }
+
+    /**
+     * Returns the child modules for adding to them, replaces the shared empty
+     * list with a list of this node's own.
+     */
+    private List<SisuNode> writableChildModules() {
+        if (childModules == NO_MODULES) {
+            childModules = new ArrayList<>();
+        }
+        return childModules;
+    }
+
+    private List<String> writableChildModuleIds() {
+        if (childModuleIds == NO_MODULE_IDS) {
+            childModuleIds = new ArrayList<>();
+        }
+        return childModuleIds;
+    }
+
+    private Map<String, Course> writableChildCourses() {
+        if (childCourses == NO_COURSES) {
+            childCourses = new HashMap<>();
+        }
+        return childCourses;
+    }
+
+    private Set<String> writableMandatoryCourses() {
+        if (mandatoryCourses == NO_COURSE_IDS) {
+            mandatoryCourses = new HashSet<>();
+        }
+        return mandatoryCourses;
+    }
+
+    private Set<String> writableChosenCourses() {
+        if (chosenCourses == NO_COURSE_IDS) {
+            chosenCourses = new HashSet<>();
+        }
+        return chosenCourses;
+    }
+
+    /**
+     * Returns the union of two sets of course groupIds.
+     */
+    private static HashSet<String> union(Set<String> first, Set<String> second) {
+        HashSet<String> union = new HashSet<>(first);
+        union.addAll(second);
+        return union;
     }
 
     /**
@@ -211,15 +607,36 @@ public class SisuNode {
      *         false if course is mandatory.
      */
     public void deleteCourse(String groupId, HashSet<String> mandatories) {
-        mandatories.addAll(this.getAllMandatoryCourses());
-        if (mandatories.contains(groupId)) {
+        if (mandatories.contains(groupId) || hasMandatoryCourse(groupId)) {
             System.err.println("Trying to delete or move mandatory course. You can't do that! Aborting!");
             return;
         }
-        this.getChildCourses().remove(groupId);
-        for (SisuNode node : this.getChildModules()) {
-            node.deleteCourse(groupId, mandatories);
+
+        // The index knows which modules contain the course.
+        for (SisuNode node : findCourseParents(groupId)) {
+            node.removeChildCourse(groupId);
+        }
+    }
+
+    /**
+     * Removes a course from the child courses of this node only. Mandatory
+     * courses are not checked.
+     * 
+     * @param courseId GroupId of the course.
+     * @return Course removed course, or null if it was not a child course.
+     */
+    public Course removeChildCourse(String courseId) {
+        if (!childCourses.containsKey(courseId)) {
+            return null;
         }
+        Course removed = childCourses.get(courseId);
+        changeCourses(List.of(courseId), () -> detachCourse(childCourses.remove(courseId)));
+
+        SisuNodeIndex rootIndex = getRoot().index;
+        if (rootIndex != null) {
+            rootIndex.removeCourse(this, courseId);
+        }
+        return removed;
     }
 
     public String getName() {
@@ -242,16 +659,38 @@ public class SisuNode {
         return groupId;
     }
 
-    public ArrayList<SisuNode> getChildModules() {
-        return childModules;
+    public List<SisuNode> getChildModules() {
+        return Collections.unmodifiableList(childModules);
     }
 
     public void setChildModules(ArrayList<SisuNode> childModules) {
-        this.childModules = childModules;
+        this.childModules = childModules.isEmpty() ? NO_MODULES : childModules;
+        childModules.forEach(this::adoptChildModule);
+        invalidateIndex();
+        invalidateSubtreeTotals();
     }
 
     public void addChildModule(SisuNode module) {
-        childModules.add(module);
+        writableChildModules().add(module);
+        adoptChildModule(module);
+
+        SisuNodeIndex rootIndex = getRoot().index;
+        if (rootIndex != null && !rootIndex.addSubtree(module)) {
+            invalidateIndex();
+        }
+
+        if (subtreeMandatoryCourses != null) {
+            module.ensureSubtreeCounts();
+            changeSubtreeCounts(module.subtreeMandatoryCourses, module.subtreeChosenCourses, 1);
+        }
+
+        if (creditsComputed) {
+            module.ensureCredits();
+            for (SisuNode node = this; node != null && node.creditsComputed; node = node.parent) {
+                node.completedCredits += module.completedCredits;
+                node.chosenCredits += module.chosenCredits;
+            }
+        }
     }
 
     /**
@@ -260,31 +699,39 @@ public class SisuNode {
      * @param modules List of modules to be added.
      */
     public void addChildModules(ArrayList<SisuNode> nodes) {
-        childModules.addAll(nodes);
+        nodes.forEach(this::addChildModule);
     }
 
-    public ArrayList<String> getChildModuleIds() {
-        return childModuleIds;
+    public List<String> getChildModuleIds() {
+        return Collections.unmodifiableList(childModuleIds);
     }
 
     public void setChildModuleIds(ArrayList<String> childModuleIds) {
-        this.childModuleIds = childModuleIds;
+        this.childModuleIds = childModuleIds.isEmpty() ? NO_MODULE_IDS : childModuleIds;
     }
 
     public void addChildModuleId(String moduleId) {
-        childModuleIds.add(moduleId);
+        writableChildModuleIds().add(moduleId);
     }
 
-    public HashMap<String, Course> getChildCourses() {
-        return childCourses;
+    public Map<String, Course> getChildCourses() {
+        return Collections.unmodifiableMap(childCourses);
     }
 
     public void setChildCourses(HashMap<String, Course> childCourses) {
-        this.childCourses = childCourses;
+        this.childCourses = childCourses.isEmpty() ? NO_COURSES : childCourses;
+        childCourses.values().forEach(this::attachCourse);
+        invalidateIndex();
+        invalidateSubtreeTotals();
     }
 
     public void addChildCourse(Course course) {
-        childCourses.put(course.getGroupId(), course);
+        putChildCourse(course);
+
+        SisuNodeIndex rootIndex = getRoot().index;
+        if (rootIndex != null && !rootIndex.addCourse(this, course.getGroupId())) {
+            invalidateIndex();
+        }
     }
 
     /**
@@ -297,7 +744,7 @@ public class SisuNode {
         if (course == null || !childCourses.containsKey(course.getGroupId())) {
             return;
         }
-        childCourses.put(course.getGroupId(), course);
+        putChildCourse(course);
     }
 
     /**
@@ -312,40 +759,58 @@ public class SisuNode {
         }
     }
 
-    public HashSet<String> getMandatoryCourses() {
-        return mandatoryCourses;
+    public Set<String> getMandatoryCourses() {
+        return Collections.unmodifiableSet(mandatoryCourses);
     }
 
     public void setMandatoryCourses(HashSet<String> mandatoryCourses) {
-        this.mandatoryCourses = mandatoryCourses;
+        changeSubtreeCounts(this.mandatoryCourses, List.of(), -1);
+        changeCourses(union(this.mandatoryCourses, mandatoryCourses), 
+            () -> this.mandatoryCourses = mandatoryCourses.isEmpty() ? NO_COURSE_IDS : mandatoryCourses);
+        changeSubtreeCounts(mandatoryCourses, List.of(), 1);
     }
 
     public void addMandatoryCourse(String courseId) {
-        if (this.childCourses.containsKey(courseId)) {
-            mandatoryCourses.add(courseId);
+        if (this.childCourses.containsKey(courseId) && !mandatoryCourses.contains(courseId)) {
+            changeCourses(List.of(courseId), () -> writableMandatoryCourses().add(courseId));
+            changeSubtreeCounts(List.of(courseId), List.of(), 1);
         }
     }
 
     public boolean removeMandatoryCourse(String courseId) {
-        return mandatoryCourses.remove(courseId);
+        if (!mandatoryCourses.contains(courseId)) {
+            return false;
+        }
+        changeCourses(List.of(courseId), () -> mandatoryCourses.remove(courseId));
+        changeSubtreeCounts(List.of(courseId), List.of(), -1);
+        return true;
     }
 
-    public HashSet<String> getChosenCourses() {
-        return chosenCourses;
+    public Set<String> getChosenCourses() {
+        return Collections.unmodifiableSet(chosenCourses);
     }
 
     public void setChosenCourses(HashSet<String> chosenCourses) {
-        this.chosenCourses = chosenCourses;
+        changeSubtreeCounts(List.of(), this.chosenCourses, -1);
+        changeCourses(union(this.chosenCourses, chosenCourses), 
+            () -> this.chosenCourses = chosenCourses.isEmpty() ? NO_COURSE_IDS : chosenCourses);
+        changeSubtreeCounts(List.of(), chosenCourses, 1);
     }
 
     public void addChosenCourse(String courseId) {
-        if (this.childCourses.containsKey(courseId)) {
-            this.chosenCourses.add(courseId);
+        if (this.childCourses.containsKey(courseId) && !this.chosenCourses.contains(courseId)) {
+            changeCourses(List.of(courseId), () -> writableChosenCourses().add(courseId));
+            changeSubtreeCounts(List.of(), List.of(courseId), 1);
         }
     }
 
     public boolean removeChosenCourse(String courseId) {
-        return this.chosenCourses.remove(courseId);
+        if (!this.chosenCourses.contains(courseId)) {
+            return false;
+        }
+        changeCourses(List.of(courseId), () -> this.chosenCourses.remove(courseId));
+        changeSubtreeCounts(List.of(), List.of(courseId), -1);
+        return true;
     }
 
     public String getContentDescription() {
@@ -382,6 +847,7 @@ public class SisuNode {
 
     public void setGroupId(String groupId) {
         this.groupId = groupId;
+        invalidateIndex();
     }
 
     @Override
@@ -395,12 +861,93 @@ public class SisuNode {
      * @return set of mandatory course groupId's or empty set if none is found.
      */
     public HashSet<String> getAllMandatoryCourses() {
-        HashSet<String> set = new HashSet<>();
-        set.addAll(this.getMandatoryCourses());
+        ensureSubtreeCounts();
+        return new HashSet<>(subtreeMandatoryCourses.getCourseIds());
+    }
+
+    /**
+     * Returns true if the course is mandatory in this node or any of its
+     * child modules.
+     * @param courseId GroupId of the course.
+     * @return boolean is the course mandatory in the subtree.
+     */
+    public boolean hasMandatoryCourse(String courseId) {
+        ensureSubtreeCounts();
+        return subtreeMandatoryCourses.contains(courseId);
+    }
+
+    /**
+     * Returns all chosen courses of the node and its children.
+     * @return set of chosen course groupId's or empty set if none is found.
+     */
+    @JsonIgnore
+    public HashSet<String> getAllChosenCourses() {
+        ensureSubtreeCounts();
+        return new HashSet<>(subtreeChosenCourses.getCourseIds());
+    }
 
-        for (SisuNode node: this.getChildModules()) {
-            set.addAll(node.getAllMandatoryCourses());
+    /**
+     * Returns true if the course is chosen in this node or any of its child
+     * modules.
+     * @param courseId GroupId of the course.
+     * @return boolean is the course chosen in the subtree.
+     */
+    public boolean hasChosenCourse(String courseId) {
+        ensureSubtreeCounts();
+        return subtreeChosenCourses.contains(courseId);
+    }
+
+    /**
+     * Returns the credits of the completed courses of the node and its
+     * children. Failed courses are not counted.
+     * @return int completed credits of the subtree.
+     */
+    @JsonIgnore
+    public int getCompletedCredits() {
+        ensureCredits();
+        return completedCredits;
+    }
+
+    /**
+     * Returns the credits of the chosen and mandatory courses of the node
+     * and its children.
+     * @return int chosen credits of the subtree.
+     */
+    @JsonIgnore
+    public int getChosenCredits() {
+        ensureCredits();
+        return chosenCredits;
+    }
+
+    public boolean isStub() {
+        return stub;
+    }
+
+    public void setStub(boolean stub) {
+        this.stub = stub;
+    }
+
+    /**
+     * Fills a stub node with the child modules and courses of the same node
+     * loaded from Sisu. Chosen courses, grades and courses added by the user
+     * are kept.
+     * 
+     * @param loaded The same node with its children loaded.
+     */
+    public void populateFrom(SisuNode loaded) {
+        childModules = loaded.getChildModules().isEmpty() ? NO_MODULES : new ArrayList<>(loaded.getChildModules());
+        childModules.forEach(this::adoptChildModule);
+
+        for (Course course : loaded.getChildCourses().values()) {
+            Course existing = childCourses.get(course.getGroupId());
+            if (existing != null && existing.getGrade() != null) {
+                course.setGrade(existing.getGrade());
+            }
+            detachCourse(writableChildCourses().put(course.getGroupId(), course));
+            attachCourse(course);
         }
-        return set;
+        stub = false;
+        invalidateIndex();
+        invalidateSubtreeTotals();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,135 @@
+package fi.Sisu.model;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Index of a SisuNode tree: modules by groupId and the parent modules of
+ * courses by course groupId. The index is kept by the root of the tree, so
+ * lookups don't have to walk through the whole tree.
+ *
+ * The same module or course can be in several places of the tree, so the
+ * index keeps a list of them in depth first order, which is the order the
+ * tree walks used to find them in.
+ */
+public class SisuNodeIndex {
+
+    private final HashMap<String, List<SisuNode>> nodes = new HashMap<>();
+    private final HashMap<String, List<SisuNode>> courseParents = new HashMap<>();
+
+
+    /**
+     * Builds the index of a tree.
+     *
+     * @param root Root of the tree.
+     */
+    SisuNodeIndex(SisuNode root) {
+        ArrayDeque<SisuNode> stack = new ArrayDeque<>();
+        stack.push(root);
+
+        while (!stack.isEmpty()) {
+            SisuNode node = stack.pop();
+            nodes.computeIfAbsent(node.getGroupId(), id -> new ArrayList<>(1)).add(node);
+            for (String courseId : node.getChildCourses().keySet()) {
+                courseParents.computeIfAbsent(courseId, id -> new ArrayList<>(1)).add(node);
+            }
+
+            // Pushed in reverse, so the first child is indexed first.
+            List<SisuNode> children = node.getChildModules();
+            for (int i = children.size() - 1; i >= 0; i--) {
+                node.adoptChildModule(children.get(i));
+                stack.push(children.get(i));
+            }
+        }
+    }
+
+
+    /**
+     * Returns the modules with the given groupId.
+     *
+     * @param groupId GroupId of the module.
+     * @return List<SisuNode> modules in depth first order, empty if none.
+     */
+    List<SisuNode> getNodes(String groupId) {
+        return nodes.getOrDefault(groupId, Collections.emptyList());
+    }
+
+
+    /**
+     * Returns the modules which contain the given course.
+     *
+     * @param courseId GroupId of the course.
+     * @return List<SisuNode> parent modules in depth first order, empty if none.
+     */
+    List<SisuNode> getCourseParents(String courseId) {
+        return courseParents.getOrDefault(courseId, Collections.emptyList());
+    }
+
+
+    /**
+     * Adds a subtree which has been added to the indexed tree. Fails if any
+     * module or course of the subtree is already in the index, because the
+     * depth first order can't be kept without rebuilding the index.
+     *
+     * @param subtree Root of the added subtree.
+     * @return boolean false if the index has to be rebuilt.
+     */
+    boolean addSubtree(SisuNode subtree) {
+        SisuNodeIndex added = new SisuNodeIndex(subtree);
+        for (String groupId : added.nodes.keySet()) {
+            if (nodes.containsKey(groupId)) {
+                return false;
+            }
+        }
+        for (String courseId : added.courseParents.keySet()) {
+            if (courseParents.containsKey(courseId)) {
+                return false;
+            }
+        }
+        nodes.putAll(added.nodes);
+        courseParents.putAll(added.courseParents);
+        return true;
+    }
+
+
+    /**
+     * Adds a course which has been added to a module of the indexed tree.
+     *
+     * @param parent Module the course was added to.
+     * @param courseId GroupId of the course.
+     * @return boolean false if the index has to be rebuilt.
+     */
+    boolean addCourse(SisuNode parent, String courseId) {
+        List<SisuNode> parents = courseParents.get(courseId);
+        if (parents == null) {
+            parents = new ArrayList<>(1);
+            parents.add(parent);
+            courseParents.put(courseId, parents);
+            return true;
+        }
+        // The course is somewhere else too, the order is not known.
+        return parents.contains(parent);
+    }
+
+
+    /**
+     * Removes a course which has been removed from a module of the indexed
+     * tree.
+     *
+     * @param parent Module the course was removed from.
+     * @param courseId GroupId of the course.
+     */
+    void removeCourse(SisuNode parent, String courseId) {
+        List<SisuNode> parents = courseParents.get(courseId);
+        if (parents == null) {
+            return;
+        }
+        parents.remove(parent);
+        if (parents.isEmpty()) {
+            courseParents.remove(courseId);
+        }
+    }
+}
@@ -3,6 +3,7 @@ package fi.Sisu.model;
 import java.util.HashSet;
 import java.util.Optional;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 /**
@@ -29,6 +30,19 @@ public class Student {
     @JsonProperty("studyProgramme")
     private SisuNode studyProgramme;
 
+    // Saved instead of studyProgramme when the curriculum of the programme
+    // is in the curriculum store. Only set on the student read from or
+    // written to the file.
+    @JsonProperty("curriculumOverlay")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private CurriculumOverlay curriculumOverlay;
+
+    // Sequence number of the last change applied from the student's change
+    // journal. Changes after it are replayed when the student is loaded.
+    @JsonProperty("journalSequence")
+    @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+    private long journalSequence;
+
     /**
      * Basic constructor for jackson to work with. Jackson Requires empty public
      * construcor.
@@ -138,42 +152,30 @@ public class Student {
     }
 
     /**
-     * Calculates the student's total completed course credits.
+     * Deletes a course from every module of the study programme. Mandatory
+     * courses are not deleted.
      * 
-     * @return Integer of the total count of credits.     
+     * @param courseGroupId String groupId of the course.
+     * @return True if the course was deleted, false if it was mandatory or not found.
      */
-    public Integer calculateTotalCompletedCredits() {  
-        return countCourseCredits(studyProgramme);
+    public boolean deleteCourse(String courseGroupId) {
+        if (studyProgramme.hasMandatoryCourse(courseGroupId)
+            || studyProgramme.findCourseInTree(courseGroupId) == null) {
+            return false;
+        }
 
+        studyProgramme.deleteCourse(courseGroupId, new HashSet<>());
+        return true;
     }
 
     /**
-     * Calculates the module's completed course credits recursively.
+     * Returns the student's total completed course credits. The study
+     * programme keeps the total up to date as grades change.
      * 
-     * @param module SisuNode
-     * @param totalCourseCredits Integer of the current count of credits.
-     * @return Integer of the current count of credits.
+     * @return Integer of the total count of credits.     
      */
-    private Integer countCourseCredits(SisuNode module) {
-        Integer totalCredits = 0;
-
-        // Accumulate credits for courses in the current module.
-        for (Course course : module.getChildCourses().values()) {
-            if (course.getGrade() != null) {
-                if (course.getGrade().equals("fail")) {
-                    continue;
-                }
-                totalCredits += course.getTargetCredits();
-            }
-        }
-    
-        // Recursively count credits in child modules.
-        for (SisuNode childModule : module.getChildModules()) {
-            totalCredits += countCourseCredits(childModule);
-        }
-    
-        return totalCredits;
-
+    public Integer calculateTotalCompletedCredits() {  
+        return studyProgramme.getCompletedCredits();
     }
     
     public String getStudentID() {
@@ -224,6 +226,22 @@ public class Student {
         this.studyProgramme = studyProgramme;
     }
 
+    public CurriculumOverlay getCurriculumOverlay() {
+        return curriculumOverlay;
+    }
+
+    public void setCurriculumOverlay(CurriculumOverlay curriculumOverlay) {
+        this.curriculumOverlay = curriculumOverlay;
+    }
+
+    public long getJournalSequence() {
+        return journalSequence;
+    }
+
+    public void setJournalSequence(long journalSequence) {
+        this.journalSequence = journalSequence;
+    }
+
     @Override
     public String toString() {
         return "Student saveObject [studentID=" + studentID + ", firstName=" + firstName + ", lastName=" + lastName
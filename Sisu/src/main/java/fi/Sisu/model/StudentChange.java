@@ -0,0 +1,153 @@
+package fi.Sisu.model;
+
+import java.util.HashSet;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * A single change made to a student's study programme: a grade, the chosen
+ * courses of a module, or a course added, unselected or deleted. Changes are
+ * written to the student's change journal instead of rewriting the whole
+ * student file, and applied again when the student is loaded.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class StudentChange {
+
+    /**
+     * The Student method the change is made with.
+     */
+    public enum Type {
+        SET_GRADE,
+        SET_CHOSEN_COURSES,
+        ADD_COURSE,
+        REMOVE_COURSE,
+        DELETE_COURSE
+    }
+
+    @JsonProperty("type")
+    private Type type;
+
+    @JsonProperty("module")
+    private String moduleGroupId;
+
+    @JsonProperty("course")
+    private String courseGroupId;
+
+    @JsonProperty("grade")
+    private String grade;
+
+    @JsonProperty("chosenCourses")
+    private HashSet<String> chosenCourses;
+
+    @JsonProperty("addedCourse")
+    private Course addedCourse;
+
+
+    /**
+     * Basic constructor for jackson to work with.
+     */
+    public StudentChange() {
+        // Jackson Requires empty construcor
+    }
+
+
+    private StudentChange(Type type, String moduleGroupId, String courseGroupId) {
+        this.type = type;
+        this.moduleGroupId = moduleGroupId;
+        this.courseGroupId = courseGroupId;
+    }
+
+
+    /**
+     * See Student.setGrade.
+     */
+    public static StudentChange setGrade(String moduleGroupId, String courseGroupId, String grade) {
+        StudentChange change = new StudentChange(Type.SET_GRADE, moduleGroupId, courseGroupId);
+        change.grade = grade;
+        return change;
+    }
+
+
+    /**
+     * See Student.setModuleChosenCourses.
+     */
+    public static StudentChange setModuleChosenCourses(String moduleGroupId, HashSet<String> chosenCourses) {
+        StudentChange change = new StudentChange(Type.SET_CHOSEN_COURSES, moduleGroupId, null);
+        change.chosenCourses = new HashSet<>(chosenCourses);
+        return change;
+    }
+
+
+    /**
+     * See Student.addCourse.
+     */
+    public static StudentChange addCourse(String moduleGroupId, Course course) {
+        StudentChange change = new StudentChange(Type.ADD_COURSE, moduleGroupId, course.getGroupId());
+        change.addedCourse = new Course(course);
+        return change;
+    }
+
+
+    /**
+     * See Student.removeCourse.
+     */
+    public static StudentChange removeCourse(String moduleGroupId, String courseGroupId) {
+        return new StudentChange(Type.REMOVE_COURSE, moduleGroupId, courseGroupId);
+    }
+
+
+    /**
+     * See Student.deleteCourse.
+     */
+    public static StudentChange deleteCourse(String courseGroupId) {
+        return new StudentChange(Type.DELETE_COURSE, null, courseGroupId);
+    }
+
+
+    /**
+     * Makes the change to a student. The student keeps its own copies of the
+     * courses, so the change can be applied again.
+     * 
+     * @param student Student to change.
+     * @return boolean true if the change was made, false if the student has
+     *         no study programme or the module or course was not found.
+     */
+    public boolean applyTo(Student student) {
+        if (type == null || student.getStudyProgramme().isEmpty()) {
+            return false;
+        }
+
+        switch (type) {
+            case SET_GRADE:
+                return student.setGrade(moduleGroupId, courseGroupId, grade);
+            case SET_CHOSEN_COURSES:
+                return student.setModuleChosenCourses(moduleGroupId, new HashSet<>(chosenCourses));
+            case ADD_COURSE:
+                return student.addCourse(moduleGroupId, new Course(addedCourse));
+            case REMOVE_COURSE:
+                return student.removeCourse(moduleGroupId, courseGroupId);
+            case DELETE_COURSE:
+                return student.deleteCourse(courseGroupId);
+            default:
+                return false;
+        }
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getModuleGroupId() {
+        return moduleGroupId;
+    }
+
+    public String getCourseGroupId() {
+        return courseGroupId;
+    }
+
+    @Override
+    public String toString() {
+        return "StudentChange [type=" + type + ", module=" + moduleGroupId + ", course=" + courseGroupId + "]";
+    }
+}
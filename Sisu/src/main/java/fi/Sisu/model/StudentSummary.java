@@ -0,0 +1,119 @@
+package fi.Sisu.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * The fields of a student shown in the student list: id, names, study
+ * programme and credits, without the study programme tree. Summaries are
+ * kept in the student directory index (see StudentDirectory), so the list
+ * can be shown without reading every student file.
+ */
+public class StudentSummary {
+
+    @JsonProperty("studentID")
+    private String studentID;
+
+    @JsonProperty("firstName")
+    private String firstName;
+
+    @JsonProperty("lastName")
+    private String lastName;
+
+    @JsonProperty("studyProgrammeName")
+    private String studyProgrammeName;
+
+    @JsonProperty("completedCredits")
+    private int completedCredits;
+
+    @JsonProperty("targetCredits")
+    private int targetCredits;
+
+    // Last modified time of the student file in milliseconds, used to
+    // find summaries which are older than their file.
+    @JsonProperty("modified")
+    private long modified;
+
+
+    /**
+     * Basic constructor for jackson to work with.
+     */
+    public StudentSummary() {
+        // Jackson Requires empty construcor
+    }
+
+
+    /**
+     * Creates the summary of a student.
+     *
+     * @param student Student to summarize.
+     * @param modified long last modified time of the student file in milliseconds.
+     * @return StudentSummary of the student.
+     */
+    public static StudentSummary of(Student student, long modified) {
+        StudentSummary summary = new StudentSummary();
+        summary.studentID = student.getStudentID();
+        summary.firstName = student.getFirstName();
+        summary.lastName = student.getLastName();
+        summary.studyProgrammeName = student.getStudyProgrammeName();
+        student.getStudyProgramme().ifPresent(programme -> {
+            summary.completedCredits = programme.getCompletedCredits();
+            summary.targetCredits = programme.getTargetCredits();
+        });
+        summary.modified = modified;
+        return summary;
+    }
+
+
+    /**
+     * Returns a copy of the summary with another modified time.
+     *
+     * @param modified long last modified time of the student file in milliseconds.
+     * @return StudentSummary copy of the summary.
+     */
+    public StudentSummary withModified(long modified) {
+        StudentSummary summary = new StudentSummary();
+        summary.studentID = studentID;
+        summary.firstName = firstName;
+        summary.lastName = lastName;
+        summary.studyProgrammeName = studyProgrammeName;
+        summary.completedCredits = completedCredits;
+        summary.targetCredits = targetCredits;
+        summary.modified = modified;
+        return summary;
+    }
+
+    public String getStudentID() {
+        return studentID;
+    }
+
+    public String getFirstName() {
+        return firstName;
+    }
+
+    public String getLastName() {
+        return lastName;
+    }
+
+    public String getStudyProgrammeName() {
+        return studyProgrammeName;
+    }
+
+    public int getCompletedCredits() {
+        return completedCredits;
+    }
+
+    public int getTargetCredits() {
+        return targetCredits;
+    }
+
+    public long getModified() {
+        return modified;
+    }
+
+    @Override
+    public String toString() {
+        return "StudentSummary [studentID=" + studentID + ", firstName=" + firstName 
+            + ", lastName=" + lastName + ", studyProgrammeName=" + studyProgrammeName
+            + ", completedCredits=" + completedCredits + "]";
+    }
+}
@@ -0,0 +1,47 @@
+package fi.Sisu.utils;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared executor for work that must not run on the JavaFX Application
+ * Thread, like Kori API requests. Threads are daemons, so they never keep the
+ * application alive after the window is closed.
+ */
+public class BackgroundExecutor {
+
+    private static final ExecutorService EXECUTOR =
+        Executors.newCachedThreadPool(createDaemonThreadFactory("sisu-background"));
+
+    private BackgroundExecutor() {
+        // Private constructor to avoid accidental instantiation of this class.
+    }
+
+
+    /**
+     * Returns the shared background executor.
+     *
+     * @return ExecutorService for background tasks
+     */
+    public static ExecutorService get() {
+        return EXECUTOR;
+    }
+
+
+    /**
+     * Creates a ThreadFactory which creates named daemon threads.
+     *
+     * @param namePrefix String prefix of the thread names
+     * @return ThreadFactory
+     */
+    public static ThreadFactory createDaemonThreadFactory(String namePrefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, namePrefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
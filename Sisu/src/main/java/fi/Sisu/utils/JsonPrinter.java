@@ -1,8 +1,6 @@
 package fi.Sisu.utils;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.exc.MismatchedInputException;
 
 import fi.Sisu.model.Course;
@@ -18,11 +16,8 @@ public class JsonPrinter {
      * @return String json representation of the SisuModule
      */
     public String getJsonFromSisuModuleAsString(SisuNode node) {
-        ObjectMapper objectMapper = ObjectMapperFactory.createObjectMapper();
-        objectMapper.enable(SerializationFeature.INDENT_OUTPUT);
-    
         try {
-            String jsonString = objectMapper.writeValueAsString(node);
+            String jsonString = ObjectMapperFactory.getSisuNodeWriter().writeValueAsString(node);
             return jsonString;
         }
         catch (MismatchedInputException e) {
@@ -45,11 +40,8 @@ public class JsonPrinter {
      * @return String json representation of the Course
      */
     public String getJsonFromCourseAsString(Course course) {
-        ObjectMapper objectMapper = new ObjectMapper();
-        objectMapper.enable(SerializationFeature.INDENT_OUTPUT);
-    
         try {
-            String jsonString = objectMapper.writeValueAsString(course);
+            String jsonString = ObjectMapperFactory.getCourseWriter().writeValueAsString(course);
             return jsonString;
         }
         catch (MismatchedInputException e) {
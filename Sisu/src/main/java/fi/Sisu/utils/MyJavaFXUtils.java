@@ -8,6 +8,7 @@ import java.net.URL;
 
 import fi.Sisu.model.Course;
 
+import javafx.application.Platform;
 import javafx.scene.Scene;
 import javafx.scene.control.Alert;
 import javafx.scene.control.ButtonType;
@@ -42,6 +43,24 @@ public class MyJavaFXUtils {
         });
     }
 
+    /**
+     * Runs the given action on the JavaFX Application Thread. If called from
+     * the Application Thread, the action is run immediately, otherwise it is
+     * queued with Platform.runLater. Used to deliver results of background
+     * tasks to the UI.
+     * 
+     * @param action Runnable to be run
+     */
+    public static void runOnFxThread(Runnable action) {
+        if (Platform.isFxApplicationThread()) {
+            action.run();
+        }
+        else {
+            Platform.runLater(action);
+        }
+    }
+
+
     /**
      * Displays an alert with the given type, title and content.
      * 
@@ -1,24 +1,89 @@
 package fi.Sisu.utils;
 
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.KeyDeserializer;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.deser.std.StdScalarDeserializer;
+import com.fasterxml.jackson.databind.deser.std.StringDeserializer;
 import com.fasterxml.jackson.databind.module.SimpleModule;
 import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
 
+import fi.Sisu.model.Course;
 import fi.Sisu.model.SisuNode;
+import fi.Sisu.model.Student;
+import fi.Sisu.model.StudentChange;
+import fi.Sisu.model.StudentSummary;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.Optional;
 
 /**
  * Factory class for creating Jackson ObjectMappers which use a custom
  * serializer to tackle the problem of serializing Optional<SisuNode> objects.
+ * Strings and map keys read by the mappers go through StringCanonicalizer,
+ * so the ids and texts repeated in student files are shared.
+ * 
+ * Student files can also be written in the binary Smile format, with their
+ * own mapper. The Smile mapper shares both field names and short string
+ * values, so the ids repeated in the study programme tree are written once.
+ * 
+ * Creating a mapper and introspecting the model classes is expensive, so the
+ * application uses the shared mapper and the readers and writers made from
+ * it. They are immutable and thread-safe. Call warmUp at startup to fill
+ * their serializer caches before the first real load or save.
  * 
  * @author Antti Hakkarainen
  */
 public class ObjectMapperFactory {
 
+    private static final ObjectMapper SHARED_MAPPER = createObjectMapper();
+
+    private static final ObjectReader STUDENT_READER = SHARED_MAPPER.readerFor(Student.class);
+
+    private static final ObjectWriter STUDENT_WRITER = SHARED_MAPPER
+        .writerFor(Student.class)
+        .with(SerializationFeature.INDENT_OUTPUT);
+
+    private static final ObjectReader SISU_NODE_READER = SHARED_MAPPER.readerFor(SisuNode.class);
+
+    private static final ObjectWriter SISU_NODE_WRITER = SHARED_MAPPER
+        .writerFor(SisuNode.class)
+        .with(SerializationFeature.INDENT_OUTPUT);
+
+    private static final ObjectWriter COURSE_WRITER = SHARED_MAPPER
+        .writerFor(Course.class)
+        .with(SerializationFeature.INDENT_OUTPUT);
+
+    private static final ObjectMapper SMILE_MAPPER = createSmileMapper();
+
+    private static final ObjectReader STUDENT_SMILE_READER = SMILE_MAPPER.readerFor(Student.class);
+
+    private static final ObjectWriter STUDENT_SMILE_WRITER = SMILE_MAPPER.writerFor(Student.class);
+
+    private static final ObjectReader STUDENT_CHANGE_READER = SHARED_MAPPER.readerFor(StudentChange.class);
+
+    private static final ObjectWriter STUDENT_CHANGE_WRITER = SHARED_MAPPER.writerFor(StudentChange.class);
+
+    private static final ObjectReader STUDENT_SUMMARIES_READER = 
+        SHARED_MAPPER.readerForListOf(StudentSummary.class);
+
+    private static final ObjectWriter STUDENT_SUMMARIES_WRITER = 
+        SHARED_MAPPER.writerFor(new TypeReference<List<StudentSummary>>() { });
+
+    private ObjectMapperFactory() {
+        // Private constructor to avoid accidental instantiation of this class.
+    }
+
     /**
      * Custom serializer for Optional<SisuNode> objects. If the Optional<SisuNode>
      * is present, the SisuNode object is written to the json file. If the
@@ -47,6 +112,37 @@ public class ObjectMapperFactory {
     }
     
 
+    /**
+     * Deserializer for String values which returns the canonical instance of
+     * the string read.
+     */
+    public static class CanonicalStringDeserializer extends StdScalarDeserializer<String> {
+
+        public CanonicalStringDeserializer() {
+            super(String.class);
+        }
+
+        @Override
+        public String deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+            return StringCanonicalizer.get().canonicalize(
+                StringDeserializer.instance.deserialize(parser, context));
+        }
+    }
+
+
+    /**
+     * Deserializer for String map keys which returns the canonical instance
+     * of the key read.
+     */
+    public static class CanonicalKeyDeserializer extends KeyDeserializer {
+
+        @Override
+        public Object deserializeKey(String key, DeserializationContext context) {
+            return StringCanonicalizer.get().canonicalize(key);
+        }
+    }
+
+
     /**
      * Creates a new ObjectMapper which uses a custom serializer for
      * Optional<SisuNode> objects.
@@ -54,10 +150,178 @@ public class ObjectMapperFactory {
      * @return ObjectMapper with custom serializer for Optional<SisuNode> objects
      */
     public static ObjectMapper createObjectMapper() {
-        ObjectMapper objectMapper = new ObjectMapper();
+        return registerModule(new ObjectMapper());
+    }
+
+
+    /**
+     * Creates a new ObjectMapper for the Smile format, with the same custom
+     * serializers as createObjectMapper.
+     * 
+     * @return ObjectMapper which reads and writes Smile
+     */
+    public static ObjectMapper createSmileMapper() {
+        SmileFactory factory = SmileFactory.builder()
+            .enable(SmileGenerator.Feature.CHECK_SHARED_NAMES)
+            .enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES)
+            .build();
+        return registerModule(new ObjectMapper(factory));
+    }
+
+
+    private static ObjectMapper registerModule(ObjectMapper objectMapper) {
         SimpleModule module = new SimpleModule();
         module.addSerializer(new OptionalSisuNodeSerializer());
+        module.addDeserializer(String.class, new CanonicalStringDeserializer());
+        module.addKeyDeserializer(String.class, new CanonicalKeyDeserializer());
         objectMapper.registerModule(module);
         return objectMapper;
     }
+
+
+    /**
+     * Returns the shared ObjectMapper. It must not be reconfigured, use
+     * ObjectMapper.reader/writer methods for different settings.
+     * 
+     * @return shared ObjectMapper
+     */
+    public static ObjectMapper getObjectMapper() {
+        return SHARED_MAPPER;
+    }
+
+
+    /**
+     * Returns the shared reader for student data files.
+     * 
+     * @return ObjectReader for Student objects
+     */
+    public static ObjectReader getStudentReader() {
+        return STUDENT_READER;
+    }
+
+
+    /**
+     * Returns the shared writer for student data files, writes indented json.
+     * 
+     * @return ObjectWriter for Student objects
+     */
+    public static ObjectWriter getStudentWriter() {
+        return STUDENT_WRITER;
+    }
+
+
+    /**
+     * Returns the shared reader for student data files in Smile format.
+     * 
+     * @return ObjectReader for Student objects
+     */
+    public static ObjectReader getStudentSmileReader() {
+        return STUDENT_SMILE_READER;
+    }
+
+
+    /**
+     * Returns the shared writer for student data files in Smile format.
+     * 
+     * @return ObjectWriter for Student objects
+     */
+    public static ObjectWriter getStudentSmileWriter() {
+        return STUDENT_SMILE_WRITER;
+    }
+
+
+    /**
+     * Returns the shared reader for SisuNode trees.
+     * 
+     * @return ObjectReader for SisuNode objects
+     */
+    public static ObjectReader getSisuNodeReader() {
+        return SISU_NODE_READER;
+    }
+
+
+    /**
+     * Returns the shared writer for SisuNode trees, writes indented json.
+     * 
+     * @return ObjectWriter for SisuNode objects
+     */
+    public static ObjectWriter getSisuNodeWriter() {
+        return SISU_NODE_WRITER;
+    }
+
+
+    /**
+     * Returns the shared writer for courses, writes indented json.
+     * 
+     * @return ObjectWriter for Course objects
+     */
+    public static ObjectWriter getCourseWriter() {
+        return COURSE_WRITER;
+    }
+
+
+    /**
+     * Returns the shared reader for the records of student change journals.
+     * 
+     * @return ObjectReader for StudentChange objects
+     */
+    public static ObjectReader getStudentChangeReader() {
+        return STUDENT_CHANGE_READER;
+    }
+
+
+    /**
+     * Returns the shared writer for the records of student change journals,
+     * writes compact json.
+     * 
+     * @return ObjectWriter for StudentChange objects
+     */
+    public static ObjectWriter getStudentChangeWriter() {
+        return STUDENT_CHANGE_WRITER;
+    }
+
+
+    /**
+     * Returns the shared reader for the student directory index.
+     * 
+     * @return ObjectReader for lists of StudentSummary objects
+     */
+    public static ObjectReader getStudentSummariesReader() {
+        return STUDENT_SUMMARIES_READER;
+    }
+
+
+    /**
+     * Returns the shared writer for the student directory index. The index
+     * is not meant to be read by people, so it is not indented.
+     * 
+     * @return ObjectWriter for lists of StudentSummary objects
+     */
+    public static ObjectWriter getStudentSummariesWriter() {
+        return STUDENT_SUMMARIES_WRITER;
+    }
+
+
+    /**
+     * Writes and reads back a small student, so Jackson introspects the model
+     * classes and caches their serializers and deserializers now instead of
+     * during the first real load or save.
+     */
+    public static void warmUp() {
+        SisuNode module = new SisuNode("warm-up-module");
+        module.addChildCourse(new Course("warm-up-course"));
+        SisuNode programme = new SisuNode("warm-up-programme");
+        programme.addChildModule(module);
+        Student student = new Student("warmup", "Warm", "Up", programme);
+
+        try {
+            String json = STUDENT_WRITER.writeValueAsString(student);
+            STUDENT_READER.readValue(json);
+            STUDENT_SMILE_READER.readValue(STUDENT_SMILE_WRITER.writeValueAsBytes(student));
+            SISU_NODE_WRITER.writeValueAsString(programme);
+        }
+        catch (IOException e) {
+            System.err.println("Could not warm up json serializers: " + e.getMessage());
+        }
+    }
 }
@@ -0,0 +1,55 @@
+package fi.Sisu.utils;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Cancellation of a background load made of several CompletableFuture
+ * stages. Cancelling a stage doesn't cancel the stages it depends on, so a
+ * load composed with thenCompose keeps running after its last stage has
+ * been cancelled. Every stage which should stop is tracked here instead,
+ * and cancel cancels all of them. Stages tracked after cancel are cancelled
+ * right away, and work already running can check isCancelled.
+ */
+public class PendingLoad {
+
+    private final List<CompletableFuture<?>> stages = new CopyOnWriteArrayList<>();
+    private volatile boolean cancelled = false;
+
+
+    /**
+     * Tracks a stage of the load, so it is cancelled with the load.
+     *
+     * @param stage CompletableFuture of the stage.
+     * @return CompletableFuture<T> the same stage, for chaining.
+     */
+    public <T> CompletableFuture<T> track(CompletableFuture<T> stage) {
+        stages.add(stage);
+        if (cancelled) {
+            stage.cancel(false);
+        }
+        return stage;
+    }
+
+
+    /**
+     * Cancels every stage of the load.
+     */
+    public void cancel() {
+        cancelled = true;
+        for (CompletableFuture<?> stage : stages) {
+            stage.cancel(false);
+        }
+    }
+
+
+    /**
+     * Returns true if the load has been cancelled.
+     *
+     * @return boolean
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+}
@@ -0,0 +1,231 @@
+package fi.Sisu.utils;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fi.Sisu.app.Constants;
+
+/**
+ * Replaces equal Strings with one shared instance while parsing. The same
+ * groupIds, codes and names are found in many modules, search results and
+ * student files, and the same descriptions are often repeated too.
+ *
+ * Short strings (ids, codes and names) go to a weak interner. Long texts,
+ * like the HTML descriptions, are deduplicated by a 64-bit hash of their
+ * content, so the table is keyed by small numbers instead of the texts.
+ * Both tables hold their strings weakly, a string is dropped from them when
+ * nothing else uses it anymore.
+ *
+ * Thread-safe. The tables are split into segments with their own locks, so
+ * students and modules parsed in parallel rarely wait for each other. The
+ * counters can be read to see how much was saved.
+ */
+public class StringCanonicalizer {
+
+    private static final StringCanonicalizer SHARED =
+        new StringCanonicalizer(Constants.STRING_DEDUPE_TEXT_LENGTH);
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    // Approximate heap size of a String object and its array header.
+    private static final int STRING_OVERHEAD_BYTES = 40;
+
+    // Power of two, so a segment can be picked with a mask.
+    private static final int SEGMENT_COUNT = 16;
+
+    /**
+     * Weak reference to a long text which remembers its hash, so it can be
+     * removed from the table after the text has been collected.
+     */
+    private static class TextReference extends WeakReference<String> {
+        private final long hash;
+
+        TextReference(String text, long hash, ReferenceQueue<String> queue) {
+            super(text, queue);
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * Part of the tables, locked separately from the other segments.
+     */
+    private static class Segment {
+        private final WeakHashMap<String, WeakReference<String>> ids = new WeakHashMap<>();
+        private final HashMap<Long, TextReference> texts = new HashMap<>();
+        private final ReferenceQueue<String> collectedTexts = new ReferenceQueue<>();
+    }
+
+    private final int textLength;
+    private final Segment[] segments = new Segment[SEGMENT_COUNT];
+
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong bytesSaved = new AtomicLong();
+
+
+    /**
+     * Constructor.
+     *
+     * @param textLength int length from which strings are handled as long texts.
+     */
+    public StringCanonicalizer(int textLength) {
+        this.textLength = textLength;
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+
+    /**
+     * Returns the canonicalizer shared by the parsers.
+     *
+     * @return StringCanonicalizer
+     */
+    public static StringCanonicalizer get() {
+        return SHARED;
+    }
+
+
+    /**
+     * Returns the shared instance of a string, or the string itself if it is
+     * the first of its kind.
+     *
+     * @param value String to canonicalize, may be null.
+     * @return String equal to the value.
+     */
+    public String canonicalize(String value) {
+        if (value == null || value.isEmpty()) {
+            return value;
+        }
+        lookups.incrementAndGet();
+
+        String canonical = value.length() < textLength
+            ? canonicalizeId(value)
+            : canonicalizeText(value);
+
+        if (canonical != value) {
+            duplicates.incrementAndGet();
+            bytesSaved.addAndGet(estimateSize(value));
+        }
+        return canonical;
+    }
+
+
+    /**
+     * Returns how many strings have been canonicalized.
+     *
+     * @return long number of non-empty strings handled.
+     */
+    public long getLookupCount() {
+        return lookups.get();
+    }
+
+
+    /**
+     * Returns how many strings were replaced with an earlier equal string.
+     *
+     * @return long number of duplicates found.
+     */
+    public long getDuplicateCount() {
+        return duplicates.get();
+    }
+
+
+    /**
+     * Returns an estimate of the heap saved by replacing the duplicates,
+     * assuming they would have been kept.
+     *
+     * @return long bytes saved.
+     */
+    public long getBytesSaved() {
+        return bytesSaved.get();
+    }
+
+
+    @Override
+    public String toString() {
+        return "StringCanonicalizer [lookups=" + getLookupCount()
+            + ", duplicates=" + getDuplicateCount()
+            + ", bytesSaved=" + getBytesSaved() + "]";
+    }
+
+
+    private String canonicalizeId(String value) {
+        Segment segment = segments[spread(value.hashCode()) & (SEGMENT_COUNT - 1)];
+        synchronized (segment) {
+            WeakReference<String> reference = segment.ids.get(value);
+            String canonical = reference != null ? reference.get() : null;
+            if (canonical != null) {
+                return canonical;
+            }
+            // The value refers to itself weakly, so it can still be collected.
+            segment.ids.put(value, new WeakReference<>(value));
+            return value;
+        }
+    }
+
+
+    private String canonicalizeText(String value) {
+        long hash = hash(value);
+        Segment segment = segments[spread((int) (hash ^ (hash >>> 32))) & (SEGMENT_COUNT - 1)];
+        synchronized (segment) {
+            removeCollectedTexts(segment);
+
+            TextReference reference = segment.texts.get(hash);
+            String canonical = reference != null ? reference.get() : null;
+            if (canonical != null) {
+                // Different texts with the same hash are rare, keep the first.
+                return canonical.equals(value) ? canonical : value;
+            }
+            segment.texts.put(hash, new TextReference(value, hash, segment.collectedTexts));
+            return value;
+        }
+    }
+
+
+    private static void removeCollectedTexts(Segment segment) {
+        TextReference reference;
+        while ((reference = (TextReference) segment.collectedTexts.poll()) != null) {
+            segment.texts.remove(reference.hash, reference);
+        }
+    }
+
+
+    /**
+     * Mixes the high bits of a hash into the low bits used for the segment.
+     */
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+
+    /**
+     * 64-bit FNV-1a hash of the characters.
+     */
+    private static long hash(String value) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+
+    /**
+     * Estimates the heap size of a string. Strings with only Latin-1
+     * characters use one byte per character, others two.
+     */
+    private static long estimateSize(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) > 0xFF) {
+                return STRING_OVERHEAD_BYTES + 2L * value.length();
+            }
+        }
+        return STRING_OVERHEAD_BYTES + value.length();
+    }
+}
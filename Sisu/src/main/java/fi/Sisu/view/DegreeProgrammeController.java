@@ -3,6 +3,7 @@ package fi.Sisu.view;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.function.Function;
 
 import fi.Sisu.app.Constants;
@@ -11,8 +12,6 @@ import fi.Sisu.model.SisuNode;
 import fi.Sisu.utils.MyJavaFXUtils;
 import fi.Sisu.viewmodel.DegreeProgrammeViewModel;
 
-import java.util.HashMap;
-
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
 
@@ -25,6 +24,8 @@ import javafx.scene.control.CheckBox;
 import javafx.scene.control.ComboBox;
 import javafx.scene.control.Label;
 import javafx.scene.control.ListView;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.control.Tooltip;
 import javafx.scene.control.TreeItem;
 import javafx.scene.control.TreeView;
 import javafx.scene.image.Image;
@@ -265,7 +266,9 @@ public class DegreeProgrammeController extends Controller {
                 if (labelType == LabelType.MODULE) {
                     addCourseButton.setDisable(false);
                     removeCourseButton.setDisable(true);
-                    selectCoursesButton.setDisable(false);      
+                    // Courses of a module can be selected once they are loaded
+                    selectCoursesButton.setDisable(
+                        !viewModel.isModuleLoaded(selectedLabel.getModuleGroupId()));      
                 } else if (labelType == LabelType.COURSE) {
                     addCourseButton.setDisable(true);
                     removeCourseButton.setDisable(false);
@@ -436,8 +439,8 @@ public class DegreeProgrammeController extends Controller {
      * @return
      */
     private TreeItem<HBox> createTreeRecursive(TreeItem<HBox> parentItem, SisuNode node) {
-        HashSet<String> chosenCourses = node.getChosenCourses();
-        HashSet<String> mandatoryCourses = node.getMandatoryCourses();
+        Set<String> chosenCourses = node.getChosenCourses();
+        Set<String> mandatoryCourses = node.getMandatoryCourses();
 
         // Iterate over the module's courses
         for (Course course : node.getChildCourses().values()) {
@@ -471,8 +474,16 @@ public class DegreeProgrammeController extends Controller {
                     null
                     );
     
+            addModuleProgress(childItem, childModule);
+
             // Add the child item to the root item
             parentItem.getChildren().add(childItem);
+
+            // Children of a stub module are loaded when the item is opened
+            if (childModule.isStub()) {
+                setLazyLoading(childItem, childModule.getGroupId());
+                continue;
+            }
     
             // Recursively create tree items for the child module's child nodes
             createTreeRecursive(childItem, childModule);   
@@ -482,6 +493,83 @@ public class DegreeProgrammeController extends Controller {
     }
 
 
+    /**
+     * Adds a progress bar of the module's completed credits to its tree item.
+     * The module keeps its credit totals up to date, so this doesn't count
+     * the courses of the module again.
+     * 
+     * @param moduleItem TreeItem<HBox> of the module
+     * @param module SisuNode module
+     */
+    private void addModuleProgress(TreeItem<HBox> moduleItem, SisuNode module) {
+        int targetCredits = module.getTargetCredits();
+        int completedCredits = module.getCompletedCredits();
+        double progress = targetCredits > 0 
+            ? Math.min(1.0, (double) completedCredits / targetCredits) 
+            : 0;
+
+        ProgressBar progressBar = new ProgressBar(progress);
+        progressBar.setMinWidth(60);
+        progressBar.setPrefWidth(60);
+        Tooltip.install(progressBar, new Tooltip(
+            completedCredits + "/" + targetCredits + "op completed, " 
+            + module.getChosenCredits() + "op chosen"));
+
+        moduleItem.getValue().getChildren().add(progressBar);
+    }
+
+
+    /**
+     * Shows a stub module collapsed with a placeholder child, and loads its
+     * real children when the user opens it. The module is prefetched in the
+     * background already, so it usually opens right away.
+     * 
+     * @param moduleItem TreeItem<HBox> of the stub module
+     * @param moduleGroupId String groupId of the stub module
+     */
+    private void setLazyLoading(TreeItem<HBox> moduleItem, String moduleGroupId) {
+        moduleItem.setExpanded(false);
+        moduleItem.getChildren().add(createPlaceholderItem("Loading...", moduleGroupId));
+        viewModel.prefetchModule(moduleGroupId);
+
+        ChangeListener<Boolean> expandListener = new ChangeListener<Boolean>() {
+            @Override
+            public void changed(ObservableValue<? extends Boolean> observable, Boolean oldValue, Boolean newValue) {
+                if (!newValue) {
+                    return;
+                }
+                // Load only once, the listener is added again if loading fails
+                moduleItem.expandedProperty().removeListener(this);
+
+                viewModel.loadModuleChildren(moduleGroupId).thenAccept(module -> {
+                    moduleItem.getChildren().clear();
+                    if (module.isPresent()) {
+                        createTreeRecursive(moduleItem, module.get());
+                    }
+                    else {
+                        moduleItem.setExpanded(false);
+                        setLazyLoading(moduleItem, moduleGroupId);
+                    }
+                });
+            }
+        };
+        moduleItem.expandedProperty().addListener(expandListener);
+    }
+
+
+    /**
+     * Creates a TreeItem which is shown in place of the children of a module
+     * which have not been loaded yet.
+     * 
+     * @param text String text to show
+     * @param moduleGroupId String groupId of the module
+     * @return TreeItem<HBox>
+     */
+    private TreeItem<HBox> createPlaceholderItem(String text, String moduleGroupId) {
+        return createTreeItem(text, moduleGroupId, "0", "white", LabelType.NONE, null);
+    }
+
+
     /**
      * Creates a TreeItem<Label> with the given name, groupId and color. Uses
      * custom Label class so we can store the groupId too.
@@ -555,9 +643,9 @@ public class DegreeProgrammeController extends Controller {
         SisuNode dp = viewModel.studyProgrammeProperty().get();
         SisuNode module = dp.findNodeInTree(moduleGroupId);
 
-        HashMap<String, Course> courses = module.getChildCourses();
-        HashSet<String> chosenCourses = module.getChosenCourses();
-        HashSet<String> mandatoryCourses = module.getMandatoryCourses();
+        Map<String, Course> courses = module.getChildCourses();
+        Set<String> chosenCourses = module.getChosenCourses();
+        Set<String> mandatoryCourses = module.getMandatoryCourses();
 
         // Iterate through the courses and add them to the listview
         for (Map.Entry<String, Course> entry : courses.entrySet()) {            
@@ -631,6 +719,7 @@ public class DegreeProgrammeController extends Controller {
                 null
                 );    
 
+        addModuleProgress(rootItem, dp);
         createTreeRecursive(rootItem, dp);        
         rootItem.setExpanded(true);
         degreeProgrammeTreeView.setRoot(rootItem);
@@ -7,6 +7,7 @@ import javafx.scene.control.Button;
 import javafx.scene.control.Label;
 import javafx.scene.control.ListCell;
 import javafx.scene.control.ListView;
+import javafx.scene.control.ProgressBar;
 import javafx.scene.control.TextField;
 import javafx.scene.control.ToggleButton;
 
@@ -48,6 +49,9 @@ public class SelectDegreeProgrammeController extends Controller {
     @FXML
     Button refreshButton;
 
+    @FXML
+    ProgressBar loadingProgressBar;
+
     // To pass events to and receive new data from sisuApiModel.
     private SelectDegreeProgrammeViewModel viewModel;
 
@@ -114,14 +118,18 @@ public class SelectDegreeProgrammeController extends Controller {
         // select button tells the viewmodel which degreeprogramme was selected
         selectStudyProgramButton.setOnAction(event -> viewModel.onSelectStudyProgramButtonPressed());
 
-        // TODO display some kind of loading screen while the degreeprogrammes are being fetched from the API
-        
+        // Show a progress bar while the degreeprogrammes are being fetched from the API
+        loadingProgressBar.visibleProperty().bind(viewModel.loadingProperty());
+        loadingProgressBar.progressProperty().bind(viewModel.loadingProgressProperty());
+        selectStudyProgramButton.disableProperty().bind(viewModel.loadingProperty());
+        refreshButton.disableProperty().bind(viewModel.loadingProperty());
     }
 
     public void refreshList() {
-        viewModel.loadDegreeProgrammes();
-        // set the items in the listview to the items in the model
+        // set the items in the listview to the items in the model, they
+        // appear when the viewmodel has loaded them
         dpListView.setItems(viewModel.sortedItemsProperty());
+        viewModel.loadDegreeProgrammes();
     }
 
 
@@ -2,7 +2,7 @@ package fi.Sisu.view;
 
 import java.util.Optional;
 
-import fi.Sisu.model.Student;
+import fi.Sisu.model.StudentSummary;
 import fi.Sisu.viewmodel.SelectStudentViewModel;
 import javafx.fxml.FXML;
 import javafx.scene.control.Alert;
@@ -34,7 +34,7 @@ public class SelectStudentController extends Controller {
     Button chooseStudentButton;
 
     @FXML
-    ListView<Student> studentListView;
+    ListView<StudentSummary> studentListView;
 
     // To pass events to and reciev new data from.
     private SelectStudentViewModel viewModel;
@@ -63,7 +63,7 @@ public class SelectStudentController extends Controller {
         // Set the cell factory for the listview to display only the name of the DegreeProgramme
         studentListView.setCellFactory(param -> new ListCell<>() {
             @Override
-            protected void updateItem(Student item, boolean empty) {
+            protected void updateItem(StudentSummary item, boolean empty) {
                 super.updateItem(item, empty);
                 if (empty || item == null) {
                     setText("");
@@ -71,7 +71,8 @@ public class SelectStudentController extends Controller {
                     if (item.getStudentID() == null) {
                         setText("");                        
                     } else {
-                        setText(item.getFirstName() + " " +  item.getLastName() + " [" + item.getStudentID() + "]");
+                        setText(item.getFirstName() + " " +  item.getLastName() + " [" + item.getStudentID() + "]"
+                            + getProgrammeText(item));
                     }
                 }
             }
@@ -98,7 +99,7 @@ public class SelectStudentController extends Controller {
         
         newStudentButton.setOnAction(event -> viewModel.onNewStudentButtonPressed());
         chooseStudentButton.setOnAction(event -> {
-            Optional<Student> selectedStudent = 
+            Optional<StudentSummary> selectedStudent = 
                 Optional.ofNullable(studentListView.getSelectionModel().getSelectedItem());
             viewModel.onChooseStudentButtonPressed(selectedStudent);
         });
@@ -107,4 +108,17 @@ public class SelectStudentController extends Controller {
         viewModel.selectedStudentProperty().bind(studentListView.getSelectionModel().selectedItemProperty());
     }
 
+
+    /**
+     * Returns the study programme and credits of a student for the list,
+     * or an empty string if the student has no study programme yet.
+     */
+    private static String getProgrammeText(StudentSummary student) {
+        if (student.getStudyProgrammeName() == null) {
+            return "";
+        }
+        return " - " + student.getStudyProgrammeName() 
+            + " (" + student.getCompletedCredits() + "/" + student.getTargetCredits() + "op)";
+    }
+
 }
@@ -1,7 +1,10 @@
 package fi.Sisu.viewmodel;
 
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 import fi.Sisu.app.AppState;
 import fi.Sisu.datasource.IApiDataSource;
@@ -9,7 +12,9 @@ import fi.Sisu.datasource.IFileDataSource;
 import fi.Sisu.model.Course;
 import fi.Sisu.model.SisuNode;
 import fi.Sisu.model.Student;
+import fi.Sisu.model.StudentChange;
 import fi.Sisu.navigation.ScreenType;
+import fi.Sisu.utils.MyJavaFXUtils;
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.SimpleBooleanProperty;
@@ -28,6 +33,10 @@ public class DegreeProgrammeViewModel extends ViewModel {
     private final ObjectProperty<Course> course;
     private final ObjectProperty<SisuNode> studyProgramme;
     private final BooleanProperty studentDataChanged;
+
+    // Lazy tree loading: modules being loaded or prefetched, by groupId.
+    // Only used on the JavaFX Application Thread.
+    private final Map<String, CompletableFuture<Optional<SisuNode>>> moduleLoads;
     
 
     /**
@@ -46,6 +55,10 @@ public class DegreeProgrammeViewModel extends ViewModel {
         this.course = new SimpleObjectProperty<Course>();
         this.studyProgramme = new SimpleObjectProperty<SisuNode>();
         this.studentDataChanged = new SimpleBooleanProperty(false);
+        this.moduleLoads = new HashMap<>();
+
+        // The prefetched modules belong to the previous study programme.
+        studyProgramme.addListener((obs, oldProgramme, newProgramme) -> moduleLoads.clear());
 
         // Used to retrieve the course information from the backend when
         // the user changes the selected course in treeview
@@ -65,13 +78,22 @@ public class DegreeProgrammeViewModel extends ViewModel {
             dp.ifPresent(programme -> {
                 // look if the course data is already in student's data
                 Course fileCourse = programme.findCourseInTree(newCourseCode);
-                if (fileCourse != null) {
+                if (fileCourse != null && !fileCourse.isSummaryOnly()) {
                     setCourseProperty(fileCourse);
                 } 
-                // Otherwise load the course data from the API
+                // Otherwise load the course data from the API in the background.
+                // A summary is shown until the details arrive.
                 else { 
-                    Optional<Course> apiCourse = apiDataSource.getCourse(newCourseCode);
-                    apiCourse.ifPresent(course -> setCourseProperty(course));
+                    if (fileCourse != null) {
+                        setCourseProperty(fileCourse);
+                    }
+                    apiDataSource.getCourseAsync(newCourseCode).thenAccept(apiCourse ->
+                        MyJavaFXUtils.runOnFxThread(() -> {
+                            if (newCourseCode.equals(requestedCourse.get())) {
+                                apiCourse.ifPresent(course -> setCourseProperty(
+                                    fileCourse != null ? fileCourse.withDetailsFrom(course) : course));
+                            }
+                        }));
                 }
             });  
         });
@@ -89,8 +111,8 @@ public class DegreeProgrammeViewModel extends ViewModel {
             = fileDataSource.getStudent(appState.getSelectedStudentID());
 
         currentStudentOptional.ifPresent(currentStudent -> {
-            currentStudent.setModuleChosenCourses(moduleGroupId, chosenCourses);
-            fileDataSource.saveStudent(currentStudent);
+            fileDataSource.applyStudentChange(
+                currentStudent, StudentChange.setModuleChosenCourses(moduleGroupId, chosenCourses));
             isStudentDataChanged(true); // TODO maybe use appstate's student data changed for this..
             appState.setStudentDataChanged(true);  
         });        
@@ -102,8 +124,8 @@ public class DegreeProgrammeViewModel extends ViewModel {
             = fileDataSource.getStudent(appState.getSelectedStudentID());
 
         currentStudentOptional.ifPresent(currentStudent -> {
-            currentStudent.removeCourse(moduleGroupId, courseGroupId);
-            fileDataSource.saveStudent(currentStudent);
+            fileDataSource.applyStudentChange(
+                currentStudent, StudentChange.removeCourse(moduleGroupId, courseGroupId));
             isStudentDataChanged(true); // TODO maybe use appstate's student data changed for this..
             appState.setStudentDataChanged(true);  
         });
@@ -115,8 +137,8 @@ public class DegreeProgrammeViewModel extends ViewModel {
             = fileDataSource.getStudent(appState.getSelectedStudentID());
 
         currentStudentOptional.ifPresent(currentStudent -> {
-            currentStudent.setGrade(moduleGroupId, courseGroupId, null);
-            fileDataSource.saveStudent(currentStudent);
+            fileDataSource.applyStudentChange(
+                currentStudent, StudentChange.setGrade(moduleGroupId, courseGroupId, null));
             isStudentDataChanged(true); // TODO maybe use appstate's student data changed for this..
             appState.setStudentDataChanged(true);  
         });
@@ -128,8 +150,8 @@ public class DegreeProgrammeViewModel extends ViewModel {
             = fileDataSource.getStudent(appState.getSelectedStudentID());
 
         currentStudentOptional.ifPresent(currentStudent -> {
-            currentStudent.setGrade(moduleGroupId, courseGroupId, grade);
-            fileDataSource.saveStudent(currentStudent);
+            fileDataSource.applyStudentChange(
+                currentStudent, StudentChange.setGrade(moduleGroupId, courseGroupId, grade));
             isStudentDataChanged(true); // TODO maybe use appstate's student data changed for this..
             appState.setStudentDataChanged(true);  
         });
@@ -148,6 +170,104 @@ public class DegreeProgrammeViewModel extends ViewModel {
         
     }
 
+    /**
+     * Loads the children of a stub module (lazy tree loading) and saves them
+     * to the student's study programme. Uses the prefetched module if there
+     * is one, and starts prefetching the next level.
+     * 
+     * The returned future completes on the JavaFX Application Thread.
+     * 
+     * @param moduleGroupId String groupId of the module to be opened
+     * @return CompletableFuture<Optional<SisuNode>> the module with its 
+     *         children, empty if loading failed
+     */
+    public CompletableFuture<Optional<SisuNode>> loadModuleChildren(String moduleGroupId) {
+        CompletableFuture<Optional<SisuNode>> load = moduleLoads.remove(moduleGroupId);
+        if (load == null) {
+            load = apiDataSource.getModuleOneLevelAsync(moduleGroupId);
+        }
+
+        CompletableFuture<Optional<SisuNode>> result = new CompletableFuture<>();
+        load.whenComplete((loadedModule, error) -> MyJavaFXUtils.runOnFxThread(() -> {
+            if (error != null) {
+                System.err.println("Could not load module " + moduleGroupId + ": " + error.getMessage());
+                result.complete(Optional.empty());
+                return;
+            }
+            result.complete(loadedModule.flatMap(this::saveLoadedModule));
+        }));
+        return result;
+    }
+
+
+    /**
+     * Starts loading a stub module in the background, so it opens without
+     * waiting when the user expands it. A prefetch which fails is dropped,
+     * so the module is requested again when it is opened.
+     * 
+     * @param moduleGroupId String groupId of the module
+     */
+    public void prefetchModule(String moduleGroupId) {
+        if (moduleLoads.containsKey(moduleGroupId)) {
+            return;
+        }
+        CompletableFuture<Optional<SisuNode>> load = apiDataSource.getModuleOneLevelAsync(moduleGroupId);
+        moduleLoads.put(moduleGroupId, load);
+        load.whenComplete((loadedModule, error) -> {
+            if (error != null || loadedModule.isEmpty()) {
+                MyJavaFXUtils.runOnFxThread(() -> moduleLoads.remove(moduleGroupId, load));
+            }
+        });
+    }
+
+
+    /**
+     * Returns true if the module's children have been loaded.
+     * 
+     * @param moduleGroupId String groupId of the module
+     * @return boolean false if the module is a stub
+     */
+    public boolean isModuleLoaded(String moduleGroupId) {
+        SisuNode dp = studyProgramme.get();
+        SisuNode module = dp == null ? null : dp.findNodeInTree(moduleGroupId);
+        return module != null && !module.isStub();
+    }
+
+
+    /**
+     * Fills the stub module in the student's study programme with the loaded
+     * children and saves the student. 
+     * 
+     * @param loadedModule SisuNode module loaded from Sisu
+     * @return Optional<SisuNode> the module in the student's study programme
+     */
+    private Optional<SisuNode> saveLoadedModule(SisuNode loadedModule) {
+        Optional<Student> currentStudentOptional
+            = fileDataSource.getStudent(appState.getSelectedStudentID());
+        if (currentStudentOptional.isEmpty()) {
+            return Optional.empty();
+        }
+
+        Student currentStudent = currentStudentOptional.get();
+        Optional<SisuNode> module = currentStudent.getStudyProgramme()
+            .map(programme -> programme.findNodeInTree(loadedModule.getGroupId()));
+
+        module.ifPresent(node -> {
+            if (node.isStub()) {
+                node.populateFrom(loadedModule);
+                fileDataSource.saveStudent(currentStudent);
+                currentStudent.getStudyProgramme().ifPresent(this::setStudyProgramme);
+            }
+
+            // Prefetch one level ahead.
+            node.getChildModules().stream()
+                .filter(SisuNode::isStub)
+                .forEach(child -> prefetchModule(child.getGroupId()));
+        });
+        return module;
+    }
+
+
     public void handleSelectedCourseGroupId(String courseGroupId) {
         requestedCourse.set(courseGroupId);
     }
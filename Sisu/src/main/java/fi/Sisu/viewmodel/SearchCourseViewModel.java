@@ -1,15 +1,15 @@
 package fi.Sisu.viewmodel;
 
-import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.Optional;
 
+import fi.Sisu.app.AppConfig;
 import fi.Sisu.app.AppState;
 import fi.Sisu.datasource.IApiDataSource;
 import fi.Sisu.datasource.IFileDataSource;
 import fi.Sisu.model.Course;
 import fi.Sisu.model.SisuNode;
 import fi.Sisu.model.Student;
+import fi.Sisu.model.StudentChange;
 import fi.Sisu.navigation.ScreenType;
 import fi.Sisu.utils.MyJavaFXUtils;
 import javafx.beans.property.ObjectProperty;
@@ -54,13 +54,28 @@ public class SearchCourseViewModel extends ViewModel {
         // the user changes the selected course in treeview
         requestedCourse.addListener((obs, oldCourseCode, newCourseCode) -> {
             if (newCourseCode != null && !newCourseCode.isEmpty()) {
-                Optional<Course> course = this.apiDataSource.getCourse(newCourseCode);
-                course.ifPresent(action -> setCourseProperty(action));
+                loadCourse(newCourseCode);
             }
         });
     }
 
 
+    /**
+     * Loads the course from the API in the background and shows it when it
+     * arrives, unless the user has selected another course meanwhile.
+     * 
+     * @param courseGroupId String groupId of the course
+     */
+    private void loadCourse(String courseGroupId) {
+        apiDataSource.getCourseAsync(courseGroupId).thenAccept(course -> 
+            MyJavaFXUtils.runOnFxThread(() -> {
+                if (courseGroupId.equals(requestedCourse.get())) {
+                    course.ifPresent(action -> setCourseProperty(action));
+                }
+            }));
+    }
+
+
     /**
      * Switches currently selected course. If course does not have grade (as it does
      * not when it is fetched from API) this method "refeshes" the coures and
@@ -76,11 +91,12 @@ public class SearchCourseViewModel extends ViewModel {
         if (course == null) {
             return;
         }
-        // If course is not graded fetch the most recent description from api.        
-        Optional<Course> newCourse = apiDataSource.getCourse(course.getGroupId());
-        newCourse.ifPresent(action -> {
-            setCourseProperty(action);
-        });        
+        // If course is not graded fetch the most recent description from api.
+        // Changing the requested course starts the load, reselecting the
+        // same course has to start it here.
+        if (course.getGroupId().equals(requestedCourse.get())) {
+            loadCourse(course.getGroupId());
+        }
         setRequestedCourse(course.getGroupId());
     }
 
@@ -118,8 +134,7 @@ public class SearchCourseViewModel extends ViewModel {
         boolean courseExists = (existingCourse != null);
 
         // Check that course is not mandatory
-        HashSet<String> set = degreeProgramme.getAllMandatoryCourses();
-        boolean isMandatory = set.contains(courseId);
+        boolean isMandatory = degreeProgramme.hasMandatoryCourse(courseId);
 
         // Check aprpriate action
         if (isMandatory) {
@@ -142,14 +157,15 @@ public class SearchCourseViewModel extends ViewModel {
             }
             else {
                 // If moving first delete existing course
-                HashSet<String> emptySet = new HashSet<>();
-                degreeProgramme.deleteCourse(courseId, emptySet);
+                fileDataSource.applyStudentChange(student, StudentChange.deleteCourse(courseId));
             }
         }
         
-        // Adds and saves the course
-        student.addCourse(appState.getSelectedModuleGroupId(), this.selectedCourse.getValue());
-        fileDataSource.saveStudent(student);   
+        // Adds and saves the course, as a summary if the tree has only summaries.
+        Course selected = this.selectedCourse.getValue();
+        fileDataSource.applyStudentChange(student, StudentChange.addCourse(
+            appState.getSelectedModuleGroupId(), 
+            AppConfig.isSummaryTrees() ? selected.toSummary() : selected));
         setRequestedScreen(ScreenType.CURRICULUM_VIEW_SCREEN);
     }
 
@@ -159,9 +175,14 @@ public class SearchCourseViewModel extends ViewModel {
      * Definies behavior of Search Button press and enter/return key press.
      */
     public void onSearchButtonPressed() {
-        Optional<ArrayList<Course>> courses = 
-            apiDataSource.searchForCourses(this.searchTextField.get());
-        courses.ifPresent(action -> courseList.setAll(action));
+        String keyword = this.searchTextField.get();
+        apiDataSource.searchForCoursesAsync(keyword).thenAccept(courses -> 
+            MyJavaFXUtils.runOnFxThread(() -> {
+                // Ignore results of an older search.
+                if (keyword != null && keyword.equals(searchTextField.get())) {
+                    courses.ifPresent(action -> courseList.setAll(action));
+                }
+            }));
     }
 
     public ObjectProperty<Course> selectedCourseProperty() {
@@ -3,14 +3,23 @@ package fi.Sisu.viewmodel;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
+import fi.Sisu.app.AppConfig;
 import fi.Sisu.app.AppState;
 import fi.Sisu.datasource.IApiDataSource;
 import fi.Sisu.datasource.IFileDataSource;
 import fi.Sisu.model.SisuNode;
 import fi.Sisu.model.Student;
 import fi.Sisu.navigation.ScreenType;
+import fi.Sisu.utils.BackgroundExecutor;
+import fi.Sisu.utils.MyJavaFXUtils;
+import fi.Sisu.utils.PendingLoad;
+import javafx.beans.property.BooleanProperty;
+import javafx.beans.property.DoubleProperty;
 import javafx.beans.property.ObjectProperty;
+import javafx.beans.property.SimpleBooleanProperty;
+import javafx.beans.property.SimpleDoubleProperty;
 import javafx.beans.property.SimpleObjectProperty;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
@@ -30,6 +39,11 @@ public class SelectDegreeProgrammeViewModel extends ViewModel {
 
     private final ObjectProperty<SisuNode> selectedDegreeProgramme;
 
+    // Loading state, the UI shows a progress bar while these are loading.
+    private final BooleanProperty loading;
+    private final DoubleProperty loadingProgress;
+    private PendingLoad pendingLoad;
+
     // Contains the study program items from the Sisu API.
     private ObservableList<SisuNode> studyProgramItems;
     private FilteredList<SisuNode> filteredStudyProgramItems;
@@ -49,13 +63,21 @@ public class SelectDegreeProgrammeViewModel extends ViewModel {
         super(appState, apiDataSource, iFileDataSource);
 
         this.selectedDegreeProgramme = new SimpleObjectProperty<>();
+        this.loading = new SimpleBooleanProperty(false);
+        this.loadingProgress = new SimpleDoubleProperty(0);
+
+        // The lists exist from the start, loadDegreeProgrammes fills them later.
+        this.studyProgramItems = FXCollections.observableArrayList();
+        this.filteredStudyProgramItems = new FilteredList<>(studyProgramItems);
+        this.sortedStudyProgramItems = new SortedList<>(filteredStudyProgramItems);
     }
 
 
     /**
-     * Cancel button returns to the student screen.
+     * Cancel button stops a load in progress and returns to the student screen.
      */
     public void onCancelButtonPressed() {
+        cancelPendingLoad();
         requestedScreen.set(ScreenType.STUDENT_SCREEN);
     }
 
@@ -98,45 +120,147 @@ public class SelectDegreeProgrammeViewModel extends ViewModel {
 
 
     /**
-     * Sets a new study programme to the student.
+     * Sets a new study programme to the student. The programme tree is loaded
+     * in the background, the student is saved and the screen changed when
+     * the loading finishes. With lazy tree loading only the programme and its
+     * immediate children are loaded here.
+     * 
+     * A curriculum already in the curriculum store is used instead of
+     * loading it again. Fully loaded programmes are added to the store.
+     * Reading and storing the curriculum are done in the background too.
+     * Cancelling the load cancels the tree load itself, not only the last
+     * stage waiting for it.
      * 
      * @param student Student object to be updated
      */
     private void setNewStudyProgramme(Student student) {                    
-        Optional<SisuNode> fullDegreeProgramme = 
-        apiDataSource.getStudyProgramme(selectedDegreeProgramme.getValue().getGroupId());
-
-        fullDegreeProgramme.ifPresent(programme -> {
-            student.setStudyProgrammeGroupID(selectedDegreeProgramme.getValue().getGroupId());
-            student.setStudyProgrammeName(selectedDegreeProgramme.getValue().getName());
-            student.setStudyProgramme(programme);
-            fileDataSource.saveStudent(student);
-            setRequestedScreen(ScreenType.PREVIOUS_SCREEN);
-        });     
+        SisuNode selected = selectedDegreeProgramme.getValue();
+        if (selected == null) {
+            return;
+        }
+
+        startLoading();
+        PendingLoad pending = new PendingLoad();
+        pendingLoad = pending;
+        CompletableFuture<Optional<SisuNode>> load = pending.track(CompletableFuture
+            .supplyAsync(() -> fileDataSource.getCurriculum(selected.getGroupId()), BackgroundExecutor.get())
+            .thenCompose(stored -> stored.isPresent() 
+                ? CompletableFuture.completedFuture(stored) 
+                : loadStudyProgramme(selected, pending)));
+
+        load.whenComplete((fullDegreeProgramme, error) -> MyJavaFXUtils.runOnFxThread(() -> {
+            // A newer load or cancel has replaced this one.
+            if (pendingLoad != pending || pending.isCancelled()) {
+                return;
+            }
+            finishLoading();
+
+            if (error != null) {
+                System.err.println("Could not load degree programme: " + error.getMessage());
+                return;
+            }
+
+            fullDegreeProgramme.ifPresent(programme -> {
+                student.setStudyProgrammeGroupID(selected.getGroupId());
+                student.setStudyProgrammeName(selected.getName());
+                student.setStudyProgramme(programme);
+                fileDataSource.saveStudent(student);
+                setRequestedScreen(ScreenType.PREVIOUS_SCREEN);
+            });
+        }));
     }
 
 
     /**
-     * Loads the degree programmes from the Sisu API and initializes the
-     * variables used for sorting and filtering the degreeprogramme list.
+     * Loads a study programme from the Sisu API in the background. Fully
+     * loaded programmes are added to the curriculum store on the background
+     * thread, lazily loaded trees are mostly stubs and not worth sharing.
+     * 
+     * @param selected SisuNode degree programme selected from the list.
+     * @param pending PendingLoad the stages are cancelled with.
+     * @return CompletableFuture<Optional<SisuNode>> the loaded programme.
+     */
+    private CompletableFuture<Optional<SisuNode>> loadStudyProgramme(SisuNode selected, PendingLoad pending) {
+        if (AppConfig.isLazyTreeLoading()) {
+            // Only the top levels now, the rest when the user opens them.
+            return pending.track(apiDataSource.getModuleOneLevelAsync(selected.getGroupId()));
+        }
+        CompletableFuture<Optional<SisuNode>> tree = pending.track(apiDataSource.getStudyProgrammeAsync(
+            selected.getGroupId(),
+            (loaded, discovered) -> MyJavaFXUtils.runOnFxThread(() -> {
+                // Requests already running report after a cancel.
+                if (pendingLoad == pending) {
+                    loadingProgress.set((double) loaded / Math.max(loaded, discovered));
+                }
+            })));
+        return pending.track(tree.thenApplyAsync(programme -> {
+            if (!pending.isCancelled()) {
+                programme.ifPresent(fileDataSource::storeCurriculum);
+            }
+            return programme;
+        }, BackgroundExecutor.get()));
+    }
+
+
+    /**
+     * Loads the degree programmes from the Sisu API in the background, and
+     * fills the list used for sorting and filtering the degreeprogramme list
+     * when they arrive.
      */
     public void loadDegreeProgrammes() {
-        // Get list of study programmes
-        Optional<ArrayList<SisuNode>> list = apiDataSource.getAllStudyProgrammes();
-        list.ifPresentOrElse(action -> {
-            studyProgramItems = FXCollections.observableArrayList(action);
-        
-            // Wrap the ObservableList in a FilteredList (initially display all data).
-            filteredStudyProgramItems = new FilteredList<>(studyProgramItems);
-        
-            // Wrap the FilteredList in a SortedList. (for A-Z/Z-A sorting)
-            sortedStudyProgramItems = new SortedList<>(filteredStudyProgramItems);
-        }, () -> {
-            // If a list could not be provided, initialize an empty one.
-            studyProgramItems = FXCollections.observableArrayList();
-            filteredStudyProgramItems = new FilteredList<>(studyProgramItems);
-            sortedStudyProgramItems = new SortedList<>(filteredStudyProgramItems);
-        });
+        startLoading();
+        PendingLoad pending = new PendingLoad();
+        pendingLoad = pending;
+        CompletableFuture<Optional<ArrayList<SisuNode>>> load = pending.track(apiDataSource.getAllStudyProgrammesAsync());
+
+        load.whenComplete((list, error) -> MyJavaFXUtils.runOnFxThread(() -> {
+            if (pendingLoad != pending || pending.isCancelled()) {
+                return;
+            }
+            finishLoading();
+
+            // If a list could not be provided, the list is left empty.
+            if (error != null || list.isEmpty()) {
+                studyProgramItems.clear();
+                return;
+            }
+            studyProgramItems.setAll(list.get());
+        }));
+    }
+
+
+    /**
+     * Cancels the load in progress, if there is one.
+     */
+    public void cancelPendingLoad() {
+        if (pendingLoad != null) {
+            pendingLoad.cancel();
+            pendingLoad = null;
+        }
+        finishLoading();
+    }
+
+
+    private void startLoading() {
+        cancelPendingLoad();
+        loadingProgress.set(-1); // indeterminate until the first progress report
+        loading.set(true);
+    }
+
+
+    private void finishLoading() {
+        loading.set(false);
+        loadingProgress.set(0);
+    }
+
+
+    public BooleanProperty loadingProperty() {
+        return loading;
+    }
+
+
+    public DoubleProperty loadingProgressProperty() {
+        return loadingProgress;
     }
 
     public void handleSelectedDegreeProgramme(SisuNode dp) {
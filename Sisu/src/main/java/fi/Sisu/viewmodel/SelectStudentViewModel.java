@@ -2,13 +2,16 @@ package fi.Sisu.viewmodel;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 import fi.Sisu.app.AppState;
 import fi.Sisu.datasource.IApiDataSource;
 import fi.Sisu.datasource.IFileDataSource;
-import fi.Sisu.model.Student;
+import fi.Sisu.model.StudentSummary;
 import fi.Sisu.navigation.ScreenType;
+import fi.Sisu.utils.BackgroundExecutor;
+import fi.Sisu.utils.MyJavaFXUtils;
 import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.SimpleObjectProperty;
 import javafx.collections.FXCollections;
@@ -22,8 +25,8 @@ import javafx.collections.ObservableList;
  */
 public class SelectStudentViewModel extends ViewModel {  
 
-    private ObservableList<Student> studentItems;
-    private ObjectProperty<Student> selectedStudent;    
+    private ObservableList<StudentSummary> studentItems;
+    private ObjectProperty<StudentSummary> selectedStudent;    
 
     /**
      * Constructor.
@@ -37,19 +40,28 @@ public class SelectStudentViewModel extends ViewModel {
         {
         super(appState, apiDataSource, iFileDataSource);  
 
-        this.selectedStudent = new SimpleObjectProperty<Student>();
+        this.selectedStudent = new SimpleObjectProperty<StudentSummary>();
+        this.studentItems = FXCollections.observableArrayList();
 
         loadStudents();
     }
 
     /**
-     * loads a list of students from the JSON file to studentItems variable so
-     * the View can display them in the ListView
+     * loads a list of students from the student directory index to 
+     * studentItems variable so the View can display them in the ListView.
+     * Only the summaries are read, not the whole student files. The index
+     * is read in the background, as it may have to be rebuilt from the
+     * student files.
      */
     public void loadStudents() {
-        List<Student> students = fileDataSource.getAllStudents();
-        students = removeInvalidStudents(students);
-        studentItems = FXCollections.observableArrayList(students);
+        CompletableFuture
+            .supplyAsync(() -> removeInvalidStudents(fileDataSource.getStudentSummaries()), BackgroundExecutor.get())
+            .thenAccept(students -> MyJavaFXUtils.runOnFxThread(() -> studentItems.setAll(students)))
+            .exceptionally(e -> {
+                System.err.println("Could not load students: " + e.getMessage());
+                e.printStackTrace();
+                return null;
+            });
     }
 
 
@@ -82,7 +94,7 @@ public class SelectStudentViewModel extends ViewModel {
      * Moves the user to a degreeprogram's screen, which has selected student's
      * degree structure and courses displayed
      */
-    public void onChooseStudentButtonPressed(Optional<Student> chosenStudent) {
+    public void onChooseStudentButtonPressed(Optional<StudentSummary> chosenStudent) {
         chosenStudent.ifPresent(student -> {
             if (student.getStudentID() == null) {
                 return;
@@ -96,10 +108,10 @@ public class SelectStudentViewModel extends ViewModel {
     /**
      * Removes students that have no studentID from the list
      * 
-     * @param students List<Student> to be filtered
-     * @return List<Student> filtered list
+     * @param students List<StudentSummary> to be filtered
+     * @return List<StudentSummary> filtered list
      */
-    public List<Student> removeInvalidStudents(List<Student> students) {
+    public List<StudentSummary> removeInvalidStudents(List<StudentSummary> students) {
         return students.stream()
             .filter(student -> student.getStudentID() != null)
             .collect(Collectors.toList());
@@ -111,7 +123,7 @@ public class SelectStudentViewModel extends ViewModel {
      * 
      * @return
      */
-    public ObservableList<Student> studentItemsProperty() {
+    public ObservableList<StudentSummary> studentItemsProperty() {
         return studentItems;
     }
 
@@ -120,7 +132,7 @@ public class SelectStudentViewModel extends ViewModel {
      * Holds the Student selected in the View's ListView.
      * @return
      */
-    public ObjectProperty<Student> selectedStudentProperty() {
+    public ObjectProperty<StudentSummary> selectedStudentProperty() {
         return selectedStudent;
     }
 
@@ -6,6 +6,10 @@ module fi.Sisu {
 
     requires com.fasterxml.jackson.annotation;
     requires com.fasterxml.jackson.databind;
+    requires com.fasterxml.jackson.dataformat.smile;
+
+    requires java.net.http;
+    requires jdk.httpserver;
 
     opens fi.Sisu.app to javafx.fxml;
     opens fi.Sisu.datasource to org.junit.platform.commons, org.junit.jupiter.params;
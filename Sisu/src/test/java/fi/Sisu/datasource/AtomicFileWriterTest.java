@@ -0,0 +1,85 @@
+package fi.Sisu.datasource;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests for AtomicFileWriter class.
+ */
+public class AtomicFileWriterTest {
+
+    @TempDir
+    Path folder;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+    @AfterEach
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void perSaveTest() throws IOException {
+        AtomicFileWriter writer = new AtomicFileWriter(DurabilityPolicy.PER_SAVE, Duration.ZERO, executor);
+        Path file = folder.resolve("student_abc123.json");
+        List<String> committed = new ArrayList<>();
+
+        writer.write(file, bytes("first"), () -> committed.add("first"));
+        assertEquals("first", Files.readString(file));
+        assertEquals(List.of("first"), committed);
+        assertFalse(Files.exists(folder.resolve("student_abc123.json.tmp")));
+    }
+
+    @Test
+    public void groupedTest() throws IOException {
+        AtomicFileWriter writer = new AtomicFileWriter(DurabilityPolicy.GROUPED, Duration.ofHours(1), executor);
+        Path file = folder.resolve("student_abc123.json");
+        Path other = folder.resolve("student_def456.json");
+        Files.writeString(file, "old");
+        List<String> committed = new ArrayList<>();
+
+        // The old file stays in place until the group is committed.
+        writer.write(file, bytes("first"), () -> committed.add("first"));
+        writer.write(file, bytes("second"), () -> committed.add("second"));
+        writer.write(other, bytes("other"), null);
+        assertEquals("old", Files.readString(file));
+        assertTrue(committed.isEmpty());
+
+        writer.commit();
+        assertEquals("second", Files.readString(file));
+        assertEquals("other", Files.readString(other));
+        assertEquals(List.of("first", "second"), committed);
+        assertFalse(Files.exists(folder.resolve("student_abc123.json.tmp")));
+    }
+
+    @Test
+    public void discardTest() throws IOException {
+        AtomicFileWriter writer = new AtomicFileWriter(DurabilityPolicy.GROUPED, Duration.ofHours(1), executor);
+        Path file = folder.resolve("student_abc123.json");
+
+        writer.write(file, bytes("first"), null);
+        writer.discard(file);
+        writer.commit();
+        assertFalse(Files.exists(file));
+        assertFalse(Files.exists(folder.resolve("student_abc123.json.tmp")));
+    }
+}
@@ -0,0 +1,86 @@
+package fi.Sisu.datasource;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import fi.Sisu.model.Course;
+import fi.Sisu.model.CurriculumOverlay;
+import fi.Sisu.model.SisuNode;
+import fi.Sisu.utils.ObjectMapperFactory;
+
+/**
+ * Tests for CurriculumStore class.
+ */
+public class CurriculumStoreTest {
+
+    @TempDir
+    Path folder;
+
+    private SisuNode createProgramme(String... courseIds) {
+        SisuNode module = new SisuNode("module");
+        for (String courseId : courseIds) {
+            module.addChildCourse(new Course(courseId));
+        }
+        SisuNode programme = new SisuNode("programme");
+        programme.addChildModule(module);
+        return programme;
+    }
+
+    @Test
+    public void versionsTest() {
+        CurriculumStore store = new CurriculumStore(folder, Duration.ofDays(1));
+        assertTrue(store.storeCurriculum(createProgramme("first", "second")));
+
+        SisuNode programme = store.getCurriculum("programme").get();
+        programme.findNodeInTree("module").findCourse("first").setGrade("3");
+        CurriculumOverlay overlay = store.createOverlay(programme).get();
+        assertNotNull(overlay.getCurriculumVersion());
+
+        // Storing the same tree again doesn't make a new version.
+        assertTrue(store.storeCurriculum(createProgramme("first", "second")));
+        assertTrue(store.storeCurriculum(createProgramme("first", "third")));
+        assertEquals(2, folder.toFile().list().length);
+
+        // New students get the new version, the old overlay keeps its own.
+        SisuNode current = new CurriculumStore(folder, Duration.ofDays(1)).getCurriculum("programme").get();
+        assertTrue(current.findNodeInTree("module").getChildCourses().containsKey("third"));
+        SisuNode resolved = new CurriculumStore(folder, Duration.ofDays(1)).resolve(overlay).get();
+        assertTrue(resolved.findNodeInTree("module").getChildCourses().containsKey("second"));
+        assertEquals("3", resolved.findNodeInTree("module").findCourse("first").getGrade());
+    }
+
+    @Test
+    public void expiryTest() {
+        CurriculumStore store = new CurriculumStore(folder, Duration.ZERO);
+        assertTrue(store.storeCurriculum(createProgramme("first")));
+
+        // Expired curriculums are loaded again, but still resolve overlays.
+        assertFalse(store.getCurriculum("programme").isPresent());
+        CurriculumOverlay overlay = store.createOverlay(createProgramme("first")).get();
+        assertTrue(store.resolve(overlay).isPresent());
+    }
+
+    @Test
+    public void unversionedFileTest() throws Exception {
+        Files.write(folder.resolve("programme.json"),
+            ObjectMapperFactory.getSisuNodeWriter().writeValueAsBytes(createProgramme("first")));
+        CurriculumStore store = new CurriculumStore(folder, Duration.ofDays(1));
+        assertTrue(store.getCurriculum("programme").isPresent());
+
+        CurriculumOverlay overlay = new CurriculumOverlay("programme");
+        assertNull(overlay.getCurriculumVersion());
+        assertTrue(store.storeCurriculum(createProgramme("second")));
+        SisuNode resolved = store.resolve(overlay).get();
+        assertTrue(resolved.findNodeInTree("module").getChildCourses().containsKey("first"));
+    }
+}
@@ -0,0 +1,306 @@
+package fi.Sisu.datasource;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import fi.Sisu.app.AppConfig;
+import fi.Sisu.model.Course;
+import fi.Sisu.model.SisuNode;
+import fi.Sisu.model.Student;
+import fi.Sisu.model.StudentChange;
+import fi.Sisu.model.StudentSummary;
+
+/**
+ * Tests for the student cache, the delayed writes and the curriculum
+ * overlays of FileDataSource.
+ */
+public class FileDataSourceTest {
+
+    @TempDir
+    Path studentsFolder;
+
+    // Long enough that nothing is written before flush is called.
+    private FileDataSource createDataSource() {
+        return new FileDataSource(studentsFolder, createCurriculumStore(), Duration.ofHours(1));
+    }
+
+    private CurriculumStore createCurriculumStore() {
+        return new CurriculumStore(studentsFolder.resolve("curriculums"));
+    }
+
+    private Student readFromDisk(String studentId) {
+        return new FileDataSource(studentsFolder, createCurriculumStore(), Duration.ZERO)
+            .getStudent(studentId).get();
+    }
+
+    // The index is written on the shared writer thread, let it finish
+    // before the folder is deleted.
+    @AfterEach
+    public void waitForWriterThread() {
+        createDataSource().flush();
+    }
+
+    @Test
+    public void cachesStudentTest() {
+        FileDataSource dataSource = createDataSource();
+        assertTrue(dataSource.addStudent("abc123", "Jim", "Halpert"));
+
+        Student student = dataSource.getStudent("abc123").get();
+        assertSame(student, dataSource.getStudent("abc123").get());
+
+        dataSource.invalidateStudent("abc123");
+        Student reloaded = dataSource.getStudent("abc123").get();
+        assertNotSame(student, reloaded);
+        assertEquals("Jim", reloaded.getFirstName());
+    }
+
+    @Test
+    public void coalescesSavesTest() {
+        FileDataSource dataSource = createDataSource();
+        assertTrue(dataSource.addStudent("abc123", "Jim", "Halpert"));
+
+        Student student = dataSource.getStudent("abc123").get();
+        student.setFirstName("Pam");
+        assertTrue(dataSource.saveStudent(student));
+        student.setFirstName("Dwight");
+        assertTrue(dataSource.saveStudent(student));
+
+        // Saves are still in memory.
+        assertEquals("Jim", readFromDisk("abc123").getFirstName());
+        assertEquals("Dwight", dataSource.getStudent("abc123").get().getFirstName());
+
+        dataSource.flush();
+        assertEquals("Dwight", readFromDisk("abc123").getFirstName());
+    }
+
+    @Test
+    public void deleteDropsPendingWriteTest() {
+        FileDataSource dataSource = createDataSource();
+        assertTrue(dataSource.addStudent("abc123", "Jim", "Halpert"));
+
+        Student student = dataSource.getStudent("abc123").get();
+        student.setLastName("Beesly");
+        assertTrue(dataSource.saveStudent(student));
+        assertTrue(dataSource.deleteStudent("abc123"));
+        dataSource.flush();
+
+        assertFalse(dataSource.studentExists("abc123"));
+        assertFalse(Files.exists(studentsFolder.resolve("student_abc123.json")));
+    }
+
+    @Test
+    public void studentDirectoryTest() throws Exception {
+        FileDataSource dataSource = createDataSource();
+        assertTrue(dataSource.addStudent("abc123", "Jim", "Halpert"));
+        assertTrue(dataSource.addStudent("def456", "Pam", "Beesly"));
+
+        Student student = dataSource.getStudent("abc123").get();
+        student.setFirstName("Dwight");
+        assertTrue(dataSource.saveStudent(student));
+        dataSource.flush();
+        assertTrue(dataSource.deleteStudent("def456"));
+
+        List<StudentSummary> summaries = dataSource.getStudentSummaries();
+        assertEquals(1, summaries.size());
+        assertEquals("Dwight", summaries.get(0).getFirstName());
+        // The index is written on the writer thread.
+        dataSource.flush();
+        assertTrue(Files.exists(studentsFolder.resolve("directory.index")));
+
+        // A file changed outside of the data source is read again.
+        Files.writeString(studentsFolder.resolve("student_ghi789.json"),
+            "{\"studentID\":\"ghi789\",\"firstName\":\"Kevin\",\"lastName\":\"Malone\"}");
+        summaries = createDataSource().getStudentSummaries();
+        assertEquals(List.of("abc123", "ghi789"), 
+            summaries.stream().map(StudentSummary::getStudentID).collect(Collectors.toList()));
+        assertEquals("Kevin", summaries.get(1).getFirstName());
+    }
+
+    @Test
+    public void loadAllStudentsTest() throws Exception {
+        FileDataSource dataSource = createDataSource();
+        for (int i = 100; i < 150; i++) {
+            assertTrue(dataSource.addStudent("abc" + i, "Jim", "Halpert"));
+        }
+        Files.writeString(studentsFolder.resolve("student_broken.json"), "{\"studentID\":");
+        Files.writeString(studentsFolder.resolve("student_x.json"), "{}");
+
+        // Corrupt files end up in the report, without dialogs.
+        Set<String> loaded = ConcurrentHashMap.newKeySet();
+        StudentLoadReport report = createDataSource()
+            .loadAllStudents(student -> loaded.add(student.getStudentID()))
+            .get(10, TimeUnit.SECONDS);
+        assertEquals(50, report.getLoadedCount());
+        assertEquals(50, loaded.size());
+        assertEquals(Set.of("broken", "x"), report.getFailures().stream()
+            .map(StudentLoadReport.Failure::getStudentId).collect(Collectors.toSet()));
+
+        assertEquals(50, createDataSource().getAllStudents().size());
+        assertEquals(50, createDataSource().getStudentsFromFiles(
+            Optional.of(studentsFolder.toFile().listFiles((folder, name) -> name.endsWith(".json")))).size());
+
+        // The index is rebuilt without the corrupt files, which are left as they are.
+        assertEquals(50, createDataSource().getStudentSummaries().size());
+        assertEquals("{\"studentID\":", Files.readString(studentsFolder.resolve("student_broken.json")));
+    }
+
+    @Test
+    public void savesOverlayTest() throws Exception {
+        SisuNode module = new SisuNode("module");
+        module.addChildCourse(new Course("first"));
+        module.addChildCourse(new Course("second"));
+        SisuNode programme = new SisuNode("programme");
+        programme.addChildModule(module);
+
+        FileDataSource dataSource = createDataSource();
+        assertTrue(dataSource.storeCurriculum(programme));
+        assertTrue(dataSource.addStudent("abc123", "Jim", "Halpert"));
+
+        Student student = dataSource.getStudent("abc123").get();
+        student.setStudyProgramme(dataSource.getCurriculum("programme").get());
+        student.setGrade("module", "first", "5");
+        SisuNode studentModule = student.getStudyProgramme().get().findNodeInTree("module");
+        studentModule.addChildCourse(new Course("added"));
+        studentModule.removeChildCourse("second");
+        studentModule.setChosenCourses(new HashSet<>(Set.of("first", "added")));
+        assertTrue(dataSource.saveStudent(student));
+        dataSource.flush();
+
+        // Only the changes are in the student file.
+        String json = Files.readString(studentsFolder.resolve("student_abc123.json"));
+        assertTrue(json.contains("curriculumOverlay"));
+        assertFalse(json.contains("childModules"));
+
+        SisuNode loaded = readFromDisk("abc123").getStudyProgramme().get().findNodeInTree("module");
+        assertEquals("5", loaded.findCourse("first").getGrade());
+        assertTrue(loaded.getChildCourses().containsKey("added"));
+        assertFalse(loaded.getChildCourses().containsKey("second"));
+        assertEquals(Set.of("first", "added"), loaded.getChosenCourses());
+
+        // The shared curriculum is not changed.
+        SisuNode curriculum = dataSource.getCurriculum("programme").get().findNodeInTree("module");
+        assertNull(curriculum.findCourse("first").getGrade());
+        assertTrue(curriculum.getChildCourses().containsKey("second"));
+    }
+
+    @Test
+    public void journalTest() throws Exception {
+        Course first = new Course("first");
+        first.setTargetCredits(5);
+        SisuNode module = new SisuNode("module");
+        module.addChildCourse(first);
+        module.addChildCourse(new Course("second"));
+        SisuNode programme = new SisuNode("programme");
+        programme.addChildModule(module);
+
+        FileDataSource dataSource = createDataSource();
+        assertTrue(dataSource.storeCurriculum(programme));
+        assertTrue(dataSource.addStudent("abc123", "Jim", "Halpert"));
+        Student student = dataSource.getStudent("abc123").get();
+        student.setStudyProgramme(dataSource.getCurriculum("programme").get());
+        assertTrue(dataSource.saveStudent(student));
+        dataSource.flush();
+        String json = Files.readString(studentsFolder.resolve("student_abc123.json"));
+
+        assertTrue(dataSource.applyStudentChange(student, StudentChange.setGrade("module", "first", "5")));
+        assertTrue(dataSource.applyStudentChange(student, StudentChange.addCourse("module", new Course("added"))));
+        assertTrue(dataSource.applyStudentChange(student, StudentChange.deleteCourse("second")));
+        assertFalse(dataSource.applyStudentChange(student, StudentChange.deleteCourse("missing")));
+        assertEquals(3, student.getJournalSequence());
+
+        // Only the changes are written, they are replayed when loaded.
+        Path journal = studentsFolder.resolve("student_abc123.journal");
+        assertEquals(json, Files.readString(studentsFolder.resolve("student_abc123.json")));
+        assertTrue(Files.size(journal) < 1000);
+        SisuNode loaded = readFromDisk("abc123").getStudyProgramme().get().findNodeInTree("module");
+        assertEquals("5", loaded.findCourse("first").getGrade());
+        assertTrue(loaded.getChildCourses().containsKey("added"));
+        assertFalse(loaded.getChildCourses().containsKey("second"));
+        assertEquals(5, dataSource.getStudentSummaries().get(0).getCompletedCredits());
+        assertEquals(5, createDataSource().getStudentSummaries().get(0).getCompletedCredits());
+
+        // Flushing compacts the journal into the student file.
+        dataSource.flush();
+        assertFalse(Files.exists(journal));
+        Student compacted = readFromDisk("abc123");
+        assertEquals(3, compacted.getJournalSequence());
+        assertEquals("5", compacted.getStudyProgramme().get().findCourseInTree("first").getGrade());
+
+        // A journal past the limit is compacted on the writer thread.
+        System.setProperty(AppConfig.STUDENT_JOURNAL_COMPACT_BYTES, "1");
+        try {
+            assertTrue(dataSource.applyStudentChange(student, StudentChange.setGrade("module", "first", "4")));
+            // Commits the compacted file after the compaction has run.
+            dataSource.invalidateStudent("abc123");
+            assertFalse(Files.exists(journal));
+            compacted = readFromDisk("abc123");
+            assertEquals(4, compacted.getJournalSequence());
+            assertEquals("4", compacted.getStudyProgramme().get().findCourseInTree("first").getGrade());
+        }
+        finally {
+            System.clearProperty(AppConfig.STUDENT_JOURNAL_COMPACT_BYTES);
+        }
+    }
+
+    @Test
+    public void studentFileFormatTest() throws Exception {
+        FileDataSource dataSource = createDataSource();
+        assertTrue(dataSource.addStudent("abc123", "Jim", "Halpert"));
+        assertTrue(dataSource.addStudent("def456", "Pam", "Beesly"));
+        Path file = studentsFolder.resolve("student_abc123.json");
+        assertEquals(StudentFileFormat.JSON, StudentFileFormat.detect(Files.readAllBytes(file)));
+
+        // Converted files get the extension of their format.
+        assertEquals(2, dataSource.convertStudentFiles(StudentFileFormat.SMILE_GZIP));
+        assertFalse(Files.exists(file));
+        file = studentsFolder.resolve("student_abc123.sml.gz");
+        assertEquals(StudentFileFormat.SMILE_GZIP, StudentFileFormat.detect(Files.readAllBytes(file)));
+        assertEquals("Jim", readFromDisk("abc123").getFirstName());
+        assertEquals(0, dataSource.convertStudentFiles(StudentFileFormat.SMILE_GZIP));
+
+        // Saved in the configured format, read whatever it is.
+        System.setProperty(AppConfig.STUDENT_FILE_FORMAT, "smile");
+        try {
+            Student student = dataSource.getStudent("abc123").get();
+            student.setFirstName("Dwight");
+            assertTrue(dataSource.saveStudent(student));
+            dataSource.flush();
+        }
+        finally {
+            System.clearProperty(AppConfig.STUDENT_FILE_FORMAT);
+        }
+        assertFalse(Files.exists(file));
+        file = studentsFolder.resolve("student_abc123.sml");
+        assertEquals(StudentFileFormat.SMILE, StudentFileFormat.detect(Files.readAllBytes(file)));
+        assertEquals("Dwight", readFromDisk("abc123").getFirstName());
+        assertEquals(List.of("Dwight", "Pam"), createDataSource().getStudentSummaries().stream()
+            .map(StudentSummary::getFirstName).collect(Collectors.toList()));
+        assertEquals(2, createDataSource().getAllStudents().size());
+
+        // Content is sniffed, whatever the extension says.
+        Files.move(file, studentsFolder.resolve("student_abc123.json"));
+        assertEquals("Dwight", readFromDisk("abc123").getFirstName());
+
+        assertTrue(dataSource.deleteStudent("def456"));
+        assertFalse(Files.exists(studentsFolder.resolve("student_def456.sml.gz")));
+    }
+}
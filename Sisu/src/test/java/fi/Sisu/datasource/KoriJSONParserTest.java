@@ -1,8 +1,13 @@
 package fi.Sisu.datasource;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.stream.Stream;
 
 import org.junit.jupiter.api.Test;
@@ -117,4 +122,77 @@ public class KoriJSONParserTest {
         assertEquals(0, sm.getChildModuleIds().size());
         assertEquals("Yhteiskuntatutkimuksen teoriat, ideat ja käytännöt", sm.getName());
     }
+
+    /**
+     * Tests parsing of a course response without the Kori API. Only the
+     * first version of the course is used and unknown fields are skipped.
+     */
+    @Test
+    public void parseCourseFromStringTest() {
+        KoriJSONParser parser = new KoriJSONParser();
+        String json = "[{\"id\":\"x\",\"groupId\":\"uta-ykoodi-47926\",\"code\":\"MATH.MA.110\","
+            + "\"name\":{\"en\":\"Introduction to analysis\",\"fi\":\"Johdatus analyysiin\"},"
+            + "\"unknown\":{\"nested\":[1,2,{\"name\":\"skipped\"}]},"
+            + "\"gradeScaleId\":\"sis-0-5\",\"credits\":{\"min\":5,\"max\":5},"
+            + "\"content\":null,\"outcomes\":{\"en\":\"Outcomes\"}},"
+            + "{\"groupId\":\"second-version\"}]";
+
+        Course c = parser.parseCourse(json);
+
+        assertEquals("Johdatus analyysiin", c.getName());
+        assertEquals("MATH.MA.110", c.getAbbreviation());
+        assertEquals("uta-ykoodi-47926", c.getGroupId());
+        assertEquals(5, c.getTargetCredits());
+        assertTrue(c.isGraded());
+        assertNull(c.getContentDescription());
+        assertEquals("Outcomes", c.getLearningOutcomes());
+    }
+
+    /**
+     * Tests parsing of a module with nested rules without the Kori API.
+     */
+    @Test
+    public void parseModuleFromStringTest() {
+        KoriJSONParser parser = new KoriJSONParser();
+        String json = "[{\"type\":\"StudyModule\",\"groupId\":\"sm-1\",\"code\":\"SM\","
+            + "\"name\":{\"fi\":\"Opintokokonaisuus\"},\"targetCredits\":{\"min\":30,\"max\":null},"
+            + "\"rule\":{\"type\":\"CreditsRule\",\"rule\":{\"type\":\"CompositeRule\","
+            + "\"allMandatory\":false,\"rules\":["
+            + "{\"type\":\"ModuleRule\",\"moduleGroupId\":\"child-1\"},"
+            + "{\"type\":\"CompositeRule\",\"allMandatory\":true,\"rules\":["
+            + "{\"type\":\"CourseUnitRule\",\"courseUnitGroupId\":\"course-1\"}]},"
+            + "{\"type\":\"CourseUnitRule\",\"courseUnitGroupId\":\"course-2\"}]}}}]";
+
+        SisuNode sm = parser.parseModule(json);
+
+        assertEquals("sm-1", sm.getGroupId());
+        assertEquals("Opintokokonaisuus", sm.getName());
+        assertEquals(30, sm.getTargetCredits());
+        assertEquals(1, sm.getChildModuleIds().size());
+        assertEquals(2, sm.getChildCourses().size());
+        assertTrue(sm.getMandatoryCourses().contains("course-1"));
+        assertFalse(sm.getMandatoryCourses().contains("course-2"));
+    }
+
+    /**
+     * Tests that course search results can be parsed from a stream.
+     */
+    @Test
+    public void parseCourseSearchResultsFromStreamTest() {
+        KoriJSONParser parser = new KoriJSONParser();
+        String json = "{\"start\":0,\"total\":2,\"searchResults\":["
+            + "{\"groupId\":\"c-1\",\"name\":\"Ohjelmointi 1\",\"code\":\"COMP.CS.100\","
+            + "\"credits\":{\"min\":5,\"max\":5},\"lang\":\"fi\"},"
+            + "{\"groupId\":\"c-2\",\"name\":\"Ohjelmointi 3\",\"code\":\"COMP.CS.140\","
+            + "\"credits\":{\"min\":5,\"max\":null}}],\"truncated\":false}";
+
+        ArrayList<Course> courses = parser.parseCourseSearchResults(
+            new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(2, courses.size());
+        assertEquals("c-1", courses.get(0).getGroupId());
+        assertEquals("Ohjelmointi 1", courses.get(0).getName());
+        assertEquals("COMP.CS.140", courses.get(1).getAbbreviation());
+        assertEquals(5, courses.get(1).getTargetCredits());
+    }
 }
@@ -0,0 +1,68 @@
+package fi.Sisu.datasource;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Optional;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests for KoriResponseCache class.
+ */
+public class KoriResponseCacheTest {
+
+    @TempDir
+    Path cacheFolder;
+
+    @Test
+    public void putAndGetTest() {
+        KoriResponseCache cache = new KoriResponseCache(cacheFolder, 1024 * 1024);
+        cache.put("modules", "uta-tohjelma-1705", "[{\"name\":\"åäö\"}]", "\"abc\"", null);
+
+        Optional<KoriResponseCache.CachedResponse> cached = cache.get("modules", "uta-tohjelma-1705");
+        assertTrue(cached.isPresent(), "The response was not cached");
+        assertEquals("[{\"name\":\"åäö\"}]", cached.get().getBody());
+        assertEquals("\"abc\"", cached.get().getEtag().get());
+        assertFalse(cached.get().getLastModified().isPresent());
+        assertTrue(cached.get().isFresh(Duration.ofHours(1)));
+        assertFalse(cached.get().isFresh(Duration.ZERO));
+
+        // Different request type is a different entry.
+        assertFalse(cache.get("course-units", "uta-tohjelma-1705").isPresent());
+    }
+
+    @Test
+    public void persistsOverInstancesTest() {
+        new KoriResponseCache(cacheFolder, 1024 * 1024)
+            .put("course-units", "otm-1", "{}", null, "Wed, 21 Oct 2015 07:28:00 GMT");
+
+        KoriResponseCache cache = new KoriResponseCache(cacheFolder, 1024 * 1024);
+        Optional<KoriResponseCache.CachedResponse> cached = cache.get("course-units", "otm-1");
+        assertTrue(cached.isPresent(), "The response was not read from disk");
+        assertEquals("Wed, 21 Oct 2015 07:28:00 GMT", cached.get().getLastModified().get());
+        assertEquals(2, cache.getTotalBytes());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedTest() {
+        KoriResponseCache cache = new KoriResponseCache(cacheFolder, 30);
+        cache.put("modules", "a", "0123456789", null, null);
+        cache.put("modules", "b", "0123456789", null, null);
+        cache.put("modules", "c", "0123456789", null, null);
+
+        // Use "a" so "b" becomes the least recently used one.
+        assertTrue(cache.get("modules", "a").isPresent());
+        cache.put("modules", "d", "0123456789", null, null);
+
+        assertTrue(cache.get("modules", "a").isPresent());
+        assertFalse(cache.get("modules", "b").isPresent());
+        assertTrue(cache.get("modules", "c").isPresent());
+        assertTrue(cache.get("modules", "d").isPresent());
+        assertEquals(30, cache.getTotalBytes());
+    }
+}
@@ -0,0 +1,48 @@
+package fi.Sisu.datasource;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests for KoriSnapshot class.
+ */
+public class KoriSnapshotTest {
+
+    @TempDir
+    Path folder;
+
+    @Test
+    public void writeAndGetTest() throws IOException {
+        Path file = folder.resolve("snapshot/kori.snapshot");
+        KoriSnapshot.write(file, Map.of(
+            KoriSnapshot.getKey("modules", "uta-tohjelma-1705"), "[{\"name\":\"åäö\"}]",
+            KoriSnapshot.getKey("course-units", "otm-1234"), "[]"));
+
+        KoriSnapshot snapshot = KoriSnapshot.open(file);
+        assertEquals(2, snapshot.size());
+        assertEquals(Optional.of("[{\"name\":\"åäö\"}]"), snapshot.get("modules", "uta-tohjelma-1705"));
+        assertEquals(Optional.of("[]"), snapshot.get("course-units", "otm-1234"));
+        assertFalse(snapshot.get("modules", "otm-1234").isPresent());
+        assertFalse(Files.exists(folder.resolve("snapshot/kori.snapshot.tmp")));
+    }
+
+    @Test
+    public void invalidFileTest() throws IOException {
+        Path file = folder.resolve("kori.snapshot");
+        Files.writeString(file, "[{\"name\":\"not a snapshot\"}]");
+        assertThrows(IOException.class, () -> KoriSnapshot.open(file));
+
+        Files.writeString(file, "");
+        assertThrows(IOException.class, () -> KoriSnapshot.open(file));
+    }
+}
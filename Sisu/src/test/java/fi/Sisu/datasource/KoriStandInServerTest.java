@@ -0,0 +1,108 @@
+package fi.Sisu.datasource;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import fi.Sisu.app.AppConfig;
+
+/**
+ * Tests for KoriStandInServer class, through KoriAPIRequester.
+ */
+public class KoriStandInServerTest {
+
+    private static final String MODULE = "[{\"groupId\":\"uta-tohjelma-1705\",\"name\":{\"fi\":\"åäö\"}}]";
+    private static final String FIRST_COURSE = "[{\"groupId\":\"otm-1\",\"code\":\"A\"}]";
+    private static final String SECOND_COURSE = "[{\"groupId\":\"otm-2\",\"code\":\"B\"}]";
+
+    @TempDir
+    Path fixtureFolder;
+
+    private KoriStandInServer server;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        KoriFixtures fixtures = new KoriFixtures(fixtureFolder);
+        fixtures.onResponse("modules", "uta-tohjelma-1705", MODULE);
+        fixtures.onResponse("course-units", "otm-1", FIRST_COURSE);
+        fixtures.onResponse("course-units", "otm-2", SECOND_COURSE);
+
+        server = new KoriStandInServer(fixtures);
+        server.start(0);
+        System.setProperty(AppConfig.API_BASE_URL, server.getBaseUrl() + "/");
+        System.setProperty(AppConfig.API_CACHE_ENABLED, "false");
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.stop();
+        System.clearProperty(AppConfig.API_BASE_URL);
+        System.clearProperty(AppConfig.API_CACHE_ENABLED);
+    }
+
+    @Test
+    public void servesFixturesTest() {
+        server.setLatency(Duration.ofMillis(20), Duration.ofMillis(10));
+
+        long start = System.nanoTime();
+        assertEquals(MODULE, KoriAPIRequester.requestModuleInfo("uta-tohjelma-1705"));
+        assertTrue(System.nanoTime() - start >= Duration.ofMillis(20).toNanos());
+
+        Map<String, String> courses = KoriAPIRequester.requestCourseInfos(List.of("otm-1", "otm-2", "otm-3"));
+        assertEquals(Map.of("otm-1", FIRST_COURSE, "otm-2", SECOND_COURSE), courses);
+        assertEquals("[]", KoriAPIRequester.requestModuleInfo("missing"));
+        assertEquals(3, server.getRequestCount());
+    }
+
+    @Test
+    public void injectsErrorsTest() {
+        server.setErrorRate(1);
+        assertNull(KoriAPIRequester.requestModuleInfo("uta-tohjelma-1705"));
+        assertEquals(1, server.getErrorCount());
+
+        server.setErrorRate(0);
+        assertEquals(MODULE, KoriAPIRequester.requestModuleInfo("uta-tohjelma-1705"));
+        assertEquals(1, server.getErrorCount());
+    }
+
+    @Test
+    public void repeatableErrorsTest() {
+        List<String> groupIds = IntStream.range(0, 20)
+            .mapToObj(i -> "otm-missing-" + i)
+            .collect(Collectors.toList());
+        server.setErrorRate(0.5);
+
+        // Same errors whether the requests arrive in order or concurrently.
+        server.setSeed(7);
+        Map<String, Boolean> sequential = new ConcurrentHashMap<>();
+        groupIds.forEach(groupId -> 
+            sequential.put(groupId, KoriAPIRequester.requestModuleInfo(groupId) == null));
+
+        server.setSeed(7);
+        List<String> shuffled = new ArrayList<>(groupIds);
+        Collections.shuffle(shuffled);
+        Map<String, Boolean> concurrent = new ConcurrentHashMap<>();
+        shuffled.parallelStream().forEach(groupId -> 
+            concurrent.put(groupId, KoriAPIRequester.requestModuleInfo(groupId) == null));
+
+        assertEquals(sequential, concurrent);
+        assertTrue(sequential.containsValue(true));
+        assertTrue(sequential.containsValue(false));
+    }
+}
@@ -0,0 +1,175 @@
+package fi.Sisu.datasource;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import fi.Sisu.model.Course;
+import fi.Sisu.model.SisuNode;
+
+/**
+ * Tests for ModuleTreeLoader class, with modules and courses served from
+ * memory instead of the Kori API.
+ */
+public class ModuleTreeLoaderTest {
+
+    private final HashMap<String, SisuNode> modules = new HashMap<>();
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private ExecutorService executor;
+
+    @BeforeEach
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(2);
+
+        // root -> a -> c (course-2)
+        //      -> b (course-1, course-3, course-4) -> c (course-2)
+        //      -> missing
+        SisuNode root = new SisuNode("root");
+        root.addChildModuleId("a");
+        root.addChildModuleId("b");
+        root.addChildModuleId("missing");
+        SisuNode a = new SisuNode("a");
+        a.addChildModuleId("c");
+        SisuNode b = new SisuNode("b");
+        b.addChildCourse(new Course("course-1"));
+        b.addChildCourse(new Course("course-3"));
+        b.addChildCourse(new Course("course-4"));
+        b.addChildModuleId("c");
+        SisuNode c = new SisuNode("c");
+        c.addChildCourse(new Course("course-2"));
+
+        modules.put("root", root);
+        modules.put("a", a);
+        modules.put("b", b);
+        modules.put("c", c);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private ModuleTreeLoader createLoader(int courseBatchSize) {
+        return new ModuleTreeLoader(
+            groupId -> {
+                requestCount.incrementAndGet();
+                SisuNode module = modules.get(groupId);
+                if (module == null) {
+                    return Optional.empty();
+                }
+                // Fetches return a fresh module without children, like the API.
+                SisuNode copy = new SisuNode(groupId);
+                module.getChildModuleIds().forEach(copy::addChildModuleId);
+                module.getChildCourses().keySet().forEach(id -> copy.addChildCourse(new Course(id)));
+                return Optional.of(copy);
+            },
+            groupIds -> {
+                requestCount.incrementAndGet();
+                assertTrue(groupIds.size() <= courseBatchSize, "Too many courses in one batch");
+                HashMap<String, Course> courses = new HashMap<>();
+                for (String groupId : groupIds) {
+                    Course course = new Course(groupId);
+                    course.setName("Name of " + groupId);
+                    courses.put(groupId, course);
+                }
+                return courses;
+            },
+            courseBatchSize,
+            executor);
+    }
+
+    @Test
+    public void loadsWholeTreeTest() {
+        AtomicInteger lastLoaded = new AtomicInteger();
+        AtomicInteger lastDiscovered = new AtomicInteger();
+        Optional<SisuNode> root = createLoader(25)
+            .load("root", (loaded, discovered) -> {
+                lastLoaded.accumulateAndGet(loaded, Math::max);
+                lastDiscovered.accumulateAndGet(discovered, Math::max);
+            })
+            .join();
+
+        assertTrue(root.isPresent());
+        assertEquals(2, root.get().getChildModules().size());
+        assertEquals("a", root.get().getChildModules().get(0).getGroupId());
+        assertEquals("b", root.get().getChildModules().get(1).getGroupId());
+
+        SisuNode c = root.get().findNodeInTree("c");
+        assertNotNull(c);
+        assertEquals("Name of course-2", c.getChildCourses().get("course-2").getName());
+        assertEquals("Name of course-1", root.get().findCourseInTree("course-1").getName());
+
+        // Module c is in two branches, both get their own copy.
+        SisuNode cInA = root.get().getChildModules().get(0).getChildModules().get(0);
+        SisuNode cInB = root.get().getChildModules().get(1).getChildModules().get(0);
+        assertEquals("c", cInB.getGroupId());
+        assertNotSame(cInA, cInB);
+        assertNotSame(cInA.getChildCourses().get("course-2"), cInB.getChildCourses().get("course-2"));
+
+        // 5 modules (including the missing one), c only once, and one
+        // course batch for both b and c.
+        assertEquals(7, requestCount.get());
+        assertEquals(9, lastLoaded.get());
+        assertEquals(9, lastDiscovered.get());
+    }
+
+    @Test
+    public void splitsCourseBatchesTest() {
+        Optional<SisuNode> root = createLoader(2).load("root", null).join();
+
+        assertTrue(root.isPresent());
+        assertEquals("Name of course-4", root.get().findCourseInTree("course-4").getName());
+
+        // 5 modules, 2 batches for the 3 courses of b, 1 for the course of c.
+        assertEquals(8, requestCount.get());
+    }
+
+    @Test
+    public void cancelStopsLoadingTest() throws InterruptedException {
+        // Hold the first request until the load has been cancelled.
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch cancelled = new CountDownLatch(1);
+        ModuleTreeLoader loader = new ModuleTreeLoader(
+            groupId -> {
+                requestCount.incrementAndGet();
+                started.countDown();
+                try {
+                    cancelled.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return Optional.of(modules.get(groupId));
+            },
+            groupIds -> {
+                requestCount.incrementAndGet();
+                return new HashMap<>();
+            },
+            25,
+            executor);
+
+        CompletableFuture<Optional<SisuNode>> future = loader.load("root", null);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertTrue(future.cancel(false));
+        cancelled.countDown();
+
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertTrue(future.isCancelled());
+        assertEquals(1, requestCount.get(), "Child modules were fetched after cancel");
+    }
+}
@@ -0,0 +1,84 @@
+package fi.Sisu.datasource;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the batched calls of SingleFlight.
+ */
+public class SingleFlightTest {
+
+    @Test
+    public void runAllJoinsCallsInFlightTest() throws Exception {
+        SingleFlight<String> flight = new SingleFlight<>();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<String> single = CompletableFuture.supplyAsync(() -> flight.run("a", () -> {
+            started.countDown();
+            await(release);
+            return "single a";
+        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        // Only the keys not in flight are in the batch.
+        AtomicInteger batches = new AtomicInteger();
+        CompletableFuture<Map<String, String>> batch = CompletableFuture.supplyAsync(() ->
+            flight.runAll(List.of("a", "b", "c", "b"), keys -> {
+                batches.incrementAndGet();
+                release.countDown();
+                assertEquals(List.of("b", "c"), keys);
+                return Map.of("b", "batch b");
+            }));
+
+        assertEquals(Map.of("a", "single a", "b", "batch b"), batch.get(5, TimeUnit.SECONDS));
+        assertEquals("single a", single.get(5, TimeUnit.SECONDS));
+        assertEquals(1, batches.get());
+        assertEquals(0, flight.getInFlightCount());
+    }
+
+    @Test
+    public void runAllRegistersKeysTest() throws Exception {
+        SingleFlight<String> flight = new SingleFlight<>();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Map<String, String>> batch = CompletableFuture.supplyAsync(() ->
+            flight.runAll(List.of("a", "b"), keys -> {
+                started.countDown();
+                await(release);
+                return toResults(keys);
+            }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        // The keys are in flight before the batch is sent, so single calls
+        // for them wait for it.
+        assertEquals(2, flight.getInFlightCount());
+        release.countDown();
+
+        assertEquals(Map.of("a", "batch a", "b", "batch b"), batch.get(5, TimeUnit.SECONDS));
+        assertEquals(0, flight.getInFlightCount());
+    }
+
+    private static Map<String, String> toResults(Collection<String> keys) {
+        return keys.stream().collect(Collectors.toMap(key -> key, key -> "batch " + key));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package fi.Sisu.datasource;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import fi.Sisu.model.StudentChange;
+
+/**
+ * Tests for StudentJournal class.
+ */
+public class StudentJournalTest {
+
+    @TempDir
+    Path folder;
+
+    private List<Long> sequences(StudentJournal journal) throws IOException {
+        return journal.read().stream()
+            .map(StudentJournal.Entry::getSequence)
+            .collect(Collectors.toList());
+    }
+
+    @Test
+    public void appendAndReadTest() throws IOException {
+        Path file = folder.resolve("student_abc123.journal");
+        StudentJournal journal = new StudentJournal(file, DurabilityPolicy.NONE);
+        assertTrue(journal.read().isEmpty());
+
+        journal.append(1, StudentChange.setGrade("module", "first", "5"));
+        journal.append(2, StudentChange.deleteCourse("second"));
+
+        List<StudentJournal.Entry> entries = new StudentJournal(file, DurabilityPolicy.NONE).read();
+        assertEquals(2, entries.size());
+        assertEquals(StudentChange.Type.SET_GRADE, entries.get(0).getChange().getType());
+        assertEquals("first", entries.get(0).getChange().getCourseGroupId());
+        assertEquals(StudentChange.Type.DELETE_COURSE, entries.get(1).getChange().getType());
+        assertTrue(journal.size() < 200);
+    }
+
+    @Test
+    public void brokenTailTest() throws IOException {
+        Path file = folder.resolve("student_abc123.journal");
+        StudentJournal journal = new StudentJournal(file, DurabilityPolicy.NONE);
+        journal.append(1, StudentChange.setGrade("module", "first", "5"));
+        long validSize = journal.size();
+
+        // A record cut off in the middle of its payload.
+        journal.append(2, StudentChange.setGrade("module", "second", "4"));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(journal.size() - 5);
+        }
+
+        StudentJournal reopened = new StudentJournal(file, DurabilityPolicy.NONE);
+        assertEquals(List.of(1L), sequences(reopened));
+        assertEquals(validSize, Files.size(file));
+
+        reopened.append(2, StudentChange.deleteCourse("third"));
+        assertEquals(List.of(1L, 2L), sequences(new StudentJournal(file, DurabilityPolicy.NONE)));
+    }
+
+    @Test
+    public void truncateThroughTest() throws IOException {
+        Path file = folder.resolve("student_abc123.journal");
+        StudentJournal journal = new StudentJournal(file, DurabilityPolicy.NONE);
+        for (long sequence = 1; sequence <= 3; sequence++) {
+            journal.append(sequence, StudentChange.removeCourse("module", "course" + sequence));
+        }
+
+        journal.truncateThrough(2);
+        assertEquals(List.of(3L), sequences(journal));
+        assertEquals("course3", journal.read().get(0).getChange().getCourseGroupId());
+
+        journal.truncateThrough(3);
+        assertFalse(Files.exists(file));
+        assertEquals(0, journal.size());
+    }
+}
@@ -0,0 +1,84 @@
+package fi.Sisu.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import fi.Sisu.utils.ObjectMapperFactory;
+
+public class CompactProgrammeTreeTest {
+
+    private SisuNode createProgramme() {
+        SisuNode programme = new SisuNode("programme");
+        programme.setName("Programme");
+        programme.setTargetCredits(180);
+        programme.addMandatoryCourse("first");
+
+        SisuNode module = new SisuNode("module");
+        module.setContentDescription("Description");
+        module.addChildModuleId("stub");
+        Course first = new Course("first");
+        first.setName("First");
+        first.setTargetCredits(5);
+        first.setGraded(true);
+        first.setGrade("4");
+        module.addChildCourse(first);
+        module.addChildCourse(new Course("second"));
+        module.addChosenCourse("second");
+
+        SisuNode stub = new SisuNode("stub");
+        stub.setStub(true);
+        stub.setContentDescription("Description");
+        module.addChildModule(stub);
+
+        programme.addChildModule(module);
+        programme.addChildModule(new SisuNode(module));
+        return programme;
+    }
+
+    @Test
+    public void toSisuNodeTest() throws Exception {
+        SisuNode programme = createProgramme();
+        CompactProgrammeTree compact = new CompactProgrammeTree(programme);
+        assertEquals("programme", compact.getGroupId());
+        assertEquals(5, compact.getModuleCount());
+
+        SisuNode built = compact.toSisuNode();
+        assertEquals(
+            ObjectMapperFactory.getSisuNodeWriter().writeValueAsString(programme),
+            ObjectMapperFactory.getSisuNodeWriter().writeValueAsString(built));
+        assertEquals(10, built.getCompletedCredits());
+
+        // Repeated modules are separate objects, texts are shared.
+        List<SisuNode> modules = built.findAllNodesInTree("module");
+        assertEquals(2, modules.size());
+        assertNotSame(modules.get(0), modules.get(1));
+        assertSame(
+            modules.get(0).getContentDescription(),
+            built.findNodeInTree("stub").getContentDescription());
+    }
+
+    @Test
+    public void lookupTest() {
+        CompactProgrammeTree compact = new CompactProgrammeTree(createProgramme());
+
+        int module = compact.findModule("module");
+        assertEquals(1, module);
+        assertTrue(compact.hasChildCourse(module, "first"));
+        assertFalse(compact.hasChildCourse(module, "third"));
+        assertEquals(Set.of("first", "second"), Set.copyOf(compact.getChildCourseIds(module)));
+        assertEquals(Set.of("second"), compact.getChosenCourses(module));
+        assertTrue(compact.isStub(compact.findModule("stub")));
+        assertEquals(-1, compact.findModule("first"));
+        assertEquals(-1, compact.findModule("missing"));
+        assertNull(compact.toSisuNode().findNodeInTree("missing"));
+    }
+}
@@ -1,12 +1,15 @@
 package fi.Sisu.model;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.util.Optional;
 import org.junit.jupiter.api.Test;
 
 import fi.Sisu.datasource.ApiDataSource;
+import fi.Sisu.utils.ObjectMapperFactory;
 
 
 public class CourseTest {
@@ -39,5 +42,31 @@ public class CourseTest {
         course.ifPresent(action -> {
             assertEquals("LANG.SUV.001, Suomi 1, 3op", action.toString());
         });
-    }    
+    }
+
+    @Test
+    public void testCourseSummary() throws Exception {
+        Course full = new Course("course");
+        full.setName("Course");
+        full.setContentDescription("Description");
+        full.setLearningOutcomes("Outcome");
+        full.setPrerequisites("Prerequisites");
+        assertFalse(ObjectMapperFactory.getCourseWriter().writeValueAsString(full).contains("summaryOnly"));
+
+        Course summary = full.toSummary();
+        assertTrue(summary.isSummaryOnly());
+        assertEquals("Course", summary.getName());
+        assertNull(summary.getContentDescription());
+        assertNull(summary.getLearningOutcomes());
+        assertNull(summary.getPrerequisites());
+        assertTrue(ObjectMapperFactory.getCourseWriter().writeValueAsString(summary).contains("summaryOnly"));
+
+        // The grade of the summary is kept when the details are added.
+        summary.setGrade("4");
+        Course detailed = summary.withDetailsFrom(full);
+        assertFalse(detailed.isSummaryOnly());
+        assertEquals("4", detailed.getGrade());
+        assertEquals("Description", detailed.getContentDescription());
+        assertEquals("Prerequisites", detailed.getPrerequisites());
+    }
 }
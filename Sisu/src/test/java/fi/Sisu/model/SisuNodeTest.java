@@ -1,8 +1,14 @@
 package fi.Sisu.model;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.util.HashSet;
+import java.util.Set;
+
 import org.junit.jupiter.api.Test;
 public class SisuNodeTest {
 
@@ -40,5 +46,162 @@ public class SisuNodeTest {
         assertEquals(course, foundCourse);
         assertEquals("courseToFind", foundCourse.getGroupId());
     }
-    
+
+    @Test
+    public void populateStubTest() {
+        // Stub as saved in the student's file: only the groupIds of children.
+        SisuNode stub = new SisuNode("stubId");
+        stub.setStub(true);
+        stub.addChildModuleId("childId");
+        stub.addChildCourse(new Course("courseId"));
+        stub.addChosenCourse("courseId");
+        stub.findCourse("courseId").setGrade("4");
+
+        SisuNode loaded = new SisuNode("stubId");
+        SisuNode child = new SisuNode("childId");
+        child.setStub(true);
+        loaded.addChildModule(child);
+        Course loadedCourse = new Course("courseId");
+        loadedCourse.setName("Loaded course");
+        loaded.addChildCourse(loadedCourse);
+
+        stub.populateFrom(loaded);
+
+        assertFalse(stub.isStub());
+        assertEquals(1, stub.getChildModules().size());
+        assertTrue(stub.getChildModules().get(0).isStub());
+        assertEquals("Loaded course", stub.findCourse("courseId").getName());
+        assertEquals("4", stub.findCourse("courseId").getGrade());
+        assertTrue(stub.getChosenCourses().contains("courseId"));
+    }
+
+    @Test
+    public void indexFollowsChangesTest() {
+        SisuNode root = new SisuNode("root");
+        SisuNode first = new SisuNode("first");
+        first.addChildCourse(new Course("shared"));
+        root.addChildModule(first);
+
+        // The index is built by the first lookup.
+        assertSame(first, root.findNodeInTree("first"));
+        assertNull(root.findNodeInTree(null));
+
+        // Modules and courses added after that are found too.
+        SisuNode second = new SisuNode("second");
+        second.addChildCourse(new Course("shared"));
+        root.addChildModule(second);
+        second.addChildCourse(new Course("own"));
+        assertSame(second, root.findNodeInTree("second"));
+        assertEquals("second", root.findCourseParentGroupId("own"));
+
+        // The first module in depth first order wins, but lookups from a
+        // subtree only find nodes of the subtree.
+        assertEquals("first", root.findCourseParentGroupId("shared"));
+        assertEquals("second", second.findCourseParentGroupId("shared"));
+        assertNull(second.findNodeInTree("first"));
+
+        root.deleteCourse("shared", new HashSet<>());
+        assertNull(root.findCourseInTree("shared"));
+        assertFalse(second.getChildCourses().containsKey("shared"));
+        assertEquals("own", root.findCourseInTree("own").getGroupId());
+    }
+
+    @Test
+    public void subtreeCountsTest() {
+        SisuNode root = new SisuNode("root");
+        SisuNode first = new SisuNode("first");
+        first.addChildCourse(new Course("shared"));
+        first.addMandatoryCourse("shared");
+        root.addChildModule(first);
+
+        // Counts are computed by the first query, and updated after that.
+        assertTrue(root.hasMandatoryCourse("shared"));
+        SisuNode second = new SisuNode("second");
+        second.addChildCourse(new Course("shared"));
+        second.addChildCourse(new Course("optional"));
+        second.addMandatoryCourse("shared");
+        root.addChildModule(second);
+        second.addChosenCourse("optional");
+        assertTrue(root.hasChosenCourse("optional"));
+        assertFalse(first.hasChosenCourse("optional"));
+
+        // Still mandatory in the second module.
+        first.removeMandatoryCourse("shared");
+        assertTrue(root.hasMandatoryCourse("shared"));
+        second.setMandatoryCourses(new HashSet<>());
+        assertFalse(root.hasMandatoryCourse("shared"));
+        assertTrue(root.getAllMandatoryCourses().isEmpty());
+
+        second.setChosenCourses(new HashSet<>());
+        assertFalse(root.hasChosenCourse("optional"));
+        assertTrue(root.getAllChosenCourses().isEmpty());
+    }
+
+    @Test
+    public void creditTotalsTest() {
+        SisuNode root = new SisuNode("root");
+        SisuNode module = new SisuNode("module");
+        Course mandatory = new Course("mandatory");
+        mandatory.setTargetCredits(5);
+        module.addChildCourse(mandatory);
+        module.addMandatoryCourse("mandatory");
+        root.addChildModule(module);
+
+        assertEquals(0, root.getCompletedCredits());
+        assertEquals(5, root.getChosenCredits());
+
+        // Totals follow grades, credits and chosen courses after that.
+        mandatory.setGrade("3");
+        assertEquals(5, root.getCompletedCredits());
+        mandatory.setGrade("fail");
+        assertEquals(0, root.getCompletedCredits());
+        mandatory.setGrade("pass");
+        mandatory.setTargetCredits(10);
+        assertEquals(10, root.getCompletedCredits());
+
+        Course optional = new Course("optional");
+        optional.setTargetCredits(3);
+        optional.setGrade("5");
+        module.addChildCourse(optional);
+        assertEquals(13, root.getCompletedCredits());
+        assertEquals(10, root.getChosenCredits());
+        module.addChosenCourse("optional");
+        assertEquals(13, root.getChosenCredits());
+
+        SisuNode other = new SisuNode("other");
+        Course otherCourse = new Course("otherCourse");
+        otherCourse.setTargetCredits(2);
+        otherCourse.setGrade("pass");
+        other.addChildCourse(otherCourse);
+        root.addChildModule(other);
+        assertEquals(15, root.getCompletedCredits());
+
+        root.deleteCourse("optional", new HashSet<>());
+        assertEquals(12, root.getCompletedCredits());
+        assertEquals(10, root.getChosenCredits());
+        assertEquals(10, module.getCompletedCredits());
+    }
+
+    @Test
+    public void sharedEmptyCollectionsTest() {
+        SisuNode first = new SisuNode("first");
+        SisuNode second = new SisuNode("second");
+        first.addChildCourse(new Course("course"));
+        first.addChosenCourse("course");
+        first.addChildModuleId("child");
+        first.addChildModule(new SisuNode("child"));
+
+        assertTrue(second.getChildCourses().isEmpty());
+        assertTrue(second.getChosenCourses().isEmpty());
+        assertTrue(second.getChildModuleIds().isEmpty());
+        assertTrue(second.getChildModules().isEmpty());
+
+        // Copies keep their own collections.
+        SisuNode copy = new SisuNode(first);
+        copy.removeChosenCourse("course");
+        copy.addMandatoryCourse("course");
+        assertEquals(Set.of("course"), first.getChosenCourses());
+        assertTrue(first.getMandatoryCourses().isEmpty());
+        assertEquals(Set.of("course"), copy.getMandatoryCourses());
+    }
 }
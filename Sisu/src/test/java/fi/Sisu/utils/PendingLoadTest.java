@@ -0,0 +1,75 @@
+package fi.Sisu.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import fi.Sisu.datasource.ModuleTreeLoader;
+import fi.Sisu.model.SisuNode;
+
+/**
+ * Tests for PendingLoad class.
+ */
+public class PendingLoadTest {
+
+    @Test
+    public void cancelStopsInnerLoadTest() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        AtomicInteger requestCount = new AtomicInteger();
+
+        // Hold the first request until the load has been cancelled.
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch cancelled = new CountDownLatch(1);
+        ModuleTreeLoader loader = new ModuleTreeLoader(
+            groupId -> {
+                requestCount.incrementAndGet();
+                started.countDown();
+                try {
+                    cancelled.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                SisuNode module = new SisuNode(groupId);
+                module.addChildModuleId(groupId + "-child");
+                return Optional.of(module);
+            },
+            groupIds -> new HashMap<>(),
+            25,
+            executor);
+
+        // Composed like the degree programme load: a stored curriculum is
+        // looked up first, then the tree is loaded.
+        PendingLoad pending = new PendingLoad();
+        CompletableFuture<Optional<SisuNode>> load = pending.track(CompletableFuture
+            .supplyAsync(Optional::<SisuNode>empty, executor)
+            .thenCompose(stored -> pending.track(loader.load("root", null))));
+
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        pending.cancel();
+        cancelled.countDown();
+
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertTrue(load.isCancelled());
+        assertTrue(pending.isCancelled());
+        assertEquals(1, requestCount.get(), "Queued requests were sent after cancel");
+    }
+
+    @Test
+    public void tracksAfterCancelTest() {
+        PendingLoad pending = new PendingLoad();
+        pending.cancel();
+        assertTrue(pending.track(new CompletableFuture<>()).isCancelled());
+    }
+}
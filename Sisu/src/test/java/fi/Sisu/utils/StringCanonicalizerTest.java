@@ -0,0 +1,47 @@
+package fi.Sisu.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import fi.Sisu.model.SisuNode;
+
+public class StringCanonicalizerTest {
+
+    @Test
+    public void canonicalizeTest() {
+        StringCanonicalizer strings = new StringCanonicalizer(10);
+
+        String id = new String("otm-1234");
+        assertSame(id, strings.canonicalize(id));
+        assertSame(id, strings.canonicalize(new String("otm-1234")));
+
+        String text = new String("<p>A long description</p>");
+        assertSame(text, strings.canonicalize(text));
+        assertSame(text, strings.canonicalize(new String("<p>A long description</p>")));
+        assertNotSame(text, strings.canonicalize(new String("<p>Another description</p>")));
+
+        assertNull(strings.canonicalize(null));
+        assertEquals(5, strings.getLookupCount());
+        assertEquals(2, strings.getDuplicateCount());
+        assertEquals(40 + 8 + 40 + 25, strings.getBytesSaved());
+    }
+
+    @Test
+    public void jacksonSharesStringsTest() throws Exception {
+        String json = "{\"groupId\":\"shared-id\",\"childCourses\":{\"course-id\":null},"
+            + "\"mandatoryCourses\":[\"course-id\"]}";
+        SisuNode first = ObjectMapperFactory.getSisuNodeReader().readValue(json);
+        SisuNode second = ObjectMapperFactory.getSisuNodeReader().readValue(json);
+
+        assertSame(first.getGroupId(), second.getGroupId());
+        String key = first.getChildCourses().keySet().iterator().next();
+        assertSame(key, second.getChildCourses().keySet().iterator().next());
+        assertTrue(first.getMandatoryCourses().contains(key));
+        assertSame(key, first.getMandatoryCourses().iterator().next());
+    }
+}